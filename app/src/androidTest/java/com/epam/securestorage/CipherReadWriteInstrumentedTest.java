@@ -1,18 +1,60 @@
 package com.epam.securestorage;
 
 import android.content.Context;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.epam.securestorage.core.ChangeEvent;
+import com.epam.securestorage.core.ChangeListener;
+import com.epam.securestorage.core.Compression;
+import com.epam.securestorage.core.HistogramMetricsRecorder;
+import com.epam.securestorage.core.KeyRotation;
+import com.epam.securestorage.core.KeySource;
+import com.epam.securestorage.core.LogStorageBackend;
+import com.epam.securestorage.core.OperationTrace;
+import com.epam.securestorage.core.SecureStorageCallback;
+import com.epam.securestorage.core.SecureStorageException;
+import com.epam.securestorage.core.SecureStorageResultCallback;
 import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.core.WriteBehindQueue;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Instrumented test, which will execute on an Android device.
@@ -104,4 +146,523 @@ public class CipherReadWriteInstrumentedTest {
         storage.erase();
         assertNull(storage.get("KEY2"));
     }
+
+    @Test
+    public void shouldSaveAllValues() {
+        Map<String, String> values = new HashMap<>();
+        values.put("batch1", "1");
+        values.put("batch2", "2");
+        values.put("batch3", "3");
+        storage.saveAll(values);
+        assertEquals("2", storage.get("batch2"));
+        assertEquals(values, storage.getAll(values.keySet()));
+    }
+
+    @Test
+    public void shouldRemoveAllValues() {
+        Map<String, String> values = new HashMap<>();
+        values.put("batch4", "4");
+        values.put("batch5", "5");
+        storage.saveAll(values);
+        storage.removeAll(Arrays.asList("batch4", "batch5"));
+        assertNull(storage.get("batch4"));
+        assertTrue(storage.getAll(values.keySet()).isEmpty());
+    }
+
+    @Test
+    public void shouldSaveAndGetValueAsync() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        storage.saveAsync("asyncKey", "first", direct, null);
+        storage.saveAsync("asyncKey", "second", direct, null);
+        Future<String> value = storage.getAsync("asyncKey", direct, null);
+        assertEquals("second", value.get());
+    }
+
+    @Test
+    public void shouldOrderBatchesAgainstSingleKeyOperations() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            storage.saveAsync("ordered", "single" + i, direct, null);
+            storage.saveAllAsync(Collections.singletonMap("ordered", "batch" + i), direct, null);
+            assertEquals("batch" + i, storage.getAsync("ordered", direct, null).get(5, TimeUnit.SECONDS));
+
+            storage.saveAsync("erased" + i, "value", direct, null);
+            storage.eraseAsync(direct, null);
+            // Created after the erase was requested, so it must outlive it
+            storage.saveAsync("kept" + i, "value", direct, null);
+            assertNull(storage.getAsync("erased" + i, direct, null).get(5, TimeUnit.SECONDS));
+            assertEquals("value", storage.getAsync("kept" + i, direct, null).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void shouldFailFutureWhenProviderReportsError() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final List<Exception> errors = new ArrayList<>();
+        Future<Void> saved = storage.saveAsync("", "value", direct, new SecureStorageResultCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                errors.add(e);
+            }
+        });
+        try {
+            saved.get(5, TimeUnit.SECONDS);
+            fail("Empty key must fail the Future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SecureStorageException);
+        }
+        assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void shouldReadAndWriteConcurrently() throws Exception {
+        final int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String key = "concurrent" + t;
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int i = 0; i < 50; i++) {
+                        String value = key + "value" + i;
+                        storage.save(key, value);
+                        if (!value.equals(storage.get(key))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldKeepCacheConsistentUnderConcurrentWritesOfOneKey() throws Exception {
+        storage.enableCache(64 * 1024, 60000);
+        final int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String prefix = "writer" + t + "value";
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int i = 0; i < 50; i++) {
+                        storage.save("shared", prefix + i);
+                        String value = storage.get("shared");
+                        if (value == null || !value.startsWith("writer")) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+        // A read racing a write must not leave the older value in the cache
+        String cached = storage.get("shared");
+        storage.disableCache();
+        assertEquals(storage.get("shared"), cached);
+    }
+
+    @Test
+    public void shouldSaveValueLargerThanRsaBlock() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("{\"flag").append(i).append("\":true}");
+        }
+        String value = builder.toString();
+        storage.save("largeKey", value);
+        assertEquals(value, storage.get("largeKey"));
+    }
+
+    @Test
+    public void shouldWriteAndReadStream() throws IOException {
+        byte[] payload = new byte[200 * 1024 + 7];
+        new Random(7).nextBytes(payload);
+        OutputStream out = storage.openOutputStream("streamKey");
+        out.write(payload);
+        out.close();
+
+        InputStream in = storage.openInputStream("streamKey");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        assertArrayEquals(payload, bytes.toByteArray());
+        storage.removeStream("streamKey");
+    }
+
+    @Test
+    public void shouldSaveAndGetBytes() {
+        byte[] secret = new byte[32];
+        new Random(32).nextBytes(secret);
+        storage.saveBytes("bytesKey", secret);
+        assertArrayEquals(secret, storage.getBytes("bytesKey"));
+
+        ByteBuffer out = ByteBuffer.allocate(secret.length);
+        assertEquals(secret.length, storage.getBytes("bytesKey", out));
+        assertArrayEquals(secret, out.array());
+        assertEquals(-1, storage.getBytes("missingBytesKey", out));
+    }
+
+    @Test
+    public void shouldSaveValueInLogBackend() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        SecureStorage logStorage = new SecureStorage(context, SecurityProvider.Type.CIPHER,
+                LogStorageBackend.open(context, "instrumented_test"), null);
+        logStorage.save("logKey", "logValue");
+        logStorage.save("logKey", "logValue2");
+        assertEquals("logValue2", logStorage.get("logKey"));
+        logStorage.remove("logKey");
+        assertNull(logStorage.get("logKey"));
+    }
+
+    @Test
+    public void shouldIsolateNamespaces() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        SecureStorage first = SecureStorage.openNamespace(context, SecurityProvider.Type.CIPHER, "first", null);
+        SecureStorage second = SecureStorage.openNamespace(context, SecurityProvider.Type.CIPHER, "second", null);
+        first.save("namespaceKey", "firstValue");
+        second.save("namespaceKey", "secondValue");
+        storage.save("namespaceKey", "defaultValue");
+
+        first.erase();
+        assertNull(first.get("namespaceKey"));
+        assertEquals("secondValue", second.get("namespaceKey"));
+        assertEquals("defaultValue", storage.get("namespaceKey"));
+
+        first.save("namespaceKey", "newValue");
+        assertEquals("newValue", first.get("namespaceKey"));
+        first.erase();
+        second.erase();
+    }
+
+    @Test
+    public void shouldListKeysWithoutDecrypting() throws IOException {
+        SecureStorage indexed = SecureStorage.openNamespace(InstrumentationRegistry.getTargetContext(),
+                SecurityProvider.Type.CIPHER, "index", null);
+        indexed.save("user.name", "name");
+        indexed.save("user.mail", "mail");
+        indexed.save("token", "token");
+        assertTrue(indexed.contains("token"));
+        assertEquals(3, indexed.size());
+        assertEquals(Arrays.asList("user.mail", "user.name"), new ArrayList<>(indexed.keys("user.")));
+
+        indexed.remove("token");
+        assertFalse(indexed.contains("token"));
+        indexed.erase();
+        assertEquals(0, indexed.size());
+    }
+
+    @Test
+    public void shouldSeeKeysWrittenByAnotherInstance() {
+        SecureStorage other = new SecureStorage(InstrumentationRegistry.getTargetContext(), SecurityProvider.Type.CIPHER);
+        assertFalse(other.contains("sharedKey"));
+        int size = other.size();
+        storage.save("sharedKey", "sharedValue");
+        assertTrue(other.contains("sharedKey"));
+        assertEquals(size + 1, other.size());
+        assertTrue(other.keys("shared").contains("sharedKey"));
+
+        other.remove("sharedKey");
+        assertFalse(storage.contains("sharedKey"));
+        assertEquals(size, storage.size());
+    }
+
+    @Test
+    public void shouldRecordOperationMetrics() {
+        HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+        storage.setMetricsListener(recorder);
+        storage.save("metricsKey", "metricsValue");
+        assertEquals("metricsValue", storage.get("metricsKey"));
+        storage.setMetricsListener(null);
+        storage.get("metricsKey");
+
+        assertEquals(1, recorder.getLatency(SecurityProvider.Type.CIPHER, SecureStorageCallback.ActionType.SAVE).getCount());
+        assertEquals(1, recorder.getLatency(SecurityProvider.Type.CIPHER, SecureStorageCallback.ActionType.GET).getCount());
+        assertEquals(1, recorder.getLatency(SecurityProvider.Type.CIPHER, SecureStorageCallback.ActionType.GET, OperationTrace.Phase.CIPHER).getCount());
+        assertEquals(12, recorder.getPayloadSize(SecurityProvider.Type.CIPHER, SecureStorageCallback.ActionType.GET).getMax());
+    }
+
+    @Test
+    public void shouldCompressLargeValues() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            json.append("{\"flag\":\"feature_").append(i).append("\",\"enabled\":true},");
+        }
+        String value = json.append("{}]").toString();
+        storage.save("compressedKey", value);
+        storage.setCompressionThreshold(256);
+        storage.save("compressedKey2", value);
+        storage.save("smallKey", "smallValue");
+        storage.setCompressionThreshold(Compression.DISABLED);
+
+        assertEquals(value, storage.get("compressedKey"));
+        assertEquals(value, storage.get("compressedKey2"));
+        assertEquals("smallValue", storage.get("smallKey"));
+        ByteBuffer out = ByteBuffer.allocate(value.length());
+        assertEquals(value.length(), storage.getBytes("compressedKey2", out));
+    }
+
+    @Test
+    public void shouldSaveTypedValues() {
+        storage.saveInt("intKey", -42);
+        storage.saveLong("longKey", Long.MAX_VALUE);
+        storage.saveDouble("doubleKey", 0.1);
+        storage.saveBoolean("booleanKey", true);
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        storage.saveStringSet("setKey", set);
+        storage.save("stringKey", "42");
+
+        assertEquals(-42, storage.getInt("intKey", 0));
+        assertEquals(Long.MAX_VALUE, storage.getLong("longKey", 0));
+        assertEquals(0.1, storage.getDouble("doubleKey", 0), 0);
+        assertTrue(storage.getBoolean("booleanKey", false));
+        assertEquals(set, storage.getStringSet("setKey", null));
+        assertEquals(7, storage.getInt("missingKey", 7));
+        // Mismatches fall back to the default value
+        assertEquals(7, storage.getInt("stringKey", 7));
+        assertEquals(7, storage.getInt("longKey", 7));
+        assertNull(storage.getStringSet("intKey", null));
+    }
+
+    @Test
+    public void shouldNotifyChangeListeners() throws InterruptedException {
+        final List<ChangeEvent> received = new ArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(2);
+        ChangeListener listener = new ChangeListener() {
+            @Override
+            public void onChanged(List<ChangeEvent> changes) {
+                synchronized (received) {
+                    received.addAll(changes);
+                }
+                delivered.countDown();
+            }
+        };
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        storage.addPrefixChangeListener("profile.", 100, true, direct, listener);
+        storage.save("profile.name", "first");
+        storage.save("profile.name", "second");
+        storage.save("unrelated", "value");
+        storage.saveInt("profile.age", 30);
+        Thread.sleep(500);
+        storage.remove("profile.name");
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        storage.removeChangeListener(listener);
+
+        synchronized (received) {
+            assertEquals(3, received.size());
+            assertEquals("profile.name", received.get(0).getKey());
+            assertEquals("second", received.get(0).getValue());
+            assertEquals("profile.age", received.get(1).getKey());
+            assertTrue(received.get(2).isRemoved());
+        }
+    }
+
+    @Test
+    public void shouldCommitTransactionAtomically() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        FailingStorageBackend backend = new FailingStorageBackend(LogStorageBackend.open(context, "transaction_test"));
+        final List<Exception> errors = new ArrayList<>();
+        SecureStorage transactional = new SecureStorage(context, SecurityProvider.Type.CIPHER, backend, new SecureStorageCallback() {
+            @Override
+            public void onComplete(ActionType actionType) {
+            }
+
+            @Override
+            public void onError(ActionType actionType, Exception e) {
+                errors.add(e);
+            }
+        });
+        assertTrue(transactional.edit().putString("access", "a1").putString("refresh", "r1").putLong("expiry", 1).commit());
+
+        backend.failing = true;
+        assertFalse(transactional.edit().putString("access", "a2").putString("refresh", "r2").remove("expiry").commit());
+        backend.failing = false;
+        assertEquals(1, errors.size());
+        // An invalid change fails the whole transaction before anything is written
+        assertFalse(transactional.edit().putString("access", "a3").putString("refresh", "").commit());
+        assertEquals("a1", transactional.get("access"));
+        assertEquals("r1", transactional.get("refresh"));
+        assertEquals(1, transactional.getLong("expiry", 0));
+
+        assertTrue(transactional.edit().putString("access", "a4").remove("expiry").apply().get(5, TimeUnit.SECONDS));
+        assertEquals("a4", transactional.get("access"));
+        assertFalse(transactional.contains("expiry"));
+        transactional.removeAll(Arrays.asList("access", "refresh"));
+    }
+
+    @Test
+    public void shouldCoalesceSavesBehindWrites() {
+        storage.enableWriteBehind(60000, 100);
+        for (int i = 0; i < 50; i++) {
+            storage.saveLong("nonce", i);
+        }
+        storage.save("name", "pending");
+        // Reads are served from the queue before anything is written
+        assertEquals(49, storage.getLong("nonce", -1));
+        assertEquals("pending", storage.get("name"));
+        assertTrue(storage.keys("").contains("nonce"));
+
+        WriteBehindQueue queue = storage.getWriteBehindQueue();
+        assertEquals(49, queue.getCoalescedCount());
+        // A direct write wins over the pending value
+        storage.remove("name");
+        assertNull(storage.get("name"));
+
+        assertTrue(storage.flush());
+        assertEquals(1, queue.getFlushCount());
+        assertTrue(storage.disableWriteBehind());
+        assertNull(storage.getWriteBehindQueue());
+        assertEquals(49, storage.getLong("nonce", -1));
+        assertFalse(storage.contains("name"));
+    }
+
+    @Test
+    public void shouldSaveValueWithWrappedKey() throws IOException {
+        SecureStorage wrapped = SecureStorage.openNamespace(InstrumentationRegistry.getTargetContext(),
+                SecurityProvider.Type.CIPHER, "wrapped", KeySource.Mode.WRAPPED, null);
+        wrapped.save("wrappedKey", "wrappedValue");
+        assertEquals("wrappedValue", wrapped.get("wrappedKey"));
+        // The data key is kept in the namespace file, not in the app preferences
+        for (String key : PreferenceManager.getDefaultSharedPreferences(InstrumentationRegistry.getTargetContext()).getAll().keySet()) {
+            assertFalse(key, key.contains(".wrapped."));
+        }
+        storage.save("wrappedKey", "keystoreValue");
+        assertEquals("wrappedValue", wrapped.get("wrappedKey"));
+
+        wrapped.erase();
+        assertNull(wrapped.get("wrappedKey"));
+        assertEquals("keystoreValue", storage.get("wrappedKey"));
+    }
+
+    @Test
+    public void shouldReadValuesDuringKeyRotation() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        SecureStorage rotated = SecureStorage.openNamespace(InstrumentationRegistry.getTargetContext(),
+                SecurityProvider.Type.CIPHER, "rotation", null);
+        for (int i = 0; i < 50; i++) {
+            rotated.save("rotation" + i, "value" + i);
+        }
+        KeyRotation rotation = rotated.rotateKeys(8, 0.5f, direct, null);
+        rotated.save("rotation0", "changed");
+        assertEquals("value1", rotated.get("rotation1"));
+        assertTrue(rotation.await(30, TimeUnit.SECONDS));
+        assertNull(rotation.getError());
+
+        assertEquals("changed", rotated.get("rotation0"));
+        for (int i = 1; i < 50; i++) {
+            assertEquals("value" + i, rotated.get("rotation" + i));
+        }
+        assertTrue(rotated.resumeKeyRotation(direct, null).await(30, TimeUnit.SECONDS));
+        rotated.erase();
+    }
+
+    //Drops the changes and reports the commit as failed, as a full disk would
+    private static class FailingStorageBackend implements StorageBackend {
+
+        private final StorageBackend storage;
+        volatile boolean failing;
+
+        FailingStorageBackend(StorageBackend storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public String getString(@NonNull String key, String defValue) {
+            return storage.getString(key, defValue);
+        }
+
+        @Override
+        public boolean contains(@NonNull String key) {
+            return storage.contains(key);
+        }
+
+        @NonNull
+        @Override
+        public Set<String> keys() {
+            return storage.keys();
+        }
+
+        @NonNull
+        @Override
+        public Editor edit() {
+            final Editor editor = storage.edit();
+            return new Editor() {
+                @NonNull
+                @Override
+                public Editor putString(@NonNull String key, @NonNull String value) {
+                    editor.putString(key, value);
+                    return this;
+                }
+
+                @NonNull
+                @Override
+                public Editor remove(@NonNull String key) {
+                    editor.remove(key);
+                    return this;
+                }
+
+                @NonNull
+                @Override
+                public Editor clear() {
+                    editor.clear();
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    return !failing && editor.commit();
+                }
+
+                @Override
+                public void apply() {
+                    if (!failing) {
+                        editor.apply();
+                    }
+                }
+            };
+        }
+    }
 }
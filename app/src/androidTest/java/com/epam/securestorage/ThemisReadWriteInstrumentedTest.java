@@ -1,18 +1,41 @@
 package com.epam.securestorage;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
 
+import com.cossacklabs.themis.SecureCell;
+import com.epam.securestorage.core.Envelope;
 import com.epam.securestorage.core.SecurityProvider;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Instrumented test, which will execute on an Android device.
@@ -116,4 +139,139 @@ public class ThemisReadWriteInstrumentedTest {
         assertNull(storage.get("KEY3"));
         assertNull(storage.get("KEY4"));
     }
+
+    @Test
+    public void shouldSaveAllValues() {
+        Map<String, String> values = new HashMap<>();
+        values.put("batch1", "1");
+        values.put("batch2", "2");
+        values.put("batch3", "3");
+        storage.saveAll(values);
+        assertEquals("2", storage.get("batch2"));
+        assertEquals(values, storage.getAll(values.keySet()));
+    }
+
+    @Test
+    public void shouldRemoveAllValues() {
+        Map<String, String> values = new HashMap<>();
+        values.put("batch4", "4");
+        values.put("batch5", "5");
+        storage.saveAll(values);
+        storage.removeAll(Arrays.asList("batch4", "batch5"));
+        assertNull(storage.get("batch4"));
+        assertTrue(storage.getAll(values.keySet()).isEmpty());
+    }
+
+    @Test
+    public void shouldWriteAndReadStream() throws IOException {
+        byte[] payload = new byte[200 * 1024 + 7];
+        new Random(7).nextBytes(payload);
+        OutputStream out = storage.openOutputStream("streamKey");
+        out.write(payload);
+        out.close();
+
+        InputStream in = storage.openInputStream("streamKey");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        assertArrayEquals(payload, bytes.toByteArray());
+        storage.removeStream("streamKey");
+    }
+
+    @Test
+    public void shouldSaveAndGetBytes() {
+        byte[] secret = new byte[32];
+        new Random(32).nextBytes(secret);
+        storage.saveBytes("bytesKey", secret);
+        assertArrayEquals(secret, storage.getBytes("bytesKey"));
+
+        ByteBuffer out = ByteBuffer.allocate(secret.length);
+        assertEquals(secret.length, storage.getBytes("bytesKey", out));
+        assertArrayEquals(secret, out.array());
+        assertEquals(-1, storage.getBytes("missingBytesKey", out));
+    }
+
+    @Test
+    public void shouldReadValueFromAnotherInstance() {
+        storage.save("masterKey", "derived");
+        SecureStorage other = new SecureStorage(InstrumentationRegistry.getTargetContext(), SecurityProvider.Type.THEMIS);
+        assertEquals("derived", other.get("masterKey"));
+    }
+
+    @Test
+    public void shouldIsolateNamespaces() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        SecureStorage first = SecureStorage.openNamespace(context, SecurityProvider.Type.THEMIS, "first", null);
+        SecureStorage second = SecureStorage.openNamespace(context, SecurityProvider.Type.THEMIS, "second", null);
+        first.save("namespaceKey", "firstValue");
+        second.save("namespaceKey", "secondValue");
+        storage.save("namespaceKey", "defaultValue");
+
+        first.erase();
+        assertNull(first.get("namespaceKey"));
+        assertEquals("secondValue", second.get("namespaceKey"));
+        assertEquals("defaultValue", storage.get("namespaceKey"));
+
+        first.save("namespaceKey", "newValue");
+        assertEquals("newValue", first.get("namespaceKey"));
+        first.erase();
+        second.erase();
+    }
+
+    @Test
+    public void shouldKeepAppPreferencesOnErase() {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(InstrumentationRegistry.getTargetContext());
+        preferences.edit().putString("appKey", "appValue").commit();
+        storage.save("eraseKey", "eraseValue");
+        storage.erase();
+        assertNull(storage.get("eraseKey"));
+        assertEquals("appValue", preferences.getString("appKey", null));
+        preferences.edit().remove("appKey").commit();
+    }
+
+    @Test
+    public void shouldListKeysWithoutDecrypting() throws IOException {
+        SecureStorage indexed = SecureStorage.openNamespace(InstrumentationRegistry.getTargetContext(),
+                SecurityProvider.Type.THEMIS, "index", null);
+        indexed.save("user.name", "name");
+        indexed.save("user.mail", "mail");
+        indexed.save("token", "token");
+        assertTrue(indexed.contains("token"));
+        assertEquals(3, indexed.size());
+        assertEquals(Arrays.asList("user.mail", "user.name"), new ArrayList<>(indexed.keys("user.")));
+
+        indexed.remove("token");
+        assertFalse(indexed.contains("token"));
+        indexed.erase();
+        assertEquals(0, indexed.size());
+    }
+
+    @Test
+    public void shouldMigrateLegacyCell() throws Exception {
+        // Layout of the first library versions, the entry name is the password
+        String prefKey = SecurityProvider.Type.THEMIS + "legacyKey";
+        byte[] name = prefKey.getBytes(StandardCharsets.UTF_8);
+        byte[] cell = new SecureCell(name, SecureCell.MODE_SEAL)
+                .protect(name, "legacyValue".getBytes(StandardCharsets.UTF_8)).getProtectedData();
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(InstrumentationRegistry.getTargetContext());
+        preferences.edit().putString(prefKey, Base64.encodeToString(cell, Base64.NO_WRAP)).commit();
+
+        assertEquals("legacyValue", storage.get("legacyKey"));
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        assertTrue(storage.migrateLegacyEntries(direct, null).await(30, TimeUnit.SECONDS));
+
+        byte[] migrated = Base64.decode(preferences.getString(prefKey, null), Base64.NO_WRAP);
+        assertNotNull(Envelope.parse(migrated, Envelope.ALGORITHM_THEMIS_SEAL_DERIVED));
+        assertEquals("legacyValue", storage.get("legacyKey"));
+        storage.remove("legacyKey");
+    }
 }
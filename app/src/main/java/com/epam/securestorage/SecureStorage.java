@@ -1,14 +1,64 @@
 package com.epam.securestorage;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.epam.securestorage.core.BatchResult;
+import com.epam.securestorage.core.ChangeListener;
+import com.epam.securestorage.core.ChangeNotifier;
+import com.epam.securestorage.core.CryptoExecutor;
+import com.epam.securestorage.core.EncryptedFileStore;
+import com.epam.securestorage.core.KeyLocks;
+import com.epam.securestorage.core.KeyRotation;
+import com.epam.securestorage.core.KeySource;
+import com.epam.securestorage.core.LegacyMigration;
+import com.epam.securestorage.core.LogStorageBackend;
+import com.epam.securestorage.core.MetricsListener;
+import com.epam.securestorage.core.MigratingProvider;
+import com.epam.securestorage.core.PreferencesStorageBackend;
+import com.epam.securestorage.core.RotatingProvider;
+import com.epam.securestorage.core.SecureStorageBatchCallback;
 import com.epam.securestorage.core.SecureStorageCallback;
+import com.epam.securestorage.core.SecureStorageException;
+import com.epam.securestorage.core.SecureStorageResultCallback;
 import com.epam.securestorage.core.SecurityProvider;
 import com.epam.securestorage.core.SecurityProvider.Type;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.core.StreamingProvider;
+import com.epam.securestorage.core.TypedValues;
+import com.epam.securestorage.core.ValueCache;
+import com.epam.securestorage.core.WriteBehindQueue;
 import com.epam.securestorage.providers.cipher.CipherEncryptionProvider;
 import com.epam.securestorage.providers.themis.ThemisEncryptionProvider;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static com.epam.securestorage.core.KeyStoreHelper.KEY_ALIAS;
+
 /**
  * <h2>Main encryption manager class</h2>
  * <b>Description:</b>
@@ -16,12 +66,37 @@ import com.epam.securestorage.providers.themis.ThemisEncryptionProvider;
  * encrypt/decrypt any data based on K, V logic. To instantiate
  * the class, Context and SecurityProviderType need to be provided.
  * There are two main SecurityProviders: Themis and Cipher.
+ * Every operation has an asynchronous counterpart which runs
+ * on a shared crypto thread pool and never blocks the caller.
+ * Large payloads are stored as encrypted files and accessed
+ * through streams, see {@link #openOutputStream(String)}.
+ * Independent data sets can be kept in separate namespaces,
+ * see {@link #openNamespace(Context, Type, String, SecureStorageCallback)}.
+ * An instance is safe to share between threads: operations on one
+ * key are executed one at a time in a single order, operations on
+ * different keys run in parallel, see {@link KeyLocks}.
  *
  * @author Denys Mokhrin
  */
 public class SecureStorage {
 
+    private static final String STREAMS_DIRECTORY = "securestorage_streams";
+    private static final String NAMESPACES_DIRECTORY = "securestorage_namespaces";
+    private static final Pattern NAMESPACE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
     private SecurityProvider securityProvider;
+    private Context context;
+    private volatile ValueCache cache;
+    private volatile WriteBehindQueue writeBehind;
+    private ComponentCallbacks2 trimCallback;
+    private Type type;
+    private EncryptedFileStore fileStore;
+    private String namespace;
+    private LogStorageBackend namespaceStorage;
+    private SecureStorageCallback callback;
+    private final OutcomeCallback outcome = new OutcomeCallback();
+    private final ChangeNotifier changes = new ChangeNotifier();
+    private final KeyLocks keyLocks = new KeyLocks(KeyLocks.DEFAULT_STRIPES);
 
     /**
      * Forbids default instance
@@ -39,7 +114,7 @@ public class SecureStorage {
      * @return SecureStore Instance
      */
     public SecureStorage(@NonNull Context context, @NonNull Type securityProviderType) {
-        initProvider(context, securityProviderType, null);
+        initProvider(context, securityProviderType, null, KEY_ALIAS, KeySource.Mode.KEYSTORE, null);
     }
 
     /**
@@ -53,26 +128,150 @@ public class SecureStorage {
      * @return SecureStore Instance
      */
     public SecureStorage(@NonNull Context context, @NonNull Type securityProviderType, SecureStorageCallback callback) {
-        initProvider(context, securityProviderType, callback);
+        initProvider(context, securityProviderType, null, KEY_ALIAS, KeySource.Mode.KEYSTORE, callback);
+    }
+
+    /**
+     * <b>Description:</b> Instantiates SecureStorage with the given key
+     * mode. {@link KeySource.Mode#WRAPPED} keeps an unwrapped data key in
+     * memory and spares every operation the keystore round trip. The mode
+     * applies to CIPHER, THEMIS always uses a wrapped master key
+     *
+     * @param context              provides app context
+     * @param securityProviderType constant value, need to be
+     *                             chosen from the enum
+     *                             SecurityProvider.Type
+     * @param keyMode              where the keys live, must stay the
+     *                             same for the data of the storage
+     * @return SecureStore Instance
+     */
+    public SecureStorage(@NonNull Context context, @NonNull Type securityProviderType,
+                         @NonNull KeySource.Mode keyMode, SecureStorageCallback callback) {
+        initProvider(context, securityProviderType, null, KEY_ALIAS, keyMode, callback);
+    }
+
+    /**
+     * <b>Description:</b> Instantiates SecureStorage on top of the
+     * given backend. {@link com.epam.securestorage.core.LogStorageBackend}
+     * keeps write cost independent of the store size, by default
+     * entries are kept in SharedPreferences
+     *
+     * @param context              provides app context
+     * @param securityProviderType constant value, need to be
+     *                             chosen from the enum
+     *                             SecurityProvider.Type
+     * @param storage              backend encrypted entries are persisted to
+     * @return SecureStore Instance
+     */
+    public SecureStorage(@NonNull Context context, @NonNull Type securityProviderType,
+                         @NonNull StorageBackend storage, SecureStorageCallback callback) {
+        initProvider(context, securityProviderType, storage, KEY_ALIAS, KeySource.Mode.KEYSTORE, callback);
     }
 
-    private void initProvider(Context context, Type securityProviderType, SecureStorageCallback callback) {
+    /**
+     * <b>Description:</b> Opens a named namespace. Every namespace keeps
+     * its entries in a file of its own and encrypts them with keys of its
+     * own, so opening one doesn't read the data of the others and
+     * {@link #erase()} of a namespace comes down to deleting the file and
+     * destroying the keys
+     *
+     * @param context              provides app context
+     * @param securityProviderType constant value, need to be
+     *                             chosen from the enum
+     *                             SecurityProvider.Type
+     * @param namespace            name of the namespace, may contain
+     *                             letters, digits, '_' and '-'
+     * @return SecureStore Instance bound to the namespace
+     * @throws IOException if the namespace file can't be read
+     */
+    public static SecureStorage openNamespace(@NonNull Context context, @NonNull Type securityProviderType,
+                                              @NonNull String namespace, SecureStorageCallback callback)
+            throws IOException {
+        return openNamespace(context, securityProviderType, namespace, KeySource.Mode.KEYSTORE, callback);
+    }
+
+    /**
+     * <b>Description:</b> Opens a named namespace with the given key mode,
+     * see {@link #SecureStorage(Context, Type, KeySource.Mode, SecureStorageCallback)}
+     *
+     * @param namespace name of the namespace, may contain
+     *                  letters, digits, '_' and '-'
+     * @param keyMode   where the keys live, must stay the
+     *                  same for the data of the namespace
+     * @return SecureStore Instance bound to the namespace
+     * @throws IOException if the namespace file can't be read
+     */
+    public static SecureStorage openNamespace(@NonNull Context context, @NonNull Type securityProviderType,
+                                              @NonNull String namespace, @NonNull KeySource.Mode keyMode,
+                                              SecureStorageCallback callback) throws IOException {
+        if (namespace == null || !NAMESPACE_NAME.matcher(namespace).matches()) {
+            throw new IllegalArgumentException("Invalid namespace name: " + namespace);
+        }
+        SecureStorage storage = new SecureStorage();
+        storage.namespace = namespace;
+        File directory = new File(new File(context.getNoBackupFilesDir(), NAMESPACES_DIRECTORY), namespace);
+        storage.namespaceStorage = LogStorageBackend.open(
+                new File(directory, securityProviderType.name().toLowerCase(Locale.US) + ".log"));
+        // Namespace names can't contain dots, so the providers' alias suffixes can't make two aliases collide
+        String keyAlias = KEY_ALIAS + "." + securityProviderType.name().toLowerCase(Locale.US) + "." + namespace + ".";
+        storage.initProvider(context, securityProviderType, storage.namespaceStorage, keyAlias, keyMode, callback);
+        return storage;
+    }
+
+    private void initProvider(Context context, Type securityProviderType, StorageBackend storage,
+                              String keyAlias, KeySource.Mode keyMode, SecureStorageCallback callback) {
         if (context != null && securityProviderType != null) {
+            this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            this.type = securityProviderType;
+            this.callback = callback;
+            if (storage == null) {
+                storage = new PreferencesStorageBackend(this.context);
+            }
             switch (securityProviderType) {
                 case CIPHER:
                     try {
-                        securityProvider = new CipherEncryptionProvider(context, callback);
+                        securityProvider = new CipherEncryptionProvider(context, storage, keyAlias, keyMode, outcome);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                     break;
                 case THEMIS:
-                    securityProvider = new ThemisEncryptionProvider(context, callback);
+                    securityProvider = new ThemisEncryptionProvider(context, storage, keyAlias, outcome);
                     break;
             }
         }
     }
 
+    /**
+     * <b>Description:</b> Prepares keys and storage in background. The
+     * constructor does no crypto or disk work, without a warm-up that
+     * happens on the first operation which needs it. An operation issued
+     * during the warm-up waits only for the key it uses, an init error
+     * is reported on the operations as well
+     *
+     * @return Future which completes once the storage is ready
+     */
+    public Future<Void> warmUp() {
+        return warmUp(CryptoExecutor.mainThread(), null);
+    }
+
+    /**
+     * <b>Description:</b> Prepares keys and storage in background
+     *
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future which completes once the storage is ready
+     */
+    public Future<Void> warmUp(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Void> callback) {
+        return CryptoExecutor.getInstance().submit(this, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                securityProvider.warmUp();
+                return null;
+            }
+        }, callbackExecutor, callback);
+    }
+
     /**
      * <b>Description:</b> Saves data using an encryption algorithm
      *
@@ -81,7 +280,28 @@ public class SecureStorage {
      * @return SecureStore Instance
      */
     public void save(String key, String value) {
-        securityProvider.save(key, value);
+        keyLocks.lock(key);
+        try {
+            if (writeBehind != null && value != null && queueWrite(key, value.getBytes(StandardCharsets.UTF_8))) {
+                return;
+            }
+            TakenValues taken = takePending(Collections.singleton(key));
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            securityProvider.save(key, value);
+            ValueCache cache = this.cache;
+            if (cache != null && key != null) {
+                cache.invalidate(key);
+            }
+            boolean written = track && outcome.succeeded();
+            settlePending(taken, written);
+            if (written && changes.hasListeners()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                changes.saved(key, bytes);
+                Arrays.fill(bytes, (byte) 0);
+            }
+        } finally {
+            keyLocks.unlock(key);
+        }
     }
 
     /**
@@ -91,7 +311,305 @@ public class SecureStorage {
      * @return Decrypted Data in a String format
      */
     public String get(@NonNull String key) {
-        return securityProvider.get(key);
+        keyLocks.lock(key);
+        try {
+            byte[] pending = pendingValue(key);
+            if (pending != null) {
+                String value = new String(pending, StandardCharsets.UTF_8);
+                Arrays.fill(pending, (byte) 0);
+                return value;
+            }
+            ValueCache cache = this.cache;
+            if (cache == null || key == null) {
+                return securityProvider.get(key);
+            }
+            String value = cache.get(key);
+            if (value == null) {
+                long stamp = cache.stamp();
+                value = securityProvider.get(key);
+                if (value != null) {
+                    cache.put(key, value.getBytes(StandardCharsets.UTF_8), stamp);
+                }
+            }
+            return value;
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves binary data, e.g. key material,
+     * without converting it to a String first
+     *
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted
+     */
+    public void saveBytes(String key, byte[] value) {
+        keyLocks.lock(key);
+        try {
+            if (writeBehind != null && value != null && queueWrite(key, value.clone())) {
+                return;
+            }
+            TakenValues taken = takePending(Collections.singleton(key));
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            securityProvider.saveBytes(key, value);
+            ValueCache cache = this.cache;
+            if (cache != null && key != null) {
+                cache.invalidate(key);
+            }
+            boolean written = track && outcome.succeeded();
+            settlePending(taken, written);
+            if (written && changes.hasListeners()) {
+                changes.saved(key, value);
+            }
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Returns decrypted binary data
+     *
+     * @param key is used to find encrypted data
+     * @return Decrypted data, the caller owns the array
+     */
+    public byte[] getBytes(@NonNull String key) {
+        keyLocks.lock(key);
+        try {
+            byte[] pending = pendingValue(key);
+            if (pending != null) {
+                return pending;
+            }
+            ValueCache cache = this.cache;
+            if (cache == null || key == null) {
+                return securityProvider.getBytes(key);
+            }
+            byte[] value = cache.getBytes(key);
+            if (value == null) {
+                long stamp = cache.stamp();
+                value = securityProvider.getBytes(key);
+                if (value != null) {
+                    cache.put(key, value.clone(), stamp);
+                }
+            }
+            return value;
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Decrypts data into the caller's buffer starting
+     * at its position. Only cache hits are served without allocating,
+     * a read from the storage still decodes the stored entry and the
+     * M keystore path decrypts into an array which is copied and wiped
+     *
+     * @param key is used to find encrypted data
+     * @param out buffer the value is written to
+     * @return Length of the value or -1 if it isn't available
+     * @throws java.nio.BufferOverflowException if the value doesn't fit
+     */
+    public int getBytes(@NonNull String key, @NonNull ByteBuffer out) {
+        keyLocks.lock(key);
+        try {
+            byte[] pending = pendingValue(key);
+            if (pending != null) {
+                try {
+                    if (out.remaining() < pending.length) {
+                        throw new BufferOverflowException();
+                    }
+                    out.put(pending);
+                    return pending.length;
+                } finally {
+                    Arrays.fill(pending, (byte) 0);
+                }
+            }
+            ValueCache cache = this.cache;
+            if (cache == null || key == null) {
+                return securityProvider.getBytes(key, out);
+            }
+            int length = cache.get(key, out);
+            if (length < 0) {
+                long stamp = cache.stamp();
+                int position = out.position();
+                length = securityProvider.getBytes(key, out);
+                if (length > 0) {
+                    byte[] value = new byte[length];
+                    ByteBuffer written = out.duplicate();
+                    written.position(position);
+                    written.get(value);
+                    cache.put(key, value, stamp);
+                }
+            }
+            return length;
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves an int in the binary form of
+     * {@link TypedValues}, it's read back without parsing text
+     *
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted
+     */
+    public void saveInt(String key, int value) {
+        saveTyped(key, TypedValues.encodeInt(value));
+    }
+
+    /**
+     * <b>Description:</b> Returns a decrypted int. A value stored with
+     * another type is reported to the callback as a GET error
+     *
+     * @param key      is used to find encrypted data
+     * @param defValue returned if there's no int for the key
+     */
+    public int getInt(@NonNull String key, int defValue) {
+        byte[] data = getBytes(key);
+        if (data == null) {
+            return defValue;
+        }
+        try {
+            return TypedValues.decodeInt(data);
+        } catch (SecureStorageException e) {
+            onTypeMismatch(e);
+            return defValue;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves a long, e.g. a timestamp
+     *
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted
+     */
+    public void saveLong(String key, long value) {
+        saveTyped(key, TypedValues.encodeLong(value));
+    }
+
+    /**
+     * @param key      is used to find encrypted data
+     * @param defValue returned if there's no long for the key
+     * @return Decrypted long
+     */
+    public long getLong(@NonNull String key, long defValue) {
+        byte[] data = getBytes(key);
+        if (data == null) {
+            return defValue;
+        }
+        try {
+            return TypedValues.decodeLong(data);
+        } catch (SecureStorageException e) {
+            onTypeMismatch(e);
+            return defValue;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves a double, all bits of it are kept
+     *
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted
+     */
+    public void saveDouble(String key, double value) {
+        saveTyped(key, TypedValues.encodeDouble(value));
+    }
+
+    /**
+     * @param key      is used to find encrypted data
+     * @param defValue returned if there's no double for the key
+     * @return Decrypted double
+     */
+    public double getDouble(@NonNull String key, double defValue) {
+        byte[] data = getBytes(key);
+        if (data == null) {
+            return defValue;
+        }
+        try {
+            return TypedValues.decodeDouble(data);
+        } catch (SecureStorageException e) {
+            onTypeMismatch(e);
+            return defValue;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    /**
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted
+     */
+    public void saveBoolean(String key, boolean value) {
+        saveTyped(key, TypedValues.encodeBoolean(value));
+    }
+
+    /**
+     * @param key      is used to find encrypted data
+     * @param defValue returned if there's no boolean for the key
+     * @return Decrypted boolean
+     */
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        byte[] data = getBytes(key);
+        if (data == null) {
+            return defValue;
+        }
+        try {
+            return TypedValues.decodeBoolean(data);
+        } catch (SecureStorageException e) {
+            onTypeMismatch(e);
+            return defValue;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves a set of strings as a single entry
+     *
+     * @param key   provides access to store data
+     * @param value data that need to be encrypted, must not contain null
+     */
+    public void saveStringSet(String key, Set<String> value) {
+        saveTyped(key, value != null ? TypedValues.encodeStringSet(value) : null);
+    }
+
+    /**
+     * @param key       is used to find encrypted data
+     * @param defValues returned if there's no string set for the key
+     * @return Decrypted unmodifiable set
+     */
+    public Set<String> getStringSet(@NonNull String key, Set<String> defValues) {
+        byte[] data = getBytes(key);
+        if (data == null) {
+            return defValues;
+        }
+        try {
+            return TypedValues.decodeStringSet(data);
+        } catch (SecureStorageException e) {
+            onTypeMismatch(e);
+            return defValues;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    private void saveTyped(String key, byte[] data) {
+        saveBytes(key, data);
+        if (data != null) {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    private void onTypeMismatch(SecureStorageException e) {
+        e.printStackTrace();
+        if (callback != null) {
+            callback.onError(SecureStorageCallback.ActionType.GET, e);
+        }
     }
 
     /**
@@ -100,13 +618,934 @@ public class SecureStorage {
      * @param key is used to find stored data for further removal
      */
     public void remove(@NonNull String key) {
-        securityProvider.remove(key);
+        keyLocks.lock(key);
+        try {
+            TakenValues taken = takePending(Collections.singleton(key));
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            securityProvider.remove(key);
+            ValueCache cache = this.cache;
+            if (cache != null && key != null) {
+                cache.invalidate(key);
+            }
+            boolean removed = track && outcome.succeeded();
+            settlePending(taken, removed);
+            if (removed && changes.hasListeners()) {
+                changes.removed(Collections.singleton(key));
+            }
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Checks whether a value is stored for the key
+     * without decrypting it. Keys are kept in memory, so the call
+     * never reaches the keystore
+     *
+     * @param key provides access to store data
+     * @return true if a value is stored for the key
+     */
+    public boolean contains(@NonNull String key) {
+        keyLocks.lock(key);
+        try {
+            WriteBehindQueue writeBehind = this.writeBehind;
+            if (writeBehind != null && key != null && writeBehind.contains(key)) {
+                return true;
+            }
+            return securityProvider.contains(key);
+        } finally {
+            keyLocks.unlock(key);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Lists the stored keys without decrypting values
+     *
+     * @param prefix only keys which start with it are returned, "" for all keys
+     * @return Sorted snapshot of the keys
+     */
+    public SortedSet<String> keys(@NonNull String prefix) {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        SortedSet<String> pending = writeBehind != null ? writeBehind.keys(prefix) : null;
+        if (pending == null || pending.isEmpty()) {
+            return securityProvider.keys(prefix);
+        }
+        pending.addAll(securityProvider.keys(prefix));
+        return Collections.unmodifiableSortedSet(pending);
     }
 
     /**
-     * <b>Description:</b> Removes all data from storage
+     * @return Number of stored values
+     */
+    public int size() {
+        int size = securityProvider.size();
+        WriteBehindQueue writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            for (String key : writeBehind.keys("")) {
+                if (!securityProvider.contains(key)) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * <b>Description:</b> Saves several values at once. Every value is
+     * encrypted and the whole batch is persisted with a single write.
+     * The callback is informed once per batch, use
+     * {@link SecureStorageBatchCallback} to get per-key results
+     *
+     * @param values key-value pairs that need to be encrypted
+     */
+    public void saveAll(@NonNull Map<String, String> values) {
+        int[] locked = keyLocks.lock(values.keySet());
+        try {
+            TakenValues taken = takePending(values.keySet());
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            securityProvider.saveAll(values);
+            invalidateCached(values.keySet());
+            Collection<String> written = track ? outcome.succeeded(values.keySet()) : Collections.<String>emptySet();
+            settlePending(taken, written);
+            if (changes.hasListeners()) {
+                for (String key : written) {
+                    byte[] bytes = values.get(key).getBytes(StandardCharsets.UTF_8);
+                    changes.saved(key, bytes);
+                    Arrays.fill(bytes, (byte) 0);
+                }
+            }
+        } finally {
+            keyLocks.unlock(locked);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Returns decrypted data for several keys at once
+     *
+     * @param keys are used to find encrypted data
+     * @return Decrypted values mapped by key, missing keys are absent
+     */
+    public Map<String, String> getAll(@NonNull Collection<String> keys) {
+        int[] locked = keyLocks.lock(keys);
+        try {
+            WriteBehindQueue writeBehind = this.writeBehind;
+            if (writeBehind == null || writeBehind.getPendingCount() == 0) {
+                return getAllStored(keys);
+            }
+            Map<String, String> values = new HashMap<>();
+            List<String> stored = new ArrayList<>();
+            for (String key : keys) {
+                byte[] pending = pendingValue(key);
+                if (pending != null) {
+                    values.put(key, new String(pending, StandardCharsets.UTF_8));
+                    Arrays.fill(pending, (byte) 0);
+                } else {
+                    stored.add(key);
+                }
+            }
+            values.putAll(getAllStored(stored));
+            return values;
+        } finally {
+            keyLocks.unlock(locked);
+        }
+    }
+
+    private Map<String, String> getAllStored(Collection<String> keys) {
+        ValueCache cache = this.cache;
+        if (cache == null) {
+            return securityProvider.getAll(keys);
+        }
+        Map<String, String> values = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            String value = key != null ? cache.get(key) : null;
+            if (value != null) {
+                values.put(key, value);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = cache.stamp();
+            Map<String, String> loaded = securityProvider.getAll(missing);
+            for (Map.Entry<String, String> entry : loaded.entrySet()) {
+                cache.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8), stamp);
+            }
+            values.putAll(loaded);
+        }
+        return values;
+    }
+
+    /**
+     * <b>Description:</b> Removes several keys with a single write
+     *
+     * @param keys are used to find stored data for further removal
+     */
+    public void removeAll(@NonNull Collection<String> keys) {
+        int[] locked = keyLocks.lock(keys);
+        try {
+            TakenValues taken = takePending(keys);
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            securityProvider.removeAll(keys);
+            invalidateCached(keys);
+            Collection<String> removed = track ? outcome.succeeded(keys) : Collections.<String>emptySet();
+            settlePending(taken, removed);
+            if (changes.hasListeners()) {
+                changes.removed(removed);
+            }
+        } finally {
+            keyLocks.unlock(locked);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Removes all data from storage. Erasing a
+     * namespace deletes its file, other namespaces stay intact
      */
     public void erase() {
-        securityProvider.erase();
+        int[] locked = keyLocks.lockAll();
+        try {
+            TakenValues taken = takePending(null);
+            boolean track = (taken != null || changes.hasListeners()) && outcome.begin();
+            // The key index is in memory, listing the keys doesn't decrypt anything
+            Collection<String> erased = track && changes.hasListeners() ? securityProvider.keys("") : null;
+            if (namespaceStorage != null) {
+                try {
+                    namespaceStorage.destroy();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            securityProvider.erase();
+            EncryptedFileStore fileStore = fileStore();
+            if (fileStore != null) {
+                fileStore.deleteAll();
+            }
+            ValueCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidateAll();
+            }
+            boolean succeeded = track && outcome.succeeded();
+            settlePending(taken, succeeded);
+            if (erased != null && succeeded) {
+                changes.removed(erased);
+            }
+        } finally {
+            keyLocks.unlock(locked);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Opens a stream which encrypts a large payload
+     * into an app-private file. Data is encrypted in fixed-size chunks,
+     * so memory usage doesn't depend on the payload size. The payload
+     * replaces the previous one of the key when the stream is closed
+     *
+     * @param key provides access to store data
+     * @return Encrypting stream, must be closed by the caller
+     */
+    public OutputStream openOutputStream(@NonNull String key) throws IOException {
+        return requireFileStore().openOutputStream(key);
+    }
+
+    /**
+     * <b>Description:</b> Opens a stream which decrypts a payload
+     * written by {@link #openOutputStream(String)}. Every chunk is
+     * authenticated before it's returned, tampered or truncated
+     * files fail with an IOException
+     *
+     * @param key is used to find encrypted data
+     * @return Decrypting stream, must be closed by the caller
+     * @throws java.io.FileNotFoundException if no payload is stored for the key
+     */
+    public InputStream openInputStream(@NonNull String key) throws IOException {
+        return requireFileStore().openInputStream(key);
+    }
+
+    /**
+     * <b>Description:</b> Removes a payload written by {@link #openOutputStream(String)}
+     *
+     * @param key is used to find stored data for further removal
+     */
+    public void removeStream(@NonNull String key) throws IOException {
+        requireFileStore().delete(key);
+    }
+
+    private EncryptedFileStore requireFileStore() throws IOException {
+        EncryptedFileStore fileStore = fileStore();
+        if (fileStore == null) {
+            throw new IOException("Streams are not supported by the security provider");
+        }
+        return fileStore;
+    }
+
+    //Resolving the files directory touches the disk, so it's deferred to the first stream
+    private synchronized EncryptedFileStore fileStore() {
+        if (fileStore == null && securityProvider instanceof StreamingProvider) {
+            File root = namespace != null
+                    ? new File(new File(context.getFilesDir(), NAMESPACES_DIRECTORY), namespace)
+                    : new File(context.getFilesDir(), STREAMS_DIRECTORY);
+            File directory = new File(root, type.name().toLowerCase(Locale.US));
+            fileStore = new EncryptedFileStore(directory, (StreamingProvider) securityProvider);
+        }
+        return fileStore;
+    }
+
+    /**
+     * <b>Description:</b> Moves all values to a new key in background.
+     * Values are re-encrypted in small batches at a quarter of one CPU,
+     * reads and writes keep working meanwhile under either key. Progress
+     * is checkpointed, a rotation interrupted by process death is
+     * continued by {@link #resumeKeyRotation(Executor, SecureStorageResultCallback)}.
+     * Stream payloads keep their key
+     *
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         receives the number of visited entries, may be null
+     * @return Running rotation
+     * @throws UnsupportedOperationException if the security provider has no versioned keys
+     */
+    public KeyRotation rotateKeys(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        return rotateKeys(KeyRotation.DEFAULT_BATCH_SIZE, KeyRotation.DEFAULT_LOAD, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Moves all values to a new key in background
+     *
+     * @param batchSize entries re-encrypted at once
+     * @param load      share of one CPU the rotation may use, from 0 exclusive to 1
+     */
+    public KeyRotation rotateKeys(int batchSize, float load,
+                                  @NonNull Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        return KeyRotation.begin(rotatingProvider(), batchSize, load, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Continues a rotation which was interrupted,
+     * e.g. on app start. Completes at once if no rotation is pending
+     *
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         receives the number of visited entries, may be null
+     * @return Running rotation
+     * @throws UnsupportedOperationException if the security provider has no versioned keys
+     */
+    public KeyRotation resumeKeyRotation(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        return KeyRotation.resume(rotatingProvider(), KeyRotation.DEFAULT_BATCH_SIZE, KeyRotation.DEFAULT_LOAD,
+                callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Upgrades all values stored by older library
+     * versions in background. Optional, an old value is readable as it
+     * is and gets rewritten shortly after it's read, together with the
+     * other ones read meanwhile
+     *
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         receives the number of visited entries, may be null
+     * @return Running migration
+     * @throws UnsupportedOperationException if the security provider has no legacy layouts
+     */
+    public LegacyMigration migrateLegacyEntries(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        if (!(securityProvider instanceof MigratingProvider)) {
+            throw new UnsupportedOperationException("Migration is not supported by the security provider");
+        }
+        return LegacyMigration.start((MigratingProvider) securityProvider, LegacyMigration.DEFAULT_BATCH_SIZE,
+                LegacyMigration.DEFAULT_LOAD, callbackExecutor, callback);
+    }
+
+    private RotatingProvider rotatingProvider() {
+        if (!(securityProvider instanceof RotatingProvider)) {
+            throw new UnsupportedOperationException("Key rotation is not supported by the security provider");
+        }
+        return (RotatingProvider) securityProvider;
+    }
+
+    /**
+     * <b>Description:</b> Registers a listener for changes of the given
+     * keys made through this instance. Changes are collected for the
+     * window and delivered together, a key changed several times is
+     * reported once. With values the listener gets the new plaintext
+     * and doesn't need to decrypt it again. Writes reported as failed
+     * to the callback aren't announced
+     *
+     * @param keys         keys to watch
+     * @param windowMillis time changes are collected for before delivery, 0 delivers them right away
+     * @param withValues   pass the new values along
+     * @param executor     executor the listener is called on
+     */
+    public void addChangeListener(@NonNull Collection<String> keys, long windowMillis, boolean withValues,
+                                  @NonNull Executor executor, @NonNull ChangeListener listener) {
+        changes.register(keys, null, windowMillis, withValues, executor, listener);
+    }
+
+    /**
+     * <b>Description:</b> Registers a listener for changes of the keys
+     * which start with the prefix, see
+     * {@link #addChangeListener(Collection, long, boolean, Executor, ChangeListener)}
+     *
+     * @param prefix prefix of the keys to watch, "" for all keys
+     */
+    public void addPrefixChangeListener(@NonNull String prefix, long windowMillis, boolean withValues,
+                                        @NonNull Executor executor, @NonNull ChangeListener listener) {
+        changes.register(null, prefix, windowMillis, withValues, executor, listener);
+    }
+
+    /**
+     * <b>Description:</b> Unregisters the listener, pending changes are dropped
+     */
+    public void removeChangeListener(@NonNull ChangeListener listener) {
+        changes.unregister(listener);
+    }
+
+    /**
+     * <b>Description:</b> Installs a listener which gets the time spent
+     * in the keystore, cipher, encoding and storage phases of every
+     * operation, e.g. a
+     * {@link com.epam.securestorage.core.HistogramMetricsRecorder}. Cache hits
+     * aren't reported, they don't reach the provider. Without a listener
+     * the providers don't even read the clock
+     *
+     * @param listener metrics subscriber, null removes it
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        securityProvider.setMetricsListener(listener);
+    }
+
+    /**
+     * <b>Description:</b> Compresses values of at least the given size
+     * before they are encrypted, which shrinks large text values such as
+     * JSON on disk. Existing values stay readable either way. Compression
+     * makes the stored size depend on the content, so keep it off for
+     * values which mix secrets with data an attacker can influence
+     *
+     * @param minBytes threshold in bytes,
+     *                 {@link com.epam.securestorage.core.Compression#DISABLED} turns it off
+     */
+    public void setCompressionThreshold(int minBytes) {
+        securityProvider.setCompressionThreshold(minBytes);
+    }
+
+    /**
+     * <b>Description:</b> Enables in-memory caching of decrypted values.
+     * The cache is bounded by size, entries expire after the TTL and are
+     * wiped from memory on eviction and when the system asks to trim memory
+     *
+     * @param maxBytes   upper bound for the total size of cached values
+     * @param ttlMillis  default time a decrypted value stays in memory
+     */
+    public synchronized void enableCache(int maxBytes, long ttlMillis) {
+        disableCache();
+        cache = new ValueCache(maxBytes, ttlMillis);
+        if (context != null) {
+            trimCallback = new TrimMemoryCallback();
+            context.registerComponentCallbacks(trimCallback);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Disables caching and wipes all cached values
+     */
+    public synchronized void disableCache() {
+        if (trimCallback != null) {
+            context.unregisterComponentCallbacks(trimCallback);
+            trimCallback = null;
+        }
+        if (cache != null) {
+            cache.invalidateAll();
+            cache = null;
+        }
+    }
+
+    /**
+     * <b>Description:</b> Overrides the cache TTL for a single key
+     *
+     * @param key       storage key
+     * @param ttlMillis time the decrypted value of the key stays in memory
+     */
+    public void setCacheTtl(@NonNull String key, long ttlMillis) {
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.setTtl(key, ttlMillis);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Returns the cache, e.g. to read hit and miss counters
+     *
+     * @return Active cache or null if caching is disabled
+     */
+    public ValueCache getCache() {
+        return cache;
+    }
+
+    /**
+     * <b>Description:</b> Starts a transaction, whose saves and removes
+     * are written together in a single atomic write, e.g. an access
+     * token along with its refresh token and expiry
+     *
+     * @return Empty transaction
+     */
+    @NonNull
+    public Transaction edit() {
+        return new Transaction(this);
+    }
+
+    //Wipes the staged values once they are written
+    boolean commit(Map<String, byte[]> values, Set<String> removals, boolean durable) {
+        Set<String> keys = new HashSet<>(values.keySet());
+        keys.addAll(removals);
+        int[] locked = keyLocks.lock(keys);
+        try {
+            TakenValues taken = takePending(keys);
+            boolean written = securityProvider.commit(values, removals, durable);
+            invalidateCached(values.keySet());
+            invalidateCached(removals);
+            settlePending(taken, written);
+            if (written && changes.hasListeners()) {
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    changes.saved(entry.getKey(), entry.getValue());
+                }
+                changes.removed(removals);
+            }
+            return written;
+        } finally {
+            keyLocks.unlock(locked);
+            for (byte[] value : values.values()) {
+                if (value != null) {
+                    Arrays.fill(value, (byte) 0);
+                }
+            }
+        }
+    }
+
+    Future<Boolean> applyAsync(final Map<String, byte[]> values, final Set<String> removals,
+                               @NonNull Executor callbackExecutor, SecureStorageResultCallback<Boolean> callback) {
+        Set<String> keys = new HashSet<>(values.keySet());
+        keys.addAll(removals);
+        return CryptoExecutor.getInstance().submitAcross(this, keys, new ReportedTask<Boolean>() {
+            @Override
+            Boolean run() {
+                return commit(values, removals, false);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Enables the write-behind mode for keys which are
+     * saved many times a second, e.g. a rolling nonce. Saved values are
+     * kept in memory and written in one batch once the window has passed,
+     * repeated saves of a key within it cost a single encryption. Reads
+     * see the pending values. Pending values are lost if the process dies,
+     * call {@link #flush()} e.g. in onStop
+     *
+     * @param windowMillis   time saved values are collected for before they are written
+     * @param maxPendingKeys number of pending keys which starts writing without waiting
+     */
+    public synchronized void enableWriteBehind(long windowMillis, int maxPendingKeys) {
+        disableWriteBehind();
+        writeBehind = new WriteBehindQueue(new WriteBehindQueue.Writer() {
+            @Override
+            public boolean write(@NonNull Map<String, byte[]> values, boolean durable) {
+                return securityProvider.commit(values, Collections.<String>emptySet(), durable);
+            }
+        }, windowMillis, maxPendingKeys);
+    }
+
+    /**
+     * <b>Description:</b> Writes the pending values and turns the
+     * write-behind mode off, saves are written right away again
+     *
+     * @return true if all the pending values were written
+     */
+    public synchronized boolean disableWriteBehind() {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        if (writeBehind == null) {
+            return true;
+        }
+        writeBehind.flush(true);
+        this.writeBehind = null;
+        // Saves which raced with the first flush are still in the queue
+        return writeBehind.flush(true);
+    }
+
+    /**
+     * <b>Description:</b> Writes the values pending in the write-behind
+     * queue durably on the calling thread. The queue is bounded, so the
+     * call is safe in onStop
+     *
+     * @return true if nothing is left pending
+     */
+    public boolean flush() {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        return writeBehind == null || writeBehind.flush(true);
+    }
+
+    /**
+     * <b>Description:</b> Returns the write-behind queue, e.g. to read
+     * the number of coalesced saves
+     *
+     * @return Active queue or null if the write-behind mode is off
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehind;
+    }
+
+    //Invalid input isn't queued, the provider reports it
+    private boolean queueWrite(String key, byte[] value) {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        if (writeBehind == null || key == null || key.isEmpty() || value.length == 0) {
+            Arrays.fill(value, (byte) 0);
+            return false;
+        }
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        // Copied for the listeners before the queue takes the value over
+        if (changes.hasListeners()) {
+            changes.saved(key, value);
+        }
+        writeBehind.put(key, value);
+        return true;
+    }
+
+    @Nullable
+    private byte[] pendingValue(String key) {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        return writeBehind != null && key != null ? writeBehind.get(key) : null;
+    }
+
+    /**
+     * A direct write must not be overwritten by an older pending value,
+     * so the pending values of the keys are taken out of the queue first
+     *
+     * @param keys keys to take, null for all of them
+     * @return Taken values, null if nothing was pending
+     */
+    @Nullable
+    private TakenValues takePending(@Nullable Collection<String> keys) {
+        WriteBehindQueue writeBehind = this.writeBehind;
+        if (writeBehind == null) {
+            return null;
+        }
+        Map<String, byte[]> values = keys != null ? writeBehind.take(keys) : writeBehind.takeAll();
+        return values.isEmpty() ? null : new TakenValues(writeBehind, values);
+    }
+
+    //The values are wiped if the direct write succeeded, otherwise they are pending again
+    private static void settlePending(@Nullable TakenValues taken, boolean written) {
+        if (taken != null) {
+            taken.queue.settle(taken.values, written ? taken.values.keySet() : Collections.<String>emptySet());
+        }
+    }
+
+    private static void settlePending(@Nullable TakenValues taken, Collection<String> written) {
+        if (taken != null) {
+            taken.queue.settle(taken.values, written);
+        }
+    }
+
+    //Invalidation happens after the write, so a concurrent read can't cache the old value
+    private void invalidateCached(Collection<String> keys) {
+        ValueCache cache = this.cache;
+        if (cache != null) {
+            for (String key : keys) {
+                if (key != null) {
+                    cache.invalidate(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * <b>Description:</b> Saves data in background, the result is
+     * delivered on the main thread
+     *
+     * @param key      provides access to store data
+     * @param value    data that need to be encrypted
+     * @param callback result subscriber, may be null
+     * @return Future which completes once data is persisted
+     */
+    public Future<Void> saveAsync(@NonNull String key, @NonNull String value, SecureStorageResultCallback<Void> callback) {
+        return saveAsync(key, value, CryptoExecutor.mainThread(), callback);
+    }
+
+    /**
+     * <b>Description:</b> Saves data in background. Operations on the
+     * same key, batches and erase included, are applied in the order
+     * they were requested. An error reported by the provider fails the
+     * Future and goes to the callback's onError
+     *
+     * @param key              provides access to store data
+     * @param value            data that need to be encrypted
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future which completes once data is persisted
+     */
+    public Future<Void> saveAsync(@NonNull final String key, @NonNull final String value,
+                                  @NonNull Executor callbackExecutor, SecureStorageResultCallback<Void> callback) {
+        return CryptoExecutor.getInstance().submit(this, key, new ReportedTask<Void>() {
+            @Override
+            Void run() {
+                save(key, value);
+                return null;
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Decrypts data in background, the result is
+     * delivered on the main thread
+     *
+     * @param key      is used to find encrypted data
+     * @param callback result subscriber, may be null
+     * @return Future of the decrypted data
+     */
+    public Future<String> getAsync(@NonNull String key, SecureStorageResultCallback<String> callback) {
+        return getAsync(key, CryptoExecutor.mainThread(), callback);
+    }
+
+    /**
+     * <b>Description:</b> Decrypts data in background. Reads of different
+     * keys run in parallel, a read observes all earlier writes to its key
+     *
+     * @param key              is used to find encrypted data
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future of the decrypted data
+     */
+    public Future<String> getAsync(@NonNull final String key,
+                                   @NonNull Executor callbackExecutor, SecureStorageResultCallback<String> callback) {
+        return CryptoExecutor.getInstance().submit(this, key, new ReportedTask<String>() {
+            @Override
+            String run() {
+                return get(key);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Removes data in background
+     *
+     * @param key              is used to find stored data for further removal
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future which completes once data is removed
+     */
+    public Future<Void> removeAsync(@NonNull final String key,
+                                    @NonNull Executor callbackExecutor, SecureStorageResultCallback<Void> callback) {
+        return CryptoExecutor.getInstance().submit(this, key, new ReportedTask<Void>() {
+            @Override
+            Void run() {
+                remove(key);
+                return null;
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Saves several values in background with a single
+     * write, after the operations requested before on any of the keys
+     *
+     * @param values           key-value pairs that need to be encrypted
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future which completes once the batch is persisted
+     */
+    public Future<Void> saveAllAsync(@NonNull final Map<String, String> values,
+                                     @NonNull Executor callbackExecutor, SecureStorageResultCallback<Void> callback) {
+        return CryptoExecutor.getInstance().submitAcross(this, new ArrayList<>(values.keySet()), new ReportedTask<Void>() {
+            @Override
+            Void run() {
+                saveAll(values);
+                return null;
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Decrypts several values in background, it
+     * observes all the writes of the keys requested before
+     *
+     * @param keys             are used to find encrypted data
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future of the decrypted values mapped by key
+     */
+    public Future<Map<String, String>> getAllAsync(@NonNull final Collection<String> keys,
+                                                   @NonNull Executor callbackExecutor, SecureStorageResultCallback<Map<String, String>> callback) {
+        return CryptoExecutor.getInstance().submitAcross(this, new ArrayList<>(keys), new ReportedTask<Map<String, String>>() {
+            @Override
+            Map<String, String> run() {
+                return getAll(keys);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Removes all data from storage in background,
+     * after all the operations requested before. Operations requested
+     * later wait for it
+     *
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future which completes once storage is erased
+     */
+    public Future<Void> eraseAsync(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Void> callback) {
+        return CryptoExecutor.getInstance().submitAcross(this, null, new ReportedTask<Void>() {
+            @Override
+            Void run() {
+                erase();
+                return null;
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Fails the task with the first error the provider reports while it
+     * runs, the Future and the result callback see it instead of a result
+     */
+    private abstract class ReportedTask<T> implements Callable<T> {
+
+        abstract T run();
+
+        @Override
+        public T call() throws Exception {
+            outcome.capture();
+            T result = null;
+            Exception error;
+            try {
+                result = run();
+            } finally {
+                error = outcome.release();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    //The queue the values were taken from, it may be replaced during the write
+    private static final class TakenValues {
+        private final WriteBehindQueue queue;
+        private final Map<String, byte[]> values;
+
+        TakenValues(WriteBehindQueue queue, Map<String, byte[]> values) {
+            this.queue = queue;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Providers report the outcome to the callback on the thread which
+     * ran the operation, this keeps it per thread for the notifications
+     * and passes it on to the subscriber
+     */
+    private final class OutcomeCallback implements SecureStorageBatchCallback {
+
+        // TRUE until an error arrives, or the batch result, null when nothing is tracked
+        private final ThreadLocal<Object> outcome = new ThreadLocal<>();
+        // First error of the asynchronous task running on the thread
+        private final ThreadLocal<Exception[]> failure = new ThreadLocal<>();
+
+        void capture() {
+            failure.set(new Exception[1]);
+        }
+
+        /**
+         * @return First error reported since {@link #capture()}, null if there was none
+         */
+        Exception release() {
+            Exception[] error = failure.get();
+            failure.remove();
+            return error != null ? error[0] : null;
+        }
+
+        private void fail(Exception e) {
+            Exception[] error = failure.get();
+            if (error != null && error[0] == null) {
+                error[0] = e;
+            }
+        }
+
+        /**
+         * @return true, so it can be chained with the check for listeners
+         */
+        boolean begin() {
+            outcome.set(Boolean.TRUE);
+            return true;
+        }
+
+        boolean succeeded() {
+            Object result = outcome.get();
+            outcome.remove();
+            return result == Boolean.TRUE || result instanceof BatchResult && ((BatchResult) result).isSuccessful();
+        }
+
+        /**
+         * @return Keys of a batch which were written
+         */
+        Collection<String> succeeded(Collection<String> keys) {
+            Object result = outcome.get();
+            outcome.remove();
+            if (result instanceof BatchResult) {
+                return ((BatchResult) result).getSucceeded();
+            }
+            return result == Boolean.TRUE ? keys : Collections.<String>emptySet();
+        }
+
+        @Override
+        public void onComplete(ActionType actionType) {
+            if (callback != null) {
+                callback.onComplete(actionType);
+            }
+        }
+
+        @Override
+        public void onError(ActionType actionType, Exception e) {
+            if (outcome.get() != null) {
+                outcome.set(Boolean.FALSE);
+            }
+            fail(e);
+            if (callback != null) {
+                callback.onError(actionType, e);
+            }
+        }
+
+        @Override
+        public void onBatchComplete(ActionType actionType, BatchResult result) {
+            if (outcome.get() != null) {
+                outcome.set(result);
+            }
+            if (!result.isSuccessful()) {
+                fail(result.getFailed().values().iterator().next());
+            }
+            result.dispatch(callback, actionType);
+        }
+    }
+
+    private class TrimMemoryCallback implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            ValueCache cache = SecureStorage.this.cache;
+            if (cache == null) {
+                return;
+            }
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                cache.invalidateAll();
+            } else {
+                cache.trimToSize(cache.getMaxBytes() / 2);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
     }
 }
@@ -0,0 +1,142 @@
+package com.epam.securestorage;
+
+import android.support.annotation.NonNull;
+
+import com.epam.securestorage.core.CryptoExecutor;
+import com.epam.securestorage.core.SecureStorageResultCallback;
+import com.epam.securestorage.core.TypedValues;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * <h2>Transaction</h2>
+ * <b>Description:</b>
+ * Stages saves and removes of several keys, which are then written
+ * together in a single backend write: after a crash either all of them
+ * are stored or none. Staged values are kept in memory until the
+ * transaction is committed or applied, and wiped afterwards. A
+ * transaction can be committed or applied once. Created by
+ * {@link SecureStorage#edit()}.
+ */
+public final class Transaction {
+
+    private final SecureStorage storage;
+    private final Map<String, byte[]> values = new LinkedHashMap<>();
+    private final Set<String> removals = new LinkedHashSet<>();
+    private boolean finished;
+
+    Transaction(@NonNull SecureStorage storage) {
+        this.storage = storage;
+    }
+
+    @NonNull
+    public Transaction putString(@NonNull String key, @NonNull String value) {
+        return stage(key, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * @param value copied, the caller may wipe it right away
+     */
+    @NonNull
+    public Transaction putBytes(@NonNull String key, @NonNull byte[] value) {
+        return stage(key, value != null ? value.clone() : null);
+    }
+
+    @NonNull
+    public Transaction putInt(@NonNull String key, int value) {
+        return stage(key, TypedValues.encodeInt(value));
+    }
+
+    @NonNull
+    public Transaction putLong(@NonNull String key, long value) {
+        return stage(key, TypedValues.encodeLong(value));
+    }
+
+    @NonNull
+    public Transaction putDouble(@NonNull String key, double value) {
+        return stage(key, TypedValues.encodeDouble(value));
+    }
+
+    @NonNull
+    public Transaction putBoolean(@NonNull String key, boolean value) {
+        return stage(key, TypedValues.encodeBoolean(value));
+    }
+
+    @NonNull
+    public Transaction putStringSet(@NonNull String key, @NonNull Set<String> value) {
+        return stage(key, value != null ? TypedValues.encodeStringSet(value) : null);
+    }
+
+    @NonNull
+    public synchronized Transaction remove(@NonNull String key) {
+        checkOpen();
+        wipe(values.remove(key));
+        removals.add(key);
+        return this;
+    }
+
+    /**
+     * <b>Description:</b> Encrypts the changes on the calling thread and
+     * writes them synchronously and durably. Errors are reported to the
+     * callback of the storage as well
+     *
+     * @return true if all the changes were written, false if none was
+     */
+    public boolean commit() {
+        finish();
+        return storage.commit(values, removals, true);
+    }
+
+    /**
+     * <b>Description:</b> Encrypts and writes the changes on the crypto
+     * thread pool, after the operations on its keys scheduled before. The
+     * write isn't synced to the disk, but is still all or nothing
+     *
+     * @return Future of the result, failed with the error which aborted the transaction
+     */
+    @NonNull
+    public Future<Boolean> apply() {
+        return apply(CryptoExecutor.mainThread(), null);
+    }
+
+    /**
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         receives true once all the changes are written or the error, may be null
+     */
+    @NonNull
+    public Future<Boolean> apply(@NonNull Executor callbackExecutor, SecureStorageResultCallback<Boolean> callback) {
+        finish();
+        return storage.applyAsync(values, removals, callbackExecutor, callback);
+    }
+
+    private synchronized Transaction stage(String key, byte[] value) {
+        checkOpen();
+        removals.remove(key);
+        wipe(values.put(key, value));
+        return this;
+    }
+
+    private synchronized void finish() {
+        checkOpen();
+        finished = true;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Transaction is already committed");
+        }
+    }
+
+    private static void wipe(byte[] value) {
+        if (value != null) {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
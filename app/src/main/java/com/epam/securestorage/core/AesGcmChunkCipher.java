@@ -0,0 +1,58 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * <h2>AES-GCM chunk cipher</h2>
+ * <b>Description:</b>
+ * Seals every chunk with AES-GCM under a fresh random IV. Works with
+ * keystore keys as well as in-memory keys. Sealed chunks are
+ * {@link Envelope}s, so the IV travels with the chunk.
+ */
+public class AesGcmChunkCipher implements ChunkCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH = 128;
+
+    private final SecretKey key;
+    // One instance per stream, so it is never shared between threads
+    private final Cipher cipher;
+
+    public AesGcmChunkCipher(@NonNull SecretKey key) throws GeneralSecurityException {
+        this.key = key;
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    @NonNull
+    @Override
+    public byte[] seal(@NonNull byte[] chunk, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException {
+        // The IV is generated by the cipher, keystore keys don't accept caller provided IVs
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(associatedData);
+        byte[] ciphertext = cipher.doFinal(chunk, offset, length);
+        return Envelope.encode(Envelope.ALGORITHM_AES_GCM, cipher.getIV(), ciphertext);
+    }
+
+    @NonNull
+    @Override
+    public byte[] open(@NonNull byte[] sealed, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException {
+        byte[] data = sealed;
+        if (offset != 0 || length != sealed.length) {
+            data = new byte[length];
+            System.arraycopy(sealed, offset, data, 0, length);
+        }
+        Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_GCM);
+        if (envelope == null) {
+            throw new GeneralSecurityException("Unknown chunk format");
+        }
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, data, envelope.getIvOffset(), envelope.getIvLength()));
+        cipher.updateAAD(associatedData);
+        return cipher.doFinal(data, envelope.getPayloadOffset(), envelope.getPayloadLength());
+    }
+}
@@ -0,0 +1,51 @@
+package com.epam.securestorage.core;
+
+import android.os.Build;
+import android.security.keystore.KeyProperties;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <h2>AndroidKeyStore key source</h2>
+ * <b>Description:</b>
+ * Hardware-backed AES keys of the AndroidKeyStore. The returned keys
+ * are handles, the key material stays in the keystore.
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class AndroidKeyStoreKeySource implements KeySource {
+
+    @NonNull
+    @Override
+    public SecretKey getKey(@NonNull String alias, @NonNull String blockMode) throws GeneralSecurityException, IOException {
+        if (KeyProperties.BLOCK_MODE_CBC.equals(blockMode)) {
+            return KeyStoreHelper.initSecretKey(alias);
+        }
+        if (KeyProperties.BLOCK_MODE_GCM.equals(blockMode)) {
+            return KeyStoreHelper.initGcmSecretKey(alias);
+        }
+        throw new NoSuchAlgorithmException("Unsupported block mode: " + blockMode);
+    }
+
+    @Nullable
+    @Override
+    public SecretKey findKey(@NonNull String alias) throws GeneralSecurityException, IOException {
+        return KeyStoreHelper.findSecretKey(alias);
+    }
+
+    @Override
+    public void deleteKey(@NonNull String alias) throws GeneralSecurityException, IOException {
+        KeyStoreHelper.deleteKey(alias);
+    }
+
+    @Override
+    public void invalidateKey(@NonNull String alias) {
+        KeyStoreHelper.invalidateKey(alias);
+    }
+}
@@ -0,0 +1,181 @@
+package com.epam.securestorage.core;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h2>Background pass over the stored entries</h2>
+ * <b>Description:</b>
+ * Runs batches over the entries of a provider on a background thread
+ * of its own, so the crypto pool stays free for foreground operations.
+ * After every batch the pass sleeps in proportion to the time the batch
+ * took, which caps its share of one CPU at the given load.
+ */
+public abstract class BackgroundPass {
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final float DEFAULT_LOAD = 0.25f;
+
+    // Shared by all background work of the library, it never competes with more than one core
+    static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "SecureStorage-background");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Object provider;
+    private final int batchSize;
+    private final float load;
+    private final Executor callbackExecutor;
+    private final SecureStorageResultCallback<Integer> callback;
+    private final AtomicInteger visited = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile int expectedEntries = -1;
+    private volatile boolean cancelled;
+    private volatile Exception error;
+
+    /**
+     * @param provider  provider the pass goes over, its size is the expected number of entries
+     * @param batchSize entries processed at once
+     * @param load      share of one CPU the pass may use, from 0 exclusive to 1
+     * @param callback  receives the number of visited entries, may be null
+     */
+    protected BackgroundPass(@NonNull Object provider, int batchSize, float load,
+                             @NonNull Executor callbackExecutor, @Nullable SecureStorageResultCallback<Integer> callback) {
+        if (batchSize <= 0 || load <= 0 || load > 1) {
+            throw new IllegalArgumentException("Invalid batch size or load");
+        }
+        this.provider = provider;
+        this.batchSize = batchSize;
+        this.load = load;
+        this.callbackExecutor = callbackExecutor;
+        this.callback = callback;
+    }
+
+    /**
+     * @return Number of entries visited, 0 once the pass is complete
+     */
+    protected abstract int runBatch(int maxEntries) throws GeneralSecurityException, IOException;
+
+    /**
+     * <b>Description:</b> Stops after the current batch
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return true if the pass has ended, successfully or not, within the timeout
+     */
+    public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * @return Error the pass has stopped on, null if there is none
+     */
+    @Nullable
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return Entries visited by this pass so far
+     */
+    public int getVisitedCount() {
+        return visited.get();
+    }
+
+    /**
+     * @return Estimated share of the visited entries, from 0 to 1. Entries
+     * written meanwhile may make it lag, it's exact once the pass is done
+     */
+    public float getProgress() {
+        if (isDone() && error == null) {
+            return 1;
+        }
+        int expected = expectedEntries;
+        return expected <= 0 ? 0 : Math.min(1, (float) visited.get() / expected);
+    }
+
+    protected void start() {
+        schedule(0);
+    }
+
+    private void schedule(long delayNanos) {
+        SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                step();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void step() {
+        if (cancelled) {
+            complete(new CancellationException("Background pass cancelled"));
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            if (expectedEntries < 0) {
+                expectedEntries = provider instanceof SecurityProvider ? ((SecurityProvider) provider).size() : 0;
+            }
+            int count = runBatch(batchSize);
+            if (count == 0) {
+                complete(null);
+                return;
+            }
+            visited.addAndGet(count);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            e.printStackTrace();
+            complete(e);
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        schedule((long) (elapsed * (1 - load) / load));
+    }
+
+    private void complete(@Nullable final Exception error) {
+        this.error = error;
+        done.countDown();
+        if (callback == null) {
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    callback.onSuccess(visited.get());
+                } else {
+                    callback.onError(error);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package com.epam.securestorage.core;
+
+import com.epam.securestorage.core.SecureStorageCallback.ActionType;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <h2>Batch operation result</h2>
+ * <b>Description:</b>
+ * Collects per-key outcomes of a batch operation so that
+ * subscribers are informed once per batch instead of once per key
+ */
+public class BatchResult {
+
+    private final Set<String> succeeded = new LinkedHashSet<>();
+    private final Map<String, Exception> failed = new LinkedHashMap<>();
+
+    public void addSuccess(String key) {
+        succeeded.add(key);
+    }
+
+    public void addFailure(String key, Exception e) {
+        failed.put(key, e);
+    }
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    public Set<String> getSucceeded() {
+        return Collections.unmodifiableSet(succeeded);
+    }
+
+    public Map<String, Exception> getFailed() {
+        return Collections.unmodifiableMap(failed);
+    }
+
+    /**
+     * <b>Description:</b> Reports the result to the callback exactly once.
+     * A {@link SecureStorageBatchCallback} receives the per-key result, a plain
+     * {@link SecureStorageCallback} gets a single onComplete or onError
+     *
+     * @param callback   subscriber, may be null
+     * @param actionType batch operation type
+     */
+    public void dispatch(SecureStorageCallback callback, ActionType actionType) {
+        if (callback == null) {
+            return;
+        }
+        if (callback instanceof SecureStorageBatchCallback) {
+            ((SecureStorageBatchCallback) callback).onBatchComplete(actionType, this);
+        } else if (isSuccessful()) {
+            callback.onComplete(actionType);
+        } else {
+            Exception cause = failed.values().iterator().next();
+            callback.onError(actionType, new SecureStorageException("Batch failed for keys " + failed.keySet(), cause));
+        }
+    }
+}
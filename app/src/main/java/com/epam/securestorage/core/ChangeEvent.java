@@ -0,0 +1,58 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <h2>Stored value change</h2>
+ * <b>Description:</b>
+ * The last change of a key within a coalescing window. The new value
+ * is there only for listeners which asked for it, it's wiped once the
+ * listener returns, so it must be copied to be kept.
+ */
+public final class ChangeEvent {
+
+    private final String key;
+    private final boolean removed;
+    private final byte[] value;
+
+    ChangeEvent(@NonNull String key, boolean removed, @Nullable byte[] value) {
+        this.key = key;
+        this.removed = removed;
+        this.value = value;
+    }
+
+    @NonNull
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return New value as saved by {@code save}, null if the key was removed or values weren't asked for
+     */
+    @Nullable
+    public String getValue() {
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @return Copy of the new value, typed values are in the form of {@link TypedValues}
+     */
+    @Nullable
+    public byte[] getBytes() {
+        return value != null ? value.clone() : null;
+    }
+
+    void wipe() {
+        if (value != null) {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
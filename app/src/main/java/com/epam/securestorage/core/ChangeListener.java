@@ -0,0 +1,19 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * <h2>Stored value change listener</h2>
+ * <b>Description:</b>
+ * Receives the changes of the keys it was registered for, coalesced
+ * over the window it was registered with, on its executor.
+ */
+public interface ChangeListener {
+
+    /**
+     * @param changes one event per changed key, in the order of the last changes
+     */
+    void onChanged(@NonNull List<ChangeEvent> changes);
+}
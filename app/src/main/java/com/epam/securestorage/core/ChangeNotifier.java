@@ -0,0 +1,166 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Change notifier</h2>
+ * <b>Description:</b>
+ * Tells the registered listeners about saved and removed keys. Every
+ * listener collects its changes for the window it was registered with,
+ * a key changed several times within the window is reported once with
+ * its last change. The window starts with the first change, so a
+ * steady stream of writes is delivered at most once per window.
+ */
+public final class ChangeNotifier {
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param keys         keys to watch, null to watch the prefix instead
+     * @param prefix       prefix of the keys to watch, "" for all keys
+     * @param windowMillis time the changes are collected for before delivery
+     * @param withValues   pass the new values along
+     * @param executor     executor the listener is called on, a serial one keeps deliveries ordered
+     */
+    public void register(@Nullable Collection<String> keys, @Nullable String prefix, long windowMillis,
+                         boolean withValues, @NonNull Executor executor, @NonNull ChangeListener listener) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        subscriptions.add(new Subscription(keys != null ? new HashSet<>(keys) : null, prefix,
+                windowMillis, withValues, executor, listener));
+    }
+
+    /**
+     * <b>Description:</b> Unregisters the listener, changes it hasn't got yet are dropped
+     */
+    public void unregister(@NonNull ChangeListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+                subscription.cancel();
+            }
+        }
+    }
+
+    /**
+     * <b>Description:</b> Lets writers skip collecting the changes
+     */
+    public boolean hasListeners() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * @param value new value, copied for the listeners which want it
+     */
+    public void saved(@NonNull String key, @NonNull byte[] value) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(key)) {
+                subscription.add(key, false, subscription.withValues ? value.clone() : null);
+            }
+        }
+    }
+
+    public void removed(@NonNull Collection<String> keys) {
+        for (Subscription subscription : subscriptions) {
+            for (String key : keys) {
+                if (subscription.matches(key)) {
+                    subscription.add(key, true, null);
+                }
+            }
+        }
+    }
+
+    private static final class Subscription implements Runnable {
+
+        private final Set<String> keys;
+        private final String prefix;
+        private final long windowMillis;
+        private final boolean withValues;
+        private final Executor executor;
+        private final ChangeListener listener;
+        private Map<String, ChangeEvent> pending = new LinkedHashMap<>();
+        private boolean cancelled;
+
+        Subscription(Set<String> keys, String prefix, long windowMillis, boolean withValues,
+                     Executor executor, ChangeListener listener) {
+            this.keys = keys;
+            this.prefix = prefix;
+            this.windowMillis = windowMillis;
+            this.withValues = withValues;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        boolean matches(String key) {
+            return keys != null ? keys.contains(key) : prefix != null && key.startsWith(prefix);
+        }
+
+        void add(String key, boolean removed, byte[] value) {
+            boolean schedule;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                schedule = pending.isEmpty();
+                // Re-inserting moves the key to the end, the order is the one of the last changes
+                ChangeEvent previous = pending.remove(key);
+                if (previous != null) {
+                    previous.wipe();
+                }
+                pending.put(key, new ChangeEvent(key, removed, value));
+            }
+            if (schedule) {
+                BackgroundPass.SCHEDULER.schedule(this, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            wipe(pending.values());
+            pending.clear();
+        }
+
+        //Ends the window, the next change opens a new one
+        @Override
+        public void run() {
+            final List<ChangeEvent> changes;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                changes = Collections.unmodifiableList(new ArrayList<>(pending.values()));
+                pending = new LinkedHashMap<>();
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.onChanged(changes);
+                    } finally {
+                        wipe(changes);
+                    }
+                }
+            });
+        }
+
+        private static void wipe(Collection<ChangeEvent> changes) {
+            for (ChangeEvent change : changes) {
+                change.wipe();
+            }
+        }
+    }
+}
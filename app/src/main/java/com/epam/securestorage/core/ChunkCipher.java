@@ -0,0 +1,21 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <h2>Authenticated chunk cipher</h2>
+ * <b>Description:</b>
+ * Encrypts and authenticates single chunks of a stream. The associated
+ * data binds every chunk to its stream, position and final flag, so
+ * reordered, spliced or truncated streams fail to open.
+ */
+public interface ChunkCipher {
+
+    @NonNull
+    byte[] seal(@NonNull byte[] chunk, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException;
+
+    @NonNull
+    byte[] open(@NonNull byte[] sealed, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException;
+}
@@ -0,0 +1,131 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import static com.epam.securestorage.core.ChunkedEncryptingOutputStream.HEADER_SIZE;
+import static com.epam.securestorage.core.ChunkedEncryptingOutputStream.MAGIC;
+import static com.epam.securestorage.core.ChunkedEncryptingOutputStream.VERSION;
+
+/**
+ * <h2>Decrypting input stream</h2>
+ * <b>Description:</b>
+ * Reads streams written by {@link ChunkedEncryptingOutputStream}.
+ * Chunks are decrypted and verified one at a time, data of a chunk is
+ * released to the reader only after its authentication succeeded.
+ */
+public class ChunkedDecryptingInputStream extends InputStream {
+
+    // Room for the envelope header, IV and authentication tag of a chunk
+    private static final int MAX_CHUNK_OVERHEAD = 1024;
+
+    private final DataInputStream in;
+    private final ChunkCipher chunkCipher;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final int chunkSize;
+    private byte[] sealed = new byte[0];
+    private byte[] chunk = new byte[0];
+    private int position;
+    private long index;
+    private boolean finished;
+
+    public ChunkedDecryptingInputStream(@NonNull InputStream in, @NonNull ChunkCipher chunkCipher) throws IOException {
+        this.in = new DataInputStream(in);
+        this.chunkCipher = chunkCipher;
+        this.in.readFully(header);
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Unknown stream format");
+        }
+        chunkSize = buffer.getInt();
+        if (chunkSize <= 0) {
+            throw new IOException("Corrupted stream header");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        while (position == chunk.length) {
+            if (finished) {
+                return false;
+            }
+            readChunk();
+        }
+        return true;
+    }
+
+    private void readChunk() throws IOException {
+        boolean last;
+        int length;
+        try {
+            last = in.readByte() != 0;
+            length = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Stream is truncated", e);
+        }
+        if (length < 0 || length > chunkSize + MAX_CHUNK_OVERHEAD) {
+            throw new IOException("Corrupted chunk " + index);
+        }
+        if (sealed.length < length) {
+            sealed = new byte[length];
+        }
+        try {
+            in.readFully(sealed, 0, length);
+        } catch (EOFException e) {
+            throw new IOException("Stream is truncated", e);
+        }
+        try {
+            chunk = chunkCipher.open(sealed, 0, length, ChunkedEncryptingOutputStream.associatedData(header, index, last));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Chunk " + index + " failed authentication", e);
+        }
+        position = 0;
+        index++;
+        if (last) {
+            finished = true;
+            if (in.read() != -1) {
+                throw new IOException("Unexpected data after the final chunk");
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * <h2>Encrypting output stream</h2>
+ * <b>Description:</b>
+ * Encrypts written data in fixed-size authenticated chunks, so memory
+ * usage is bounded by one chunk regardless of the payload size.
+ * Layout:
+ * <pre>
+ * header: | magic (4) | version (1) | chunk size (4) | stream id (16) |
+ * chunk:  | final flag (1) | sealed length (4) | sealed chunk |
+ * </pre>
+ * Every chunk is authenticated together with the header, its index and
+ * the final flag. The last chunk is written on close and is always
+ * marked final, so a truncated stream is detected on read.
+ */
+public class ChunkedEncryptingOutputStream extends OutputStream {
+
+    static final int MAGIC = 0x53535452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 25;
+    static final int STREAM_ID_SIZE = 16;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final ChunkCipher chunkCipher;
+    private final byte[] header;
+    private final byte[] buffer;
+    private int position;
+    private long index;
+    private boolean finished;
+    private boolean closed;
+
+    public ChunkedEncryptingOutputStream(@NonNull OutputStream out, @NonNull ChunkCipher chunkCipher) throws IOException {
+        this(out, chunkCipher, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedEncryptingOutputStream(@NonNull OutputStream out, @NonNull ChunkCipher chunkCipher, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.out = new DataOutputStream(out);
+        this.chunkCipher = chunkCipher;
+        this.buffer = new byte[chunkSize];
+
+        byte[] streamId = new byte[STREAM_ID_SIZE];
+        new SecureRandom().nextBytes(streamId);
+        header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put((byte) VERSION)
+                .putInt(chunkSize)
+                .put(streamId)
+                .array();
+        this.out.write(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (position == buffer.length) {
+            flushChunk(false);
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            // A full chunk is sealed only when more data arrives, the last one must carry the final flag
+            if (position == buffer.length) {
+                flushChunk(false);
+            }
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * <b>Description:</b> Writes the final chunk without closing
+     * the underlying stream. No data can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        flushChunk(true);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void flushChunk(boolean last) throws IOException {
+        byte[] sealed;
+        try {
+            sealed = chunkCipher.seal(buffer, 0, position, associatedData(header, index, last));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can't encrypt chunk " + index, e);
+        }
+        out.writeByte(last ? 1 : 0);
+        out.writeInt(sealed.length);
+        out.write(sealed);
+        index++;
+        position = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished || closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    static byte[] associatedData(byte[] header, long index, boolean last) {
+        return ByteBuffer.allocate(header.length + 9)
+                .put(header)
+                .putLong(index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+}
@@ -0,0 +1,90 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * <h2>Cipher instances pool</h2>
+ * <b>Description:</b>
+ * Lock-free pool of Cipher instances of one transformation.
+ * A borrowed Cipher is owned by the borrowing thread until it is
+ * returned, so concurrent operations never share an instance, and
+ * the provider lookup of Cipher.getInstance is paid only when the
+ * pool is empty. Callers always init a borrowed Cipher before use.
+ */
+public final class CipherPool {
+
+    private static final int MAX_IDLE = 8;
+    private static final ConcurrentMap<String, CipherPool> POOLS = new ConcurrentHashMap<>();
+
+    private final String transformation;
+    private final String provider;
+    private final Queue<Cipher> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private CipherPool(String transformation, String provider) {
+        this.transformation = transformation;
+        this.provider = provider;
+    }
+
+    /**
+     * <b>Description:</b> Returns the shared pool of a transformation
+     *
+     * @param transformation cipher transformation, e.g. "AES/CBC/PKCS7Padding"
+     * @param provider       security provider name or null for the default one
+     */
+    public static CipherPool of(@NonNull String transformation, @Nullable String provider) {
+        String id = provider == null ? transformation : transformation + "@" + provider;
+        CipherPool pool = POOLS.get(id);
+        if (pool == null) {
+            pool = new CipherPool(transformation, provider);
+            CipherPool existing = POOLS.putIfAbsent(id, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * <b>Description:</b> Borrows a Cipher, creates a new one if the pool is empty
+     */
+    @NonNull
+    public Cipher acquire() throws NoSuchAlgorithmException, NoSuchPaddingException, NoSuchProviderException {
+        Cipher cipher = idle.poll();
+        if (cipher != null) {
+            idleCount.decrementAndGet();
+            return cipher;
+        }
+        return provider == null ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, provider);
+    }
+
+    /**
+     * <b>Description:</b> Returns a borrowed Cipher, it must not be used afterwards
+     */
+    public void release(@Nullable Cipher cipher) {
+        if (cipher == null) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(cipher);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+}
@@ -0,0 +1,87 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <h2>Value compression</h2>
+ * <b>Description:</b>
+ * Deflates large values before they are encrypted, ciphertext doesn't
+ * compress. The zlib wrapper is kept, its checksum catches a value
+ * which the unauthenticated CBC mode let through corrupted. Every
+ * temporary array holding plaintext is wiped.
+ * <p>
+ * Compression makes the ciphertext length depend on the content, so
+ * it must not be enabled for values which mix secrets with data an
+ * attacker controls and whose stored size the attacker can observe.
+ */
+public final class Compression {
+
+    public static final int DISABLED = -1;
+
+    private Compression() {
+    }
+
+    /**
+     * @param threshold minimal value size in bytes to compress, {@link #DISABLED} turns compression off
+     * @return Compressed value or null if the value is below the threshold or doesn't get smaller
+     */
+    @Nullable
+    public static byte[] deflate(@NonNull byte[] value, int threshold) {
+        if (threshold < 0 || value.length < threshold) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        // Output which isn't smaller than the input isn't worth it, the buffer doesn't need to grow
+        byte[] buffer = new byte[value.length];
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            int length = deflater.deflate(buffer);
+            if (!deflater.finished() || length >= value.length) {
+                return null;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Restores a value compressed by {@link #deflate(byte[], int)}
+     */
+    @NonNull
+    public static byte[] inflate(@NonNull byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        byte[] buffer = new byte[Math.max(64, length * 4)];
+        int size = 0;
+        try {
+            inflater.setInput(data, offset, length);
+            while (!inflater.finished()) {
+                if (size == buffer.length) {
+                    byte[] grown = Arrays.copyOf(buffer, buffer.length * 2);
+                    Arrays.fill(buffer, (byte) 0);
+                    buffer = grown;
+                }
+                int inflated = inflater.inflate(buffer, size, buffer.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed value");
+                }
+                size += inflated;
+            }
+            return Arrays.copyOf(buffer, size);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed value", e);
+        } finally {
+            inflater.end();
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.epam.securestorage.core;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h2>Crypto operations executor</h2>
+ * <b>Description:</b>
+ * Runs keystore, cipher and persistence work off the calling
+ * thread on a small thread pool. Tasks are grouped into lanes:
+ * tasks of one lane (e.g. one key) run strictly in submission
+ * order, different lanes run in parallel. A task spanning several
+ * lanes of a group, or the whole group, runs once it's first in all
+ * of them and holds them until it's done. At most a fixed number of
+ * submitted tasks may wait, further ones fail with
+ * {@link RejectedExecutionException}, the work never falls back to
+ * the calling thread.
+ */
+public final class CryptoExecutor {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT, 4));
+    private static final int QUEUE_CAPACITY = 128;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Lane of a group which every group-wide task goes through, so it has one even in an idle group
+    private static final Object GROUP_LANE = new Object();
+
+    private static volatile CryptoExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    // Guarded by itself, as all the lane state
+    private final Map<LaneId, Lane> lanes = new HashMap<>();
+    private final Map<Object, Barrier> groupBarriers = new HashMap<>();
+    private int queued;
+
+    private CryptoExecutor() {
+        // Holds active lanes only, the tasks wait in the lanes and are bounded by QUEUE_CAPACITY
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CryptoThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static CryptoExecutor getInstance() {
+        if (instance == null) {
+            synchronized (CryptoExecutor.class) {
+                if (instance == null) {
+                    instance = new CryptoExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * <b>Description:</b> Executor that delivers callbacks on the main thread
+     */
+    public static Executor mainThread() {
+        return MainThreadExecutor.INSTANCE;
+    }
+
+    /**
+     * <b>Description:</b> Schedules a task and reports its result to the callback
+     *
+     * @param lane             tasks with equal lanes are executed in submission order
+     * @param task             work to be done on the crypto thread pool
+     * @param callbackExecutor executor the callback is delivered on
+     * @param callback         result subscriber, may be null
+     * @return Future of the task result, failed with RejectedExecutionException if too many tasks wait
+     */
+    public <T> Future<T> submit(@NonNull Object lane, @NonNull Callable<T> task,
+                                @NonNull Executor callbackExecutor, SecureStorageResultCallback<T> callback) {
+        return submit(null, lane, task, callbackExecutor, callback);
+    }
+
+    /**
+     * <b>Description:</b> Schedules a task in a lane of the group, it's
+     * ordered against the tasks spanning the lane or the whole group too
+     *
+     * @param group e.g. the storage instance, lanes of different groups are independent
+     */
+    public <T> Future<T> submit(@Nullable Object group, @NonNull Object lane, @NonNull Callable<T> task,
+                                @NonNull Executor callbackExecutor, SecureStorageResultCallback<T> callback) {
+        ReportingTask<T> future = new ReportingTask<>(task, callbackExecutor, callback);
+        Lane target;
+        synchronized (lanes) {
+            if (queued >= QUEUE_CAPACITY) {
+                future.reject();
+                return future;
+            }
+            queued++;
+            target = enqueue(group, lane, new Counted(future));
+        }
+        if (target != null) {
+            executor.execute(target);
+        }
+        return future;
+    }
+
+    /**
+     * <b>Description:</b> Schedules a task after all previously scheduled
+     * tasks of the given lanes of the group, later tasks of these lanes
+     * wait for it. Null lanes span the whole group, including lanes
+     * which are created until the task is done
+     *
+     * @param lanes lanes the task is ordered against, null for all of the group
+     * @return Future of the task result, failed with RejectedExecutionException if too many tasks wait
+     */
+    public <T> Future<T> submitAcross(@NonNull Object group, @Nullable Collection<?> lanes, @NonNull Callable<T> task,
+                                      @NonNull Executor callbackExecutor, SecureStorageResultCallback<T> callback) {
+        ReportingTask<T> future = new ReportingTask<>(task, callbackExecutor, callback);
+        List<Lane> scheduled = new ArrayList<>();
+        synchronized (this.lanes) {
+            if (queued >= QUEUE_CAPACITY) {
+                future.reject();
+                return future;
+            }
+            queued++;
+            Barrier barrier = new Barrier(group, lanes == null, new Counted(future));
+            Set<Lane> targets = new LinkedHashSet<>();
+            if (lanes == null) {
+                for (Map.Entry<LaneId, Lane> entry : this.lanes.entrySet()) {
+                    if (group.equals(entry.getKey().group)) {
+                        targets.add(entry.getValue());
+                    }
+                }
+                targets.add(lane(group, GROUP_LANE));
+            } else {
+                for (Object lane : lanes) {
+                    targets.add(lane(group, lane));
+                }
+                if (targets.isEmpty()) {
+                    targets.add(lane(group, new Object()));
+                }
+            }
+            barrier.waiting = targets.size();
+            for (Lane target : targets) {
+                barrier.lanes.add(target);
+                if (target.add(barrier)) {
+                    scheduled.add(target);
+                }
+            }
+            if (barrier.groupWide) {
+                groupBarriers.put(group, barrier);
+            }
+        }
+        for (Lane target : scheduled) {
+            executor.execute(target);
+        }
+        return future;
+    }
+
+    /**
+     * <b>Description:</b> Schedules a task after all previously
+     * scheduled tasks of the same lane. Internal work isn't bounded,
+     * it's never rejected
+     */
+    public void execute(@NonNull Object lane, @NonNull Runnable task) {
+        Lane target;
+        synchronized (lanes) {
+            target = enqueue(null, lane, task);
+        }
+        if (target != null) {
+            executor.execute(target);
+        }
+    }
+
+    //Must be called under the lanes lock, returns the lane if it has to be scheduled
+    private Lane enqueue(Object group, Object lane, Runnable task) {
+        Lane target = lane(group, lane);
+        return target.add(task) ? target : null;
+    }
+
+    //Must be called under the lanes lock
+    private Lane lane(Object group, Object id) {
+        LaneId laneId = new LaneId(group, id);
+        Lane lane = lanes.get(laneId);
+        if (lane == null) {
+            lane = new Lane(laneId);
+            lanes.put(laneId, lane);
+            Barrier barrier = group != null ? groupBarriers.get(group) : null;
+            if (barrier != null) {
+                // A new lane of a group held by a group-wide task waits for it as well
+                lane.active = true;
+                barrier.lanes.add(lane);
+            }
+        }
+        return lane;
+    }
+
+    private static final class LaneId {
+        private final Object group;
+        private final Object lane;
+
+        LaneId(Object group, Object lane) {
+            this.group = group;
+            this.lane = lane;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LaneId)) {
+                return false;
+            }
+            LaneId other = (LaneId) o;
+            return (group == null ? other.group == null : group.equals(other.group)) && lane.equals(other.lane);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (group != null ? group.hashCode() : 0) + lane.hashCode();
+        }
+    }
+
+    /**
+     * Runs one task per scheduling so a busy lane can't starve the others
+     */
+    private final class Lane implements Runnable {
+        private final LaneId id;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean active;
+
+        Lane(LaneId id) {
+            this.id = id;
+        }
+
+        /**
+         * @return true if the lane has to be scheduled
+         */
+        boolean add(Runnable task) {
+            tasks.add(task);
+            if (active) {
+                return false;
+            }
+            active = true;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            Runnable next;
+            synchronized (lanes) {
+                next = tasks.poll();
+                // The lane stays active but idle until the other lanes of the task reach it
+                if (next instanceof Barrier && !((Barrier) next).arrive()) {
+                    return;
+                }
+            }
+            try {
+                if (next != null) {
+                    next.run();
+                }
+            } finally {
+                if (next instanceof Barrier) {
+                    ((Barrier) next).release();
+                } else {
+                    advance();
+                }
+            }
+        }
+
+        void advance() {
+            boolean reschedule;
+            synchronized (lanes) {
+                reschedule = !tasks.isEmpty();
+                if (!reschedule) {
+                    active = false;
+                    lanes.remove(id);
+                }
+            }
+            if (reschedule) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    /**
+     * Task queued in several lanes, run by the last of them to reach it
+     */
+    private final class Barrier implements Runnable {
+        private final Object group;
+        private final boolean groupWide;
+        private final Runnable task;
+        // Lanes it's queued in and, for a group-wide task, the lanes created meanwhile
+        private final List<Lane> lanes = new ArrayList<>();
+        private int waiting;
+
+        Barrier(Object group, boolean groupWide, Runnable task) {
+            this.group = group;
+            this.groupWide = groupWide;
+            this.task = task;
+        }
+
+        //Must be called under the lanes lock
+        boolean arrive() {
+            return --waiting == 0;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        void release() {
+            List<Lane> held;
+            synchronized (CryptoExecutor.this.lanes) {
+                if (groupWide && groupBarriers.get(group) == this) {
+                    groupBarriers.remove(group);
+                }
+                held = new ArrayList<>(lanes);
+            }
+            for (Lane lane : held) {
+                lane.advance();
+            }
+        }
+    }
+
+    /**
+     * Frees its place in the bounded queue once it has run
+     */
+    private final class Counted implements Runnable {
+        private final Runnable task;
+
+        Counted(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                synchronized (lanes) {
+                    queued--;
+                }
+            }
+        }
+    }
+
+    private static final class ReportingTask<T> extends FutureTask<T> {
+        private final Executor callbackExecutor;
+        private final SecureStorageResultCallback<T> callback;
+
+        ReportingTask(Callable<T> task, Executor callbackExecutor, SecureStorageResultCallback<T> callback) {
+            super(task);
+            this.callbackExecutor = callbackExecutor;
+            this.callback = callback;
+        }
+
+        void reject() {
+            setException(new RejectedExecutionException("Too many crypto tasks are waiting"));
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            try {
+                final T result = get();
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(result);
+                    }
+                });
+            } catch (InterruptedException | ExecutionException e) {
+                final Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(cause);
+                    }
+                });
+            }
+        }
+    }
+
+    private static final class CryptoThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "SecureStorage-crypto-" + count.incrementAndGet());
+        }
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+        private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <h2>Encrypted file store</h2>
+ * <b>Description:</b>
+ * Keeps large payloads as chunk encrypted files in an app-private
+ * directory, one file per key. File names are hashes of the keys.
+ * A file is replaced atomically once its output stream is closed,
+ * readers never observe a partially written payload.
+ */
+public class EncryptedFileStore {
+
+    private final File directory;
+    private final StreamingProvider provider;
+
+    public EncryptedFileStore(@NonNull File directory, @NonNull StreamingProvider provider) {
+        this.directory = directory;
+        this.provider = provider;
+    }
+
+    /**
+     * @param key storage key
+     * @return Stream which encrypts written data, the payload
+     * becomes visible to readers after the stream is closed
+     */
+    @NonNull
+    public OutputStream openOutputStream(@NonNull String key) throws IOException {
+        ChunkCipher chunkCipher = newChunkCipher(key);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        AtomicFile file = fileFor(key);
+        FileOutputStream out = file.startWrite();
+        try {
+            return new AtomicOutputStream(file, out, new ChunkedEncryptingOutputStream(out, chunkCipher));
+        } catch (IOException e) {
+            file.failWrite(out);
+            throw e;
+        }
+    }
+
+    /**
+     * @param key storage key
+     * @return Stream of the decrypted payload
+     * @throws java.io.FileNotFoundException if nothing is stored for the key
+     */
+    @NonNull
+    public InputStream openInputStream(@NonNull String key) throws IOException {
+        ChunkCipher chunkCipher = newChunkCipher(key);
+        FileInputStream in = fileFor(key).openRead();
+        try {
+            return new ChunkedDecryptingInputStream(in, chunkCipher);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public boolean contains(@NonNull String key) {
+        return fileFor(key).getBaseFile().exists();
+    }
+
+    public void delete(@NonNull String key) {
+        fileFor(key).delete();
+    }
+
+    public void deleteAll() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private ChunkCipher newChunkCipher(String key) throws IOException {
+        try {
+            return provider.newChunkCipher(key);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can't initialize the stream cipher", e);
+        }
+    }
+
+    private AtomicFile fileFor(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new AtomicFile(new File(directory, name.toString()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Commits the file only if the final chunk was written, otherwise the previous payload stays
+    private static class AtomicOutputStream extends FilterOutputStream {
+
+        private final AtomicFile file;
+        private final FileOutputStream fileStream;
+        private final ChunkedEncryptingOutputStream encryptingStream;
+        private boolean closed;
+
+        AtomicOutputStream(AtomicFile file, FileOutputStream fileStream, ChunkedEncryptingOutputStream encryptingStream) {
+            super(encryptingStream);
+            this.file = file;
+            this.fileStream = fileStream;
+            this.encryptingStream = encryptingStream;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            encryptingStream.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                encryptingStream.finish();
+            } catch (IOException e) {
+                file.failWrite(fileStream);
+                throw e;
+            }
+            file.finishWrite(fileStream);
+        }
+    }
+}
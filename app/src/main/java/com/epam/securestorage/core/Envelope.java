@@ -0,0 +1,186 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * <h2>Encrypted entry envelope</h2>
+ * <b>Description:</b>
+ * Single binary record that keeps everything needed to decrypt
+ * a stored value: a version byte, the algorithm id, the key version,
+ * the IV and the ciphertext. Layout:
+ * <pre>
+ * v1: | marker+version (1) | algorithm (1) | iv length (1) | iv | ciphertext |
+ * v2: | marker+version (1) | algorithm (1) | key version (2) | iv length (1) | iv | ciphertext |
+ * </pre>
+ * The upper nibble of the first byte marks the envelope, so entries
+ * written before the format existed can be told apart. Values under the
+ * initial key version 0 keep the v1 layout. The top bit of the
+ * algorithm byte flags a value which was compressed before it was
+ * encrypted. Parsing works on offsets into the stored array and never
+ * copies the payload.
+ */
+public final class Envelope {
+
+    public static final int ALGORITHM_AES_CBC = 1;
+    public static final int ALGORITHM_RSA_ECB = 2;
+    public static final int ALGORITHM_THEMIS_SEAL = 3;
+    public static final int ALGORITHM_AES_GCM = 4;
+    public static final int ALGORITHM_THEMIS_SEAL_DERIVED = 5;
+
+    public static final int FLAG_COMPRESSED = 0x80;
+    private static final int ALGORITHM_MASK = 0x7F;
+
+    static final int MARKER = 0xA0;
+    static final int VERSION_1 = 1;
+    static final int VERSION_2 = 2;
+    public static final int MAX_KEY_VERSION = 0xFFFF;
+    private static final int HEADER_SIZE = 3;
+    private static final int HEADER_SIZE_V2 = 5;
+
+    private final byte[] data;
+    private final int algorithm;
+    private final int flags;
+    private final int keyVersion;
+    private final int headerSize;
+    private final int ivLength;
+
+    private Envelope(byte[] data, int algorithm, int flags, int keyVersion, int headerSize, int ivLength) {
+        this.data = data;
+        this.algorithm = algorithm;
+        this.flags = flags;
+        this.keyVersion = keyVersion;
+        this.headerSize = headerSize;
+        this.ivLength = ivLength;
+    }
+
+    /**
+     * <b>Description:</b> Packs an encrypted value into an envelope
+     *
+     * @param algorithm  one of the ALGORITHM constants
+     * @param iv         initialization vector, null if the algorithm has none
+     * @param ciphertext encrypted value
+     * @return Envelope bytes ready to be persisted
+     */
+    @NonNull
+    public static byte[] encode(int algorithm, @Nullable byte[] iv, @NonNull byte[] ciphertext) {
+        return encode(algorithm, 0, iv, ciphertext);
+    }
+
+    /**
+     * <b>Description:</b> Packs a value encrypted with the given key version
+     *
+     * @param keyVersion version of the key, from 0 to {@link #MAX_KEY_VERSION}
+     */
+    @NonNull
+    public static byte[] encode(int algorithm, int keyVersion, @Nullable byte[] iv, @NonNull byte[] ciphertext) {
+        return encode(algorithm, 0, keyVersion, iv, ciphertext);
+    }
+
+    /**
+     * <b>Description:</b> Packs a value with the given flags
+     *
+     * @param flags {@link #FLAG_COMPRESSED} or 0
+     */
+    @NonNull
+    public static byte[] encode(int algorithm, int flags, int keyVersion, @Nullable byte[] iv, @NonNull byte[] ciphertext) {
+        if ((algorithm & ~ALGORITHM_MASK) != 0 || (flags & ALGORITHM_MASK) != 0) {
+            throw new IllegalArgumentException("Invalid algorithm or flags");
+        }
+        int ivLength = iv == null ? 0 : iv.length;
+        if (ivLength > 0xFF) {
+            throw new IllegalArgumentException("IV is too long");
+        }
+        if (keyVersion < 0 || keyVersion > MAX_KEY_VERSION) {
+            throw new IllegalArgumentException("Invalid key version: " + keyVersion);
+        }
+        int headerSize = keyVersion == 0 ? HEADER_SIZE : HEADER_SIZE_V2;
+        byte[] data = new byte[headerSize + ivLength + ciphertext.length];
+        data[0] = (byte) (MARKER | (keyVersion == 0 ? VERSION_1 : VERSION_2));
+        data[1] = (byte) (algorithm | flags);
+        if (keyVersion != 0) {
+            data[2] = (byte) (keyVersion >>> 8);
+            data[3] = (byte) keyVersion;
+        }
+        data[headerSize - 1] = (byte) ivLength;
+        if (ivLength > 0) {
+            System.arraycopy(iv, 0, data, headerSize, ivLength);
+        }
+        System.arraycopy(ciphertext, 0, data, headerSize + ivLength, ciphertext.length);
+        return data;
+    }
+
+    /**
+     * <b>Description:</b> Parses stored bytes
+     *
+     * @param data      stored bytes
+     * @param algorithm algorithm the caller expects
+     * @return Envelope or null if the bytes are not an envelope of the
+     * expected algorithm, e.g. an entry in a legacy format
+     */
+    @Nullable
+    public static Envelope parse(@Nullable byte[] data, int algorithm) {
+        if (data == null || data.length < HEADER_SIZE
+                || (data[0] & 0xF0) != MARKER || (data[1] & ALGORITHM_MASK) != algorithm) {
+            return null;
+        }
+        int version = data[0] & 0x0F;
+        int headerSize;
+        int keyVersion;
+        if (version == VERSION_1) {
+            headerSize = HEADER_SIZE;
+            keyVersion = 0;
+        } else if (version == VERSION_2 && data.length >= HEADER_SIZE_V2) {
+            headerSize = HEADER_SIZE_V2;
+            keyVersion = (data[2] & 0xFF) << 8 | data[3] & 0xFF;
+        } else {
+            return null;
+        }
+        int ivLength = data[headerSize - 1] & 0xFF;
+        if (headerSize + ivLength > data.length) {
+            return null;
+        }
+        return new Envelope(data, algorithm, data[1] & ~ALGORITHM_MASK & 0xFF, keyVersion, headerSize, ivLength);
+    }
+
+    public int getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return true if the payload has to be inflated after decryption
+     */
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * @return Version of the key the value is encrypted with, 0 for the initial key
+     */
+    public int getKeyVersion() {
+        return keyVersion;
+    }
+
+    /**
+     * <b>Description:</b> Backing array, IV and payload are addressed by offsets
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getIvOffset() {
+        return headerSize;
+    }
+
+    public int getIvLength() {
+        return ivLength;
+    }
+
+    public int getPayloadOffset() {
+        return headerSize + ivLength;
+    }
+
+    public int getPayloadLength() {
+        return data.length - headerSize - ivLength;
+    }
+}
@@ -0,0 +1,140 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import com.epam.securestorage.core.OperationTrace.Phase;
+import com.epam.securestorage.core.SecureStorageCallback.ActionType;
+import com.epam.securestorage.core.SecurityProvider.Type;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>Histogram metrics recorder</h2>
+ * <b>Description:</b>
+ * Keeps latency histograms of every phase and of whole operations, and
+ * a payload size histogram, per provider type and action. All of them
+ * are allocated upfront, so recording takes no locks and allocates
+ * nothing. Latencies are recorded in nanoseconds.
+ */
+public class HistogramMetricsRecorder implements MetricsListener {
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final int TOTAL = PHASES.length;
+    private static final int PAYLOAD = TOTAL + 1;
+
+    // [type][action][phases..., total, payload]
+    private final ConcurrentHistogram[][][] histograms;
+    private final AtomicLong[][] failures;
+
+    public HistogramMetricsRecorder() {
+        Type[] types = Type.values();
+        ActionType[] actions = ActionType.values();
+        histograms = new ConcurrentHistogram[types.length][actions.length][PAYLOAD + 1];
+        failures = new AtomicLong[types.length][actions.length];
+        for (int t = 0; t < types.length; t++) {
+            for (int a = 0; a < actions.length; a++) {
+                for (int h = 0; h <= PAYLOAD; h++) {
+                    histograms[t][a][h] = new ConcurrentHistogram();
+                }
+                failures[t][a] = new AtomicLong();
+            }
+        }
+    }
+
+    @Override
+    public void onOperation(OperationTrace trace) {
+        ConcurrentHistogram[] target = histograms[trace.getType().ordinal()][trace.getActionType().ordinal()];
+        for (Phase phase : PHASES) {
+            long nanos = trace.getPhaseNanos(phase);
+            // A phase the operation didn't go through would drag the percentiles down
+            if (nanos > 0) {
+                target[phase.ordinal()].record(nanos);
+            }
+        }
+        target[TOTAL].record(trace.getTotalNanos());
+        target[PAYLOAD].record(trace.getPayloadBytes());
+        if (!trace.isSuccessful()) {
+            failures[trace.getType().ordinal()][trace.getActionType().ordinal()].incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Latency of whole operations in nanoseconds
+     */
+    @NonNull
+    public ConcurrentHistogram getLatency(@NonNull Type type, @NonNull ActionType actionType) {
+        return histograms[type.ordinal()][actionType.ordinal()][TOTAL];
+    }
+
+    /**
+     * @return Latency of the phase in nanoseconds, operations which skipped the phase aren't counted
+     */
+    @NonNull
+    public ConcurrentHistogram getLatency(@NonNull Type type, @NonNull ActionType actionType, @NonNull Phase phase) {
+        return histograms[type.ordinal()][actionType.ordinal()][phase.ordinal()];
+    }
+
+    /**
+     * @return Plaintext bytes processed per operation
+     */
+    @NonNull
+    public ConcurrentHistogram getPayloadSize(@NonNull Type type, @NonNull ActionType actionType) {
+        return histograms[type.ordinal()][actionType.ordinal()][PAYLOAD];
+    }
+
+    public long getFailureCount(@NonNull Type type, @NonNull ActionType actionType) {
+        return failures[type.ordinal()][actionType.ordinal()].get();
+    }
+
+    public void reset() {
+        for (ConcurrentHistogram[][] byAction : histograms) {
+            for (ConcurrentHistogram[] byMetric : byAction) {
+                for (ConcurrentHistogram histogram : byMetric) {
+                    histogram.reset();
+                }
+            }
+        }
+        for (AtomicLong[] byAction : failures) {
+            for (AtomicLong counter : byAction) {
+                counter.set(0);
+            }
+        }
+    }
+
+    /**
+     * @return p50/p99/max in microseconds of every operation which was recorded
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Type type : Type.values()) {
+            for (ActionType actionType : ActionType.values()) {
+                ConcurrentHistogram total = getLatency(type, actionType);
+                if (total.getCount() == 0) {
+                    continue;
+                }
+                report.append(type).append(' ').append(actionType)
+                        .append(" n=").append(total.getCount())
+                        .append(" failed=").append(getFailureCount(type, actionType));
+                append(report, "total", total);
+                for (Phase phase : PHASES) {
+                    ConcurrentHistogram histogram = getLatency(type, actionType, phase);
+                    if (histogram.getCount() > 0) {
+                        append(report, phase.name().toLowerCase(Locale.US), histogram);
+                    }
+                }
+                report.append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    private static void append(StringBuilder report, String name, ConcurrentHistogram histogram) {
+        report.append(String.format(Locale.US, " %s[p50=%d p99=%d max=%d]", name,
+                TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(0.5)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(0.99)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getMax())));
+    }
+}
@@ -0,0 +1,56 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <h2>HKDF key derivation</h2>
+ * <b>Description:</b>
+ * HMAC-SHA256 based extract-and-expand key derivation as
+ * specified by <a href="https://tools.ietf.org/html/rfc5869">RFC 5869</a>.
+ * Derives independent subkeys from a single master key.
+ */
+public final class Hkdf {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private Hkdf() {
+    }
+
+    /**
+     * @param inputKey master key material
+     * @param salt     optional salt, a zero filled block is used when null
+     * @param info     context the subkey is bound to
+     * @param length   subkey length in bytes, at most 255 * 32
+     * @return Derived subkey
+     */
+    @NonNull
+    public static byte[] derive(@NonNull byte[] inputKey, @Nullable byte[] salt, @NonNull byte[] info, int length) throws GeneralSecurityException {
+        if (length <= 0 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Invalid subkey length " + length);
+        }
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[HASH_LENGTH], ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(inputKey);
+
+        mac.init(new SecretKeySpec(pseudoRandomKey, ALGORITHM));
+        byte[] result = new byte[length];
+        byte[] block = new byte[0];
+        for (int offset = 0, counter = 1; offset < length; counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            int count = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, result, offset, count);
+            offset += count;
+        }
+        return result;
+    }
+}
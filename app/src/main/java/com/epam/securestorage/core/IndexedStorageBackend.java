@@ -0,0 +1,307 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * <h2>Key index over a storage backend</h2>
+ * <b>Description:</b>
+ * Keeps the keys of the entries which start with the given prefix in
+ * memory. The index is built from the backend once, on first use, and
+ * is updated by every editor of this backend, so presence checks and
+ * key listings never read or decrypt a value. Instances over equal
+ * backends share one index, e.g. two storages over the default
+ * preferences see each other's writes. Writes which bypass all of them
+ * aren't seen, {@link #resetIndex()} makes the index rebuild.
+ */
+public class IndexedStorageBackend implements StorageBackend {
+
+    private static final Map<List<Object>, WeakReference<SharedIndex>> INDEXES = new HashMap<>();
+
+    private final StorageBackend storage;
+    private final String keyPrefix;
+    // Also the lock the writes of all the instances are ordered by
+    private final SharedIndex shared;
+
+    public IndexedStorageBackend(@NonNull StorageBackend storage, @NonNull String keyPrefix) {
+        this.storage = storage;
+        this.keyPrefix = keyPrefix;
+        this.shared = sharedIndex(storage, keyPrefix);
+    }
+
+    private static SharedIndex sharedIndex(StorageBackend storage, String keyPrefix) {
+        List<Object> id = Arrays.<Object>asList(storage, keyPrefix);
+        synchronized (INDEXES) {
+            WeakReference<SharedIndex> reference = INDEXES.get(id);
+            SharedIndex index = reference != null ? reference.get() : null;
+            if (index == null) {
+                // Indexes no instance uses anymore are dropped along with their backends
+                Iterator<WeakReference<SharedIndex>> iterator = INDEXES.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().get() == null) {
+                        iterator.remove();
+                    }
+                }
+                index = new SharedIndex();
+                INDEXES.put(id, new WeakReference<>(index));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return Wrapped backend
+     */
+    @NonNull
+    StorageBackend getBackend() {
+        return storage;
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        return storage.getString(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return key.startsWith(keyPrefix) ? index().contains(key) : storage.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public Set<String> keys() {
+        return storage.keys();
+    }
+
+    @NonNull
+    @Override
+    public Editor edit() {
+        return new IndexedEditor(storage.edit());
+    }
+
+    /**
+     * <b>Description:</b> Lists the entries whose keys start with the
+     * index prefix followed by the given one
+     *
+     * @return Sorted keys without the index prefix
+     */
+    @NonNull
+    public SortedSet<String> entryKeys(@NonNull String prefix) {
+        String from = keyPrefix + prefix;
+        SortedSet<String> keys = new TreeSet<>();
+        for (String key : index().tailSet(from, true)) {
+            if (!key.startsWith(from)) {
+                break;
+            }
+            keys.add(key.substring(keyPrefix.length()));
+        }
+        return Collections.unmodifiableSortedSet(keys);
+    }
+
+    /**
+     * <b>Description:</b> Pages through the indexed entries in key order
+     *
+     * @param after last key of the previous page, null for the first one
+     * @return Up to limit full keys which follow the given one
+     */
+    @NonNull
+    public List<String> indexedKeysAfter(@Nullable String after, int limit) {
+        NavigableSet<String> index = index();
+        List<String> keys = new ArrayList<>(Math.min(limit, 64));
+        for (String key : after != null ? index.tailSet(after, false) : index) {
+            if (keys.size() == limit) {
+                break;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * <b>Description:</b> Writes the replacements of the entries which
+     * still hold the expected values, together with the changes of the
+     * editor, so a value written concurrently is never overwritten by
+     * a background rewrite of its previous version
+     *
+     * @param editor editor of this backend, applied even if nothing is replaced
+     * @return Number of the replaced entries
+     */
+    public int replaceUnchanged(@NonNull Map<String, String> expected, @NonNull Map<String, String> replacements,
+                                @NonNull Editor editor) {
+        synchronized (shared) {
+            int replaced = 0;
+            for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+                String current = storage.getString(replacement.getKey(), null);
+                if (current != null && current.equals(expected.get(replacement.getKey()))) {
+                    editor.putString(replacement.getKey(), replacement.getValue());
+                    replaced++;
+                }
+            }
+            editor.apply();
+            return replaced;
+        }
+    }
+
+    /**
+     * @return Number of the entries whose keys start with the index prefix
+     */
+    public int entryCount() {
+        index();
+        synchronized (shared) {
+            return shared.count;
+        }
+    }
+
+    /**
+     * <b>Description:</b> Builds the index unless it's built already,
+     * e.g. during a warm-up, so the first query doesn't read the keys
+     */
+    public void loadIndex() {
+        index();
+    }
+
+    /**
+     * <b>Description:</b> Drops the index, e.g. after the backend was
+     * changed directly. It's rebuilt on the next query.
+     */
+    public void resetIndex() {
+        synchronized (shared) {
+            shared.index = null;
+            shared.count = 0;
+        }
+    }
+
+    private NavigableSet<String> index() {
+        NavigableSet<String> result = shared.index;
+        if (result == null) {
+            synchronized (shared) {
+                result = shared.index;
+                if (result == null) {
+                    result = new ConcurrentSkipListSet<>();
+                    for (String key : storage.keys()) {
+                        if (key.startsWith(keyPrefix)) {
+                            result.add(key);
+                        }
+                    }
+                    shared.count = result.size();
+                    shared.index = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    //Runs under the lock together with the write, so the index follows the backend's order of changes
+    private void update(boolean clear, Map<String, Boolean> changes) {
+        NavigableSet<String> index = shared.index;
+        if (index == null) {
+            return;
+        }
+        if (clear) {
+            index.clear();
+            shared.count = 0;
+        }
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (!change.getKey().startsWith(keyPrefix)) {
+                continue;
+            }
+            if (change.getValue()) {
+                if (index.add(change.getKey())) {
+                    shared.count++;
+                }
+            } else if (index.remove(change.getKey())) {
+                shared.count--;
+            }
+        }
+    }
+
+    //Guarded by its own monitor, the index is replaced on reset
+    private static final class SharedIndex {
+        private volatile NavigableSet<String> index;
+        private int count;
+    }
+
+    private class IndexedEditor implements Editor {
+
+        private final Editor editor;
+        // true for a put, false for a remove
+        private final Map<String, Boolean> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        IndexedEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @NonNull
+        @Override
+        public Editor putString(@NonNull String key, @NonNull String value) {
+            synchronized (this) {
+                editor.putString(key, value);
+                changes.put(key, true);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor remove(@NonNull String key) {
+            synchronized (this) {
+                editor.remove(key);
+                changes.put(key, false);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                editor.clear();
+                clear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (this) {
+                synchronized (shared) {
+                    boolean committed = editor.commit();
+                    if (committed) {
+                        update(clear, changes);
+                    } else {
+                        // The backend state is unknown after a failed write
+                        resetIndex();
+                    }
+                    return committed;
+                }
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (this) {
+                synchronized (shared) {
+                    editor.apply();
+                    update(clear, changes);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h2>Striped key locks</h2>
+ * <b>Description:</b>
+ * Fixed set of reentrant locks a key is mapped to by its hash.
+ * Operations on one key always take the same lock and are executed
+ * one at a time, operations on keys of different stripes run in
+ * parallel. Several keys are locked in the ascending stripe order,
+ * so multi-key operations can't deadlock each other. Two keys may
+ * share a stripe, the number of stripes keeps it rare.
+ */
+public final class KeyLocks {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param concurrency expected number of threads, rounded up to a power of two
+     */
+    public KeyLocks(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Invalid number of stripes");
+        }
+        int size = Integer.highestOneBit(concurrency);
+        if (size < concurrency) {
+            size <<= 1;
+        }
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @param key null keys share the first stripe, the operation reports them anyway
+     */
+    public void lock(@Nullable String key) {
+        stripes[stripe(key)].lock();
+    }
+
+    public void unlock(@Nullable String key) {
+        stripes[stripe(key)].unlock();
+    }
+
+    /**
+     * <b>Description:</b> Locks the stripes of all the keys
+     *
+     * @return Locked stripes, passed to {@link #unlock(int[])}
+     */
+    @NonNull
+    public int[] lock(@NonNull Collection<String> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            indexes[count++] = stripe(key);
+        }
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return lockStripes(Arrays.copyOf(indexes, distinct));
+    }
+
+    /**
+     * <b>Description:</b> Locks every stripe, e.g. to erase all the keys
+     *
+     * @return Locked stripes, passed to {@link #unlock(int[])}
+     */
+    @NonNull
+    public int[] lockAll() {
+        int[] indexes = new int[stripes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return lockStripes(indexes);
+    }
+
+    public void unlock(@NonNull int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            stripes[locked[i]].unlock();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int[] lockStripes(int[] indexes) {
+        for (int index : indexes) {
+            stripes[index].lock();
+        }
+        return indexes;
+    }
+
+    private int stripe(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        // Only the low bits pick the stripe, the high ones are mixed in
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,65 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+/**
+ * <h2>Background key rotation</h2>
+ * <b>Description:</b>
+ * Moves the entries of a {@link RotatingProvider} to its current key
+ * in small batches. Progress is checkpointed by the provider, a
+ * rotation which was cancelled or interrupted by process death is
+ * continued with {@link #resume}.
+ */
+public class KeyRotation extends BackgroundPass {
+
+    private final RotatingProvider provider;
+    private boolean begin;
+
+    private KeyRotation(RotatingProvider provider, boolean begin, int batchSize, float load,
+                        Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        super(provider, batchSize, load, callbackExecutor, callback);
+        this.provider = provider;
+        this.begin = begin;
+    }
+
+    /**
+     * <b>Description:</b> Creates a new key version and starts moving the entries to it
+     *
+     * @param batchSize entries re-encrypted at once
+     * @param load      share of one CPU the rotation may use, from 0 exclusive to 1
+     * @param callback  receives the number of visited entries, may be null
+     */
+    @NonNull
+    public static KeyRotation begin(@NonNull RotatingProvider provider, int batchSize, float load,
+                                    @NonNull Executor callbackExecutor, @Nullable SecureStorageResultCallback<Integer> callback) {
+        KeyRotation rotation = new KeyRotation(provider, true, batchSize, load, callbackExecutor, callback);
+        rotation.start();
+        return rotation;
+    }
+
+    /**
+     * <b>Description:</b> Continues an interrupted rotation from its
+     * checkpoint, completes at once if none is pending
+     */
+    @NonNull
+    public static KeyRotation resume(@NonNull RotatingProvider provider, int batchSize, float load,
+                                     @NonNull Executor callbackExecutor, @Nullable SecureStorageResultCallback<Integer> callback) {
+        KeyRotation rotation = new KeyRotation(provider, false, batchSize, load, callbackExecutor, callback);
+        rotation.start();
+        return rotation;
+    }
+
+    @Override
+    protected int runBatch(int maxEntries) throws GeneralSecurityException, IOException {
+        if (begin) {
+            provider.beginKeyRotation();
+            begin = false;
+        }
+        return provider.rotateKeys(maxEntries);
+    }
+}
@@ -0,0 +1,60 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <h2>Key source</h2>
+ * <b>Description:</b>
+ * Resolves the secret keys of a provider by alias. Implementations
+ * differ in where the key material lives and so in what every
+ * operation costs, see {@link Mode}.
+ */
+public interface KeySource {
+
+    enum Mode {
+        /**
+         * Keys never leave the AndroidKeyStore, every encryption and
+         * decryption is a call into the keystore daemon. Requires M,
+         * older versions fall back to {@link #WRAPPED}.
+         */
+        KEYSTORE,
+        /**
+         * A data key is stored wrapped by a keystore key pair and
+         * unwrapped once per process, values are encrypted in-process
+         * by a JCA cipher. Much cheaper per operation, but the key is
+         * exposed to the app memory.
+         */
+        WRAPPED
+    }
+
+    /**
+     * <b>Description:</b> Returns the key of the alias, generates it if the alias doesn't exist yet
+     *
+     * @param blockMode block mode the key is used with, KeyProperties.BLOCK_MODE_CBC or BLOCK_MODE_GCM
+     */
+    @NonNull
+    SecretKey getKey(@NonNull String alias, @NonNull String blockMode) throws GeneralSecurityException, IOException;
+
+    /**
+     * @return Key of the alias or null if it doesn't exist
+     */
+    @Nullable
+    SecretKey findKey(@NonNull String alias) throws GeneralSecurityException, IOException;
+
+    /**
+     * <b>Description:</b> Destroys the key, data encrypted with it becomes undecryptable
+     */
+    void deleteKey(@NonNull String alias) throws GeneralSecurityException, IOException;
+
+    /**
+     * <b>Description:</b> Drops what is cached of the key, e.g. after
+     * the keystore reported it permanently invalidated
+     */
+    void invalidateKey(@NonNull String alias);
+}
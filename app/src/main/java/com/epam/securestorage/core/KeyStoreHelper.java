@@ -5,10 +5,12 @@ import android.os.Build;
 import android.security.KeyPairGeneratorSpec;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -17,6 +19,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -26,7 +30,10 @@ import javax.security.auth.x500.X500Principal;
  * <h2>Keystore untility class</h2>
  * <b>Description:</b>
  * Provides basic functions to work with
- * the KeyStore component
+ * the KeyStore component. The keystore is loaded once per process
+ * and resolved key handles are cached per alias, so hot-path
+ * operations don't go to the keystore service. Handles are dropped
+ * by {@link #deleteKey(String)} and {@link #invalidateKey(String)}.
  *
  * @author Denys Mokhrin
  */
@@ -35,34 +42,66 @@ public class KeyStoreHelper {
     public static String ANDROID_KEY_STORE = "AndroidKeyStore";
     public static String KEY_ALIAS = "aliaskeystore";
 
+    private static final Map<String, KeyStore.Entry> KEY_HANDLES = new ConcurrentHashMap<>();
+    private static volatile KeyStore keyStore;
 
     public static KeyStore getKeyStorePreM(Context context) throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException, NoSuchProviderException, InvalidAlgorithmParameterException {
-        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
-        keyStore.load(null);
+        KeyStore keyStore = loadKeyStore();
         // Generate the RSA key pairs
         if (!keyStore.containsAlias(KEY_ALIAS)) {
-            // Generate a key pair for encryption
-            Calendar start = Calendar.getInstance();
-            Calendar end = Calendar.getInstance();
-            end.add(Calendar.YEAR, 1);
-            KeyPairGeneratorSpec spec = new KeyPairGeneratorSpec.Builder(context)
-                    .setAlias(KEY_ALIAS)
-                    .setSubject(new X500Principal("CN=" + KEY_ALIAS + ", O=Android Authority , C=COMPANY"))
-                    .setSerialNumber(BigInteger.TEN)
-                    .setStartDate(start.getTime())
-                    .setEndDate(end.getTime())
-                    .build();
-            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", ANDROID_KEY_STORE);
-            kpg.initialize(spec);
-            kpg.generateKeyPair();
-
-            return keyStore;
+            generateKeyPair(context, KEY_ALIAS);
         }
         return keyStore;
     }
 
+    /**
+     * <b>Description:</b> Returns the RSA key pair of the alias,
+     * generates it if the alias doesn't exist yet
+     */
+    public static KeyStore.PrivateKeyEntry getPrivateKeyEntry(Context context, String alias) throws GeneralSecurityException, IOException {
+        KeyStore.PrivateKeyEntry entry = findPrivateKeyEntry(alias);
+        if (entry == null) {
+            synchronized (KeyStoreHelper.class) {
+                entry = findPrivateKeyEntry(alias);
+                if (entry == null) {
+                    generateKeyPair(context, alias);
+                    entry = findPrivateKeyEntry(alias);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * <b>Description:</b> Returns the RSA key pair of the alias
+     *
+     * @return Cached key pair or null if the alias doesn't exist
+     */
+    @Nullable
+    public static KeyStore.PrivateKeyEntry findPrivateKeyEntry(String alias) throws GeneralSecurityException, IOException {
+        KeyStore.Entry entry = findEntry(alias);
+        return entry instanceof KeyStore.PrivateKeyEntry ? (KeyStore.PrivateKeyEntry) entry : null;
+    }
+
+    private static void generateKeyPair(Context context, String alias) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+        // Generate a key pair for encryption
+        Calendar start = Calendar.getInstance();
+        Calendar end = Calendar.getInstance();
+        end.add(Calendar.YEAR, 1);
+        KeyPairGeneratorSpec spec = new KeyPairGeneratorSpec.Builder(context)
+                .setAlias(alias)
+                .setSubject(new X500Principal("CN=" + alias + ", O=Android Authority , C=COMPANY"))
+                .setSerialNumber(BigInteger.TEN)
+                .setStartDate(start.getTime())
+                .setEndDate(end.getTime())
+                .build();
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", ANDROID_KEY_STORE);
+        kpg.initialize(spec);
+        kpg.generateKeyPair();
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.M)
-    public static SecretKey generatorKey(String alias) throws Exception {
+    public static SecretKey generatorKey(String alias) throws GeneralSecurityException {
         KeyGenParameterSpec keyGenParameterSpec = new KeyGenParameterSpec
                 .Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                 .setBlockModes(KeyProperties.BLOCK_MODE_CBC)
@@ -74,20 +113,110 @@ public class KeyStoreHelper {
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
-    public static SecretKey initSecretKey(String alias) throws Exception {
-        if (getKeyStoreM().containsAlias(alias)) {
-            KeyStore.SecretKeyEntry secretKeyEntry = (KeyStore.SecretKeyEntry) getKeyStoreM().getEntry(alias, null);
-            return secretKeyEntry.getSecretKey();
-        } else {
-            return generatorKey(alias);
+    public static SecretKey generatorGcmKey(String alias) throws GeneralSecurityException {
+        KeyGenParameterSpec keyGenParameterSpec = new KeyGenParameterSpec
+                .Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build();
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        keyGenerator.init(keyGenParameterSpec);
+        return keyGenerator.generateKey();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public static SecretKey initSecretKey(String alias) throws GeneralSecurityException, IOException {
+        return initSecretKey(alias, false);
+    }
+
+    /**
+     * AES-GCM key, used where the data must be authenticated, e.g. by streams
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public static SecretKey initGcmSecretKey(String alias) throws GeneralSecurityException, IOException {
+        return initSecretKey(alias, true);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private static SecretKey initSecretKey(String alias, boolean gcm) throws GeneralSecurityException, IOException {
+        SecretKey secretKey = findSecretKey(alias);
+        if (secretKey == null) {
+            synchronized (KeyStoreHelper.class) {
+                secretKey = findSecretKey(alias);
+                if (secretKey == null) {
+                    secretKey = gcm ? generatorGcmKey(alias) : generatorKey(alias);
+                    KEY_HANDLES.put(alias, new KeyStore.SecretKeyEntry(secretKey));
+                }
+            }
         }
+        return secretKey;
+    }
+
+    /**
+     * <b>Description:</b> Returns the secret key of the alias
+     *
+     * @return Cached key or null if the alias doesn't exist
+     */
+    @Nullable
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public static SecretKey findSecretKey(String alias) throws GeneralSecurityException, IOException {
+        KeyStore.Entry entry = findEntry(alias);
+        return entry instanceof KeyStore.SecretKeyEntry ? ((KeyStore.SecretKeyEntry) entry).getSecretKey() : null;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
     public static KeyStore getKeyStoreM() throws Exception {
-        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
-        keyStore.load(null);
+        return loadKeyStore();
+    }
 
-        return keyStore;
+    /**
+     * <b>Description:</b> Deletes the alias from the keystore
+     * and drops its cached handle
+     */
+    public static void deleteKey(String alias) throws GeneralSecurityException, IOException {
+        try {
+            KeyStore keyStore = loadKeyStore();
+            if (keyStore.containsAlias(alias)) {
+                keyStore.deleteEntry(alias);
+            }
+        } finally {
+            KEY_HANDLES.remove(alias);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Drops the cached handle, e.g. after the key
+     * has been permanently invalidated. The next access goes to the keystore.
+     */
+    public static void invalidateKey(String alias) {
+        KEY_HANDLES.remove(alias);
+    }
+
+    @Nullable
+    private static KeyStore.Entry findEntry(String alias) throws GeneralSecurityException, IOException {
+        KeyStore.Entry entry = KEY_HANDLES.get(alias);
+        if (entry == null) {
+            entry = loadKeyStore().getEntry(alias, null);
+            if (entry != null) {
+                KEY_HANDLES.put(alias, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static KeyStore loadKeyStore() throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException {
+        KeyStore store = keyStore;
+        if (store == null) {
+            synchronized (KeyStoreHelper.class) {
+                store = keyStore;
+                if (store == null) {
+                    store = KeyStore.getInstance(ANDROID_KEY_STORE);
+                    store.load(null);
+                    keyStore = store;
+                }
+            }
+        }
+        return store;
     }
 }
@@ -0,0 +1,270 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h2>Key versions of an alias</h2>
+ * <b>Description:</b>
+ * Tracks which key versions of an alias may still protect entries:
+ * values are written under the current version, entries under the
+ * versions from the oldest one up to the current one are readable.
+ * The state and the rotation checkpoint are kept in the storage
+ * backend next to the entries, so a rotation survives process death.
+ * Version 0 is the alias itself, so stores which were never rotated
+ * keep their keys. Later versions are named after the alias and a
+ * random tag of the store, stores sharing an alias never share them.
+ * Instances are shared per backend and alias while the providers
+ * use them, an unused one is dropped along with its backend.
+ */
+public final class KeyVersions {
+
+    private static final String STATE_PREFIX = "SecureStorageKeyVersions_";
+    private static final String TAG_PREFIX = "SecureStorageKeyTag_";
+    private static final Map<List<Object>, WeakReference<KeyVersions>> INSTANCES = new HashMap<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final StorageBackend storage;
+    private final String alias;
+    // Writers hold the read lock while they encrypt under the current version
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Not the instance monitor, providers hold that one for a whole rotation batch
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    private int current;
+    private int oldest;
+    private String checkpoint;
+    // Null for stores rotated before the tags, their versions keep the alias_vN names
+    private volatile String tag;
+
+    private KeyVersions(StorageBackend storage, String alias) {
+        this.storage = storage;
+        this.alias = alias;
+    }
+
+    /**
+     * @param storage backend the entries protected by the alias are stored in
+     */
+    @NonNull
+    public static KeyVersions forAlias(@NonNull StorageBackend storage, @NonNull String alias) {
+        // The index of every provider wraps the same backend, the state lives in the backend
+        StorageBackend backend = storage instanceof IndexedStorageBackend ? ((IndexedStorageBackend) storage).getBackend() : storage;
+        List<Object> id = Arrays.<Object>asList(backend, alias);
+        synchronized (INSTANCES) {
+            WeakReference<KeyVersions> reference = INSTANCES.get(id);
+            KeyVersions instance = reference != null ? reference.get() : null;
+            if (instance == null) {
+                // A new instance loads the state from the backend, nothing is lost with the dropped ones
+                purge();
+                instance = new KeyVersions(storage, alias);
+                INSTANCES.put(id, new WeakReference<>(instance));
+            }
+            return instance;
+        }
+    }
+
+    //Must be called under the INSTANCES lock
+    private static void purge() {
+        Iterator<WeakReference<KeyVersions>> iterator = INSTANCES.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @NonNull
+    public String aliasOf(int version) {
+        if (version == 0) {
+            return alias;
+        }
+        String tag = state().tag;
+        return tag == null ? alias + "_v" + version : alias + "_" + tag + "_v" + version;
+    }
+
+    /**
+     * <b>Description:</b> Returns the current version and keeps it current
+     * until {@link #unlockCurrent()}, so no value is written under a version
+     * which a finished rotation has already retired
+     */
+    public int lockCurrent() {
+        lock.readLock().lock();
+        try {
+            return state().current;
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    public void unlockCurrent() {
+        lock.readLock().unlock();
+    }
+
+    public int getCurrent() {
+        lock.readLock().lock();
+        try {
+            return state().current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getOldest() {
+        lock.readLock().lock();
+        try {
+            return state().oldest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Key of the last rotated entry or null if the rotation hasn't started yet
+     */
+    @Nullable
+    public String getCheckpoint() {
+        lock.readLock().lock();
+        try {
+            return state().checkpoint;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isRotationPending() {
+        lock.readLock().lock();
+        try {
+            return state().oldest < state().current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Makes the next version current, waits for the
+     * writes under the previous one. The new key must exist already,
+     * the state is committed before any value is written under it.
+     *
+     * @return New current version
+     */
+    public int begin() throws IOException {
+        lock.writeLock().lock();
+        try {
+            state();
+            if (current == Envelope.MAX_KEY_VERSION) {
+                throw new IOException("Key versions are exhausted");
+            }
+            persist(current + 1, oldest, null);
+            return current;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Puts the checkpoint into the editor which
+     * writes the rotated entries, so both are persisted together
+     */
+    public void checkpoint(@NonNull StorageBackend.Editor editor, @NonNull String key) {
+        lock.writeLock().lock();
+        try {
+            state();
+            checkpoint = key;
+            editor.putString(STATE_PREFIX + alias, encode(current, oldest, key));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Marks all entries as rotated, the versions below
+     * the current one may be deleted afterwards
+     */
+    public void finish() throws IOException {
+        lock.writeLock().lock();
+        try {
+            state();
+            persist(current, current, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Starts over from version 0, e.g. after all keys were deleted
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            storage.edit().remove(STATE_PREFIX + alias).remove(TAG_PREFIX + alias).commit();
+            current = 0;
+            oldest = 0;
+            checkpoint = null;
+            tag = newTag();
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void persist(int current, int oldest, String checkpoint) throws IOException {
+        StorageBackend.Editor editor = storage.edit().putString(STATE_PREFIX + alias, encode(current, oldest, checkpoint));
+        // The tag is persisted with the first rotation, its key was created under the tag already
+        if (tag != null) {
+            editor.putString(TAG_PREFIX + alias, tag);
+        }
+        if (!editor.commit()) {
+            throw new IOException("Can't persist the key versions");
+        }
+        this.current = current;
+        this.oldest = oldest;
+        this.checkpoint = checkpoint;
+    }
+
+    //Loaded on first use, constructing a provider must not touch the disk
+    private KeyVersions state() {
+        if (!loaded) {
+            synchronized (loadLock) {
+                if (!loaded) {
+                    String state = storage.getString(STATE_PREFIX + alias, null);
+                    tag = storage.getString(TAG_PREFIX + alias, null);
+                    if (state != null) {
+                        String[] parts = state.split(":", 3);
+                        current = Integer.parseInt(parts[0]);
+                        oldest = Integer.parseInt(parts[1]);
+                        checkpoint = parts[2].isEmpty() ? null : parts[2];
+                    } else if (tag == null) {
+                        tag = newTag();
+                    }
+                    loaded = true;
+                }
+            }
+        }
+        return this;
+    }
+
+    private static String newTag() {
+        byte[] bytes = new byte[4];
+        RANDOM.nextBytes(bytes);
+        StringBuilder tag = new StringBuilder(8);
+        for (byte b : bytes) {
+            tag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return tag.toString();
+    }
+
+    private static String encode(int current, int oldest, @Nullable String checkpoint) {
+        return current + ":" + oldest + ":" + (checkpoint != null ? checkpoint : "");
+    }
+}
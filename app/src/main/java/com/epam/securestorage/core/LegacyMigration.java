@@ -0,0 +1,50 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+/**
+ * <h2>Background legacy layout migration</h2>
+ * <b>Description:</b>
+ * Goes over all entries of a {@link MigratingProvider} once and
+ * rewrites the ones in a legacy layout. Entries in the current layout
+ * are recognised by their header without being decrypted. Optional,
+ * legacy entries are readable and get upgraded on read anyway.
+ */
+public class LegacyMigration extends BackgroundPass {
+
+    private final MigratingProvider provider;
+
+    private LegacyMigration(MigratingProvider provider, int batchSize, float load,
+                            Executor callbackExecutor, SecureStorageResultCallback<Integer> callback) {
+        super(provider, batchSize, load, callbackExecutor, callback);
+        this.provider = provider;
+    }
+
+    /**
+     * @param batchSize entries visited at once
+     * @param load      share of one CPU the migration may use, from 0 exclusive to 1
+     * @param callback  receives the number of visited entries, may be null
+     */
+    @NonNull
+    public static LegacyMigration start(@NonNull MigratingProvider provider, int batchSize, float load,
+                                        @NonNull Executor callbackExecutor, @Nullable SecureStorageResultCallback<Integer> callback) {
+        LegacyMigration migration = new LegacyMigration(provider, batchSize, load, callbackExecutor, callback);
+        migration.start();
+        return migration;
+    }
+
+    @Override
+    protected int runBatch(int maxEntries) throws GeneralSecurityException, IOException {
+        int visited = provider.migrateLegacyEntries(maxEntries);
+        if (visited == 0) {
+            // Entries read meanwhile are upgraded before the migration reports completion
+            provider.getRewriteQueue().flush();
+        }
+        return visited;
+    }
+}
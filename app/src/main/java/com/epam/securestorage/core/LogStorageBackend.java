@@ -0,0 +1,633 @@
+package com.epam.securestorage.core;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <h2>Append-only log backend</h2>
+ * <b>Description:</b>
+ * Keeps entries in a single append-only file. A write appends only the
+ * changed records, so its cost doesn't depend on the store size. Only
+ * keys and file offsets are held in memory, values are read from the
+ * file on demand. Layout:
+ * <pre>
+ * file:   | magic (4) | version (1) | record... |
+ * record: | crc32 (4) | type (1) | key length (4) | value length (4) | key | value |
+ * </pre>
+ * The records of an editor are followed by a COMMIT record. On open the
+ * log is replayed up to the last complete, checksum-valid commit and
+ * anything after it, e.g. a torn write, is cut off. Once most of the
+ * file is taken by overwritten records it is compacted in background.
+ * The file is opened on first access and created on the first write,
+ * so an unused log costs nothing at startup.
+ */
+public class LogStorageBackend implements StorageBackend {
+
+    private static final int MAGIC = 0x53534c47;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 5;
+    private static final int RECORD_HEADER_SIZE = 13;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte COMMIT = 4;
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    // One instance per file, two writers on the same log would corrupt it
+    private static final Map<String, LogStorageBackend> OPENED = new HashMap<>();
+
+    private final File file;
+    private final Executor compactionExecutor;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private Index index = new Index();
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long end;
+    private boolean compactionScheduled;
+    private volatile boolean opened;
+
+    /**
+     * <b>Description:</b> Opens the log of the given name in the
+     * no-backup directory. Values encrypted with keystore keys can't be
+     * restored on another device, so they are excluded from backups.
+     */
+    @NonNull
+    public static LogStorageBackend open(@NonNull Context context, @NonNull String name) throws IOException {
+        return open(new File(context.getNoBackupFilesDir(), name + ".log"));
+    }
+
+    @NonNull
+    public static LogStorageBackend open(@NonNull File file) throws IOException {
+        String path = file.getCanonicalPath();
+        synchronized (OPENED) {
+            LogStorageBackend backend = OPENED.get(path);
+            if (backend == null) {
+                final Object lane = new Object();
+                backend = new LogStorageBackend(new File(path), new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        CryptoExecutor.getInstance().execute(lane, command);
+                    }
+                });
+                OPENED.put(path, backend);
+            }
+            return backend;
+        }
+    }
+
+    LogStorageBackend(@NonNull File file, @NonNull Executor compactionExecutor) {
+        this.file = file;
+        this.compactionExecutor = compactionExecutor;
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        try {
+            if (!ensureOpen()) {
+                return defValue;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return defValue;
+        }
+        lock.readLock().lock();
+        try {
+            Location location = opened ? index.entries.get(key) : null;
+            if (location == null) {
+                return defValue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+            readFully(channel, buffer, location.valuePosition);
+            return new String(buffer.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return defValue;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        try {
+            if (!ensureOpen()) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return opened && index.entries.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Set<String> keys() {
+        try {
+            if (!ensureOpen()) {
+                return new HashSet<>();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new HashSet<>();
+        }
+        lock.readLock().lock();
+        try {
+            return opened ? new HashSet<>(index.entries.keySet()) : new HashSet<String>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Editor edit() {
+        return new LogEditor();
+    }
+
+    /**
+     * <b>Description:</b> Rewrites the log with live entries only. Writes
+     * are blocked only while the records appended during the
+     * compaction are copied over.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            Map<String, Location> snapshot;
+            long snapshotEnd;
+            lock.readLock().lock();
+            try {
+                // Nothing to compact in a log which was never opened or was destroyed meanwhile
+                if (!opened) {
+                    return;
+                }
+                snapshot = new HashMap<>(index.entries);
+                snapshotEnd = end;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            File target = compactionFile();
+            RandomAccessFile output = new RandomAccessFile(target, "rw");
+            try {
+                output.setLength(0);
+                FileChannel targetChannel = output.getChannel();
+                long position = writeFully(targetChannel, fileHeader(), 0);
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                for (Map.Entry<String, Location> entry : snapshot.entrySet()) {
+                    Location location = entry.getValue();
+                    ByteBuffer value = ByteBuffer.allocate(location.valueLength);
+                    readFully(channel, value, location.valuePosition);
+                    batch.write(encodeRecord(PUT, entry.getKey(), value.array()));
+                    if (batch.size() >= MIN_COMPACTION_SIZE) {
+                        position += writeFully(targetChannel, ByteBuffer.wrap(batch.toByteArray()), position);
+                        batch.reset();
+                    }
+                }
+                batch.write(encodeRecord(COMMIT, null, null));
+                position += writeFully(targetChannel, ByteBuffer.wrap(batch.toByteArray()), position);
+
+                lock.writeLock().lock();
+                try {
+                    // Catches up with the writes which happened after the snapshot
+                    long copyFrom = position;
+                    long copied = 0;
+                    while (copied < end - snapshotEnd) {
+                        copied += channel.transferTo(snapshotEnd + copied, end - snapshotEnd - copied, targetChannel.position(copyFrom + copied));
+                    }
+                    Index compacted = new Index();
+                    long committed = replay(targetChannel, FILE_HEADER_SIZE, compacted);
+                    targetChannel.force(false);
+                    output.close();
+                    if (!target.renameTo(file)) {
+                        throw new IOException("Can't replace " + file);
+                    }
+                    randomAccessFile.close();
+                    randomAccessFile = new RandomAccessFile(file, "rw");
+                    channel = randomAccessFile.getChannel();
+                    index = compacted;
+                    end = committed;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                output.close();
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * <b>Description:</b> Closes the log, the backend can't be used afterwards
+     */
+    public void close() throws IOException {
+        synchronized (OPENED) {
+            OPENED.remove(file.getCanonicalPath());
+        }
+        lock.writeLock().lock();
+        try {
+            if (opened) {
+                opened = false;
+                randomAccessFile.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Deletes the log file. Unlike a cleared editor it
+     * doesn't read or write any records, so the cost doesn't depend on
+     * the number of entries. The backend stays usable and starts with
+     * an empty log on the next write.
+     */
+    public void destroy() throws IOException {
+        synchronized (compactionLock) {
+            lock.writeLock().lock();
+            try {
+                if (opened) {
+                    opened = false;
+                    randomAccessFile.close();
+                }
+                index = new Index();
+                end = 0;
+                compactionFile().delete();
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Can't delete " + file);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return Size of the log file including overwritten records
+     */
+    public long getFileSize() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Opens an existing log for reading
+     *
+     * @return false if there is no log file yet
+     */
+    private boolean ensureOpen() throws IOException {
+        if (!opened) {
+            if (!file.exists()) {
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                openLocked();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    //Must be called under the write lock
+    private void openLocked() throws IOException {
+        if (opened) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        // A compaction which didn't finish leaves its output behind, the log itself is intact
+        compactionFile().delete();
+        index = new Index();
+        openLog();
+        opened = true;
+    }
+
+    private void openLog() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        if (channel.size() < FILE_HEADER_SIZE) {
+            channel.truncate(0);
+            end = writeFully(channel, fileHeader(), 0);
+            channel.force(false);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            randomAccessFile.close();
+            throw new IOException("Unknown log format " + file);
+        }
+        end = replay(channel, FILE_HEADER_SIZE, index);
+        if (end < channel.size()) {
+            channel.truncate(end);
+            channel.force(false);
+        }
+    }
+
+    private boolean write(boolean clear, Map<String, String> changes, boolean sync) {
+        boolean scheduleCompaction = false;
+        lock.writeLock().lock();
+        try {
+            openLocked();
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            List<String> keys = new ArrayList<>();
+            List<Location> locations = new ArrayList<>();
+            if (clear) {
+                batch.write(encodeRecord(CLEAR, null, null));
+            }
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                byte[] key = change.getKey().getBytes(StandardCharsets.UTF_8);
+                if (change.getValue() == null) {
+                    batch.write(encodeRecord(REMOVE, change.getKey(), null));
+                    locations.add(null);
+                } else {
+                    byte[] value = change.getValue().getBytes(StandardCharsets.UTF_8);
+                    byte[] record = encodeRecord(PUT, change.getKey(), value);
+                    locations.add(new Location(end + batch.size() + RECORD_HEADER_SIZE + key.length, value.length, record.length));
+                    batch.write(record);
+                }
+                keys.add(change.getKey());
+            }
+            batch.write(encodeRecord(COMMIT, null, null));
+
+            // A failed write leaves no COMMIT behind, the next batch overwrites it
+            long written = writeFully(channel, ByteBuffer.wrap(batch.toByteArray()), end);
+            if (sync) {
+                channel.force(false);
+            }
+            end += written;
+
+            if (clear) {
+                index.clear();
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                index.put(keys.get(i), locations.get(i));
+            }
+            if (!compactionScheduled && end > MIN_COMPACTION_SIZE && end - FILE_HEADER_SIZE > 2 * index.liveBytes) {
+                compactionScheduled = scheduleCompaction = true;
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Cuts off the failed batch, leftovers of it must not follow a later commit
+            try {
+                if (opened) {
+                    channel.truncate(end);
+                }
+            } catch (IOException ignored) {
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+            if (scheduleCompaction) {
+                compactionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            compact();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            lock.writeLock().lock();
+                            compactionScheduled = false;
+                            lock.writeLock().unlock();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Applies complete batches starting at the position
+     *
+     * @return End of the last complete batch
+     */
+    private static long replay(FileChannel source, long from, Index target) throws IOException {
+        long size = source.size();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(source.position(from))));
+        List<String> pendingKeys = new ArrayList<>();
+        List<Location> pendingLocations = new ArrayList<>();
+        boolean pendingClear = false;
+        CRC32 crc = new CRC32();
+        long position = from;
+        long committed = from;
+        try {
+            while (true) {
+                int checksum = in.readInt();
+                byte type = in.readByte();
+                int keyLength = in.readInt();
+                int valueLength = in.readInt();
+                if (keyLength < 0 || valueLength < 0 || (long) keyLength + valueLength > size - position - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                crc.reset();
+                crc.update(type);
+                crc.update(ByteBuffer.allocate(8).putInt(keyLength).putInt(valueLength).array());
+                crc.update(key);
+                byte[] value = new byte[Math.min(valueLength, 8192)];
+                for (int left = valueLength; left > 0; ) {
+                    int count = Math.min(left, value.length);
+                    in.readFully(value, 0, count);
+                    crc.update(value, 0, count);
+                    left -= count;
+                }
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                long valuePosition = position + RECORD_HEADER_SIZE + keyLength;
+                position = valuePosition + valueLength;
+                if (type == PUT || type == REMOVE) {
+                    pendingKeys.add(new String(key, StandardCharsets.UTF_8));
+                    pendingLocations.add(type == PUT ? new Location(valuePosition, valueLength, RECORD_HEADER_SIZE + keyLength + valueLength) : null);
+                } else if (type == CLEAR) {
+                    pendingClear = true;
+                    pendingKeys.clear();
+                    pendingLocations.clear();
+                } else if (type == COMMIT) {
+                    if (pendingClear) {
+                        target.clear();
+                    }
+                    for (int i = 0; i < pendingKeys.size(); i++) {
+                        target.put(pendingKeys.get(i), pendingLocations.get(i));
+                    }
+                    pendingKeys.clear();
+                    pendingLocations.clear();
+                    pendingClear = false;
+                    committed = position;
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // Torn tail, everything after the last commit is dropped
+        }
+        return committed;
+    }
+
+    private static byte[] encodeRecord(byte type, @Nullable String key, @Nullable byte[] value) {
+        byte[] keyBytes = key != null ? key.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int valueLength = value != null ? value.length : 0;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length + valueLength);
+        record.putInt(0)
+                .put(type)
+                .putInt(keyBytes.length)
+                .putInt(valueLength)
+                .put(keyBytes);
+        if (value != null) {
+            record.put(value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static ByteBuffer fileHeader() {
+        return (ByteBuffer) ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).put((byte) VERSION).flip();
+    }
+
+    private static long writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += target.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = source.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private File compactionFile() {
+        return new File(file.getPath() + ".compact");
+    }
+
+    private static final class Location {
+        final long valuePosition;
+        final int valueLength;
+        final int recordSize;
+
+        Location(long valuePosition, int valueLength, int recordSize) {
+            this.valuePosition = valuePosition;
+            this.valueLength = valueLength;
+            this.recordSize = recordSize;
+        }
+    }
+
+    // Tracks the size of live records to decide when compaction pays off
+    private static final class Index {
+        final Map<String, Location> entries = new HashMap<>();
+        long liveBytes;
+
+        void put(String key, @Nullable Location location) {
+            Location previous = location != null ? entries.put(key, location) : entries.remove(key);
+            if (previous != null) {
+                liveBytes -= previous.recordSize;
+            }
+            if (location != null) {
+                liveBytes += location.recordSize;
+            }
+        }
+
+        void clear() {
+            entries.clear();
+            liveBytes = 0;
+        }
+    }
+
+    private class LogEditor implements Editor {
+
+        private final Map<String, String> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @NonNull
+        @Override
+        public Editor putString(@NonNull String key, @NonNull String value) {
+            synchronized (this) {
+                changes.put(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor remove(@NonNull String key) {
+            synchronized (this) {
+                changes.put(key, null);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                clear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (this) {
+                return write(clear, changes, true);
+            }
+        }
+
+        /**
+         * Appends without fsync, the record reaches the disk with the
+         * next commit or when the system flushes the page cache
+         */
+        @Override
+        public void apply() {
+            synchronized (this) {
+                write(clear, changes, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.epam.securestorage.core;
+
+/**
+ * <h2>Operation metrics listener</h2>
+ * <b>Description:</b>
+ * Receives a trace of every provider operation once it's finished,
+ * see {@link HistogramMetricsRecorder} for a ready-made one. It's
+ * called on the thread which ran the operation, so it must be fast
+ * and must not keep the trace.
+ */
+public interface MetricsListener {
+
+    void onOperation(OperationTrace trace);
+}
@@ -0,0 +1,30 @@
+package com.epam.securestorage.core;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * <h2>Legacy layout migration capable provider</h2>
+ * <b>Description:</b>
+ * A provider which still reads entries in the layouts of older library
+ * versions. Such entries are queued for a rewrite in the current layout
+ * whenever they are read, {@link LegacyMigration} upgrades the rest
+ * of them in background.
+ */
+public interface MigratingProvider {
+
+    /**
+     * <b>Description:</b> Upgrades the legacy entries among the next
+     * ones, continuing where the previous call stopped
+     *
+     * @param maxEntries number of entries to visit at most
+     * @return Number of entries visited, 0 once every entry was visited,
+     * the next call starts over
+     */
+    int migrateLegacyEntries(int maxEntries) throws GeneralSecurityException, IOException;
+
+    /**
+     * @return Queue of the legacy entries which were read and wait for a rewrite
+     */
+    RewriteQueue getRewriteQueue();
+}
@@ -0,0 +1,127 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.epam.securestorage.core.SecureStorageCallback.ActionType;
+import com.epam.securestorage.core.SecurityProvider.Type;
+
+/**
+ * <h2>Operation trace</h2>
+ * <b>Description:</b>
+ * Splits the time of one provider operation into phases. A provider
+ * calls {@link #mark(Phase)} at the end of every phase, the time since
+ * the previous mark is added to that phase. Without a listener a
+ * shared no-op trace is returned, it neither allocates nor reads
+ * the clock.
+ */
+public final class OperationTrace {
+
+    public enum Phase {
+        /** Keystore lookup, data key unwrap or subkey derivation */
+        KEY,
+        /** Cipher initialization with the key and IV */
+        CIPHER_INIT,
+        /** Encryption or decryption of the payload */
+        CIPHER,
+        /** Compression or decompression of the plaintext */
+        COMPRESSION,
+        /** Base64 and envelope encoding or parsing */
+        ENCODING,
+        /** Reads and writes of the storage backend */
+        STORAGE
+    }
+
+    private static final OperationTrace NONE = new OperationTrace(null, null, null);
+    private static final Phase[] PHASES = Phase.values();
+
+    private final MetricsListener listener;
+    private final Type type;
+    private final ActionType actionType;
+    private final long[] phaseNanos;
+    private final long started;
+    private long mark;
+    private long totalNanos;
+    private long payloadBytes;
+    private boolean successful;
+
+    private OperationTrace(@Nullable MetricsListener listener, Type type, ActionType actionType) {
+        this.listener = listener;
+        this.type = type;
+        this.actionType = actionType;
+        this.phaseNanos = listener != null ? new long[PHASES.length] : null;
+        this.started = listener != null ? System.nanoTime() : 0;
+        this.mark = started;
+    }
+
+    @NonNull
+    public static OperationTrace start(@Nullable MetricsListener listener, @NonNull Type type, @NonNull ActionType actionType) {
+        return listener != null ? new OperationTrace(listener, type, actionType) : NONE;
+    }
+
+    /**
+     * <b>Description:</b> Ends the phase, the time since the previous
+     * mark or the start is attributed to it
+     */
+    public void mark(@NonNull Phase phase) {
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - mark;
+        mark = now;
+    }
+
+    /**
+     * <b>Description:</b> Adds the plaintext size of a processed value
+     */
+    public void addPayload(int bytes) {
+        if (listener != null) {
+            payloadBytes += bytes;
+        }
+    }
+
+    /**
+     * <b>Description:</b> Ends the operation and reports it to the listener
+     */
+    public void finish(boolean successful) {
+        if (listener == null) {
+            return;
+        }
+        this.totalNanos = System.nanoTime() - started;
+        this.successful = successful;
+        try {
+            listener.onOperation(this);
+        } catch (RuntimeException e) {
+            // A failing listener must not fail the storage operation
+            e.printStackTrace();
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public ActionType getActionType() {
+        return actionType;
+    }
+
+    public long getPhaseNanos(@NonNull Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return Wall time of the whole operation, including the time between phases
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+}
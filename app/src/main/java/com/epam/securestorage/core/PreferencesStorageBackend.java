@@ -0,0 +1,126 @@
+package com.epam.securestorage.core;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <h2>SharedPreferences backend</h2>
+ * <b>Description:</b>
+ * Keeps entries in SharedPreferences. The whole map lives on the heap
+ * and every write rewrites the entire file, which suits small stores.
+ */
+public class PreferencesStorageBackend implements StorageBackend {
+
+    private final Context context;
+    private volatile SharedPreferences preferences;
+
+    public PreferencesStorageBackend(@NonNull SharedPreferences preferences) {
+        this.context = null;
+        this.preferences = preferences;
+    }
+
+    /**
+     * <b>Description:</b> Backend of the default preferences. They are
+     * resolved on first access, so construction doesn't touch the disk
+     */
+    public PreferencesStorageBackend(@NonNull Context context) {
+        this.context = context;
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        return preferences().getString(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return preferences().contains(key);
+    }
+
+    @NonNull
+    @Override
+    public Set<String> keys() {
+        return new HashSet<>(preferences().getAll().keySet());
+    }
+
+    @NonNull
+    @Override
+    public Editor edit() {
+        return new PreferencesEditor(preferences().edit());
+    }
+
+    /**
+     * Backends of the same preferences are equal, state kept in the
+     * preferences, e.g. {@link KeyVersions}, is shared between them
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PreferencesStorageBackend)) {
+            return false;
+        }
+        PreferencesStorageBackend other = (PreferencesStorageBackend) o;
+        return context != null ? other.context != null : other.context == null && preferences == other.preferences;
+    }
+
+    @Override
+    public int hashCode() {
+        return context != null ? 1 : System.identityHashCode(preferences);
+    }
+
+    private SharedPreferences preferences() {
+        SharedPreferences result = preferences;
+        if (result == null) {
+            // getDefaultSharedPreferences returns the same instance, a racing call is harmless
+            result = PreferenceManager.getDefaultSharedPreferences(context);
+            preferences = result;
+        }
+        return result;
+    }
+
+    private static class PreferencesEditor implements Editor {
+
+        private final SharedPreferences.Editor editor;
+
+        PreferencesEditor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @NonNull
+        @Override
+        public Editor putString(@NonNull String key, @NonNull String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor remove(@NonNull String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>Coalescing rewrite queue</h2>
+ * <b>Description:</b>
+ * Collects the keys of entries which were read in a legacy layout and
+ * hands them to the provider in batches once a short delay has passed,
+ * so a burst of reads after a library upgrade ends in a few background
+ * writes rather than in one write per read. Keys which fail to be
+ * rewritten are dropped, the next read queues them again.
+ */
+public final class RewriteQueue {
+
+    public static final long DEFAULT_DELAY_MILLIS = 500;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Rewrites entries in the current layout with a single write
+     */
+    public interface Rewriter {
+
+        /**
+         * @return Number of the entries which were rewritten
+         */
+        int rewrite(@NonNull List<String> keys) throws GeneralSecurityException, IOException;
+    }
+
+    private final Rewriter rewriter;
+    private final long delayMillis;
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final AtomicLong rewritten = new AtomicLong();
+    private boolean scheduled;
+
+    public RewriteQueue(@NonNull Rewriter rewriter) {
+        this(rewriter, DEFAULT_DELAY_MILLIS);
+    }
+
+    public RewriteQueue(@NonNull Rewriter rewriter, long delayMillis) {
+        this.rewriter = rewriter;
+        this.delayMillis = delayMillis;
+    }
+
+    public void enqueue(@NonNull String key) {
+        synchronized (pending) {
+            if (!pending.add(key) || scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        BackgroundPass.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <b>Description:</b> Rewrites the queued entries on the calling thread
+     */
+    public void flush() {
+        List<String> batch;
+        while (!(batch = nextBatch()).isEmpty()) {
+            try {
+                rewritten.addAndGet(rewriter.rewrite(batch));
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return Entries rewritten since the queue was created
+     */
+    public long getRewrittenCount() {
+        return rewritten.get();
+    }
+
+    private List<String> nextBatch() {
+        synchronized (pending) {
+            List<String> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH_SIZE));
+            Iterator<String> keys = pending.iterator();
+            while (keys.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                batch.add(keys.next());
+                keys.remove();
+            }
+            // Keys queued from now on schedule the next flush
+            if (batch.isEmpty()) {
+                scheduled = false;
+            }
+            return batch;
+        }
+    }
+}
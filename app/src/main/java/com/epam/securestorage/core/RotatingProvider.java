@@ -0,0 +1,36 @@
+package com.epam.securestorage.core;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * <h2>Key rotation capable provider</h2>
+ * <b>Description:</b>
+ * A provider whose entries carry the version of the key they are
+ * encrypted with, so they can be moved to a new key incrementally
+ * while both keys stay readable. Driven by {@link KeyRotation}.
+ */
+public interface RotatingProvider {
+
+    /**
+     * <b>Description:</b> Creates the next key version, values written
+     * from now on are encrypted with it. Entries under the previous
+     * versions stay readable until they are rotated.
+     */
+    void beginKeyRotation() throws GeneralSecurityException, IOException;
+
+    /**
+     * @return true if entries may still be encrypted with an older key version
+     */
+    boolean isKeyRotationPending();
+
+    /**
+     * <b>Description:</b> Re-encrypts the next entries under the current
+     * key and checkpoints the progress. Once every entry is done the old
+     * key versions are deleted.
+     *
+     * @param maxEntries number of entries to visit at most
+     * @return Number of entries visited, 0 once the rotation is complete
+     */
+    int rotateKeys(int maxEntries) throws GeneralSecurityException, IOException;
+}
@@ -0,0 +1,12 @@
+package com.epam.securestorage.core;
+
+/**
+ * <h2>Batch operation status Callback</h2>
+ * <b>Description:</b>
+ * Informs subscribers about the per-key status of
+ * saveAll/getAll/removeAll once per batch
+ */
+public interface SecureStorageBatchCallback extends SecureStorageCallback {
+
+    void onBatchComplete(ActionType actionType, BatchResult result);
+}
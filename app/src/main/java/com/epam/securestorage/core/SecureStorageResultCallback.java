@@ -0,0 +1,14 @@
+package com.epam.securestorage.core;
+
+/**
+ * <h2>Asynchronous operation result Callback</h2>
+ * <b>Description:</b>
+ * Delivers the outcome of an asynchronous SecureStorage
+ * operation on the executor chosen by the caller
+ */
+public interface SecureStorageResultCallback<T> {
+
+    void onSuccess(T result);
+
+    void onError(Exception e);
+}
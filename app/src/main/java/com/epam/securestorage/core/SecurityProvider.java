@@ -1,5 +1,12 @@
 package com.epam.securestorage.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedSet;
+
 /**
  * <h2>Main encryption manager class</h2>
  * <b>Description:</b>
@@ -23,4 +30,70 @@ public interface SecurityProvider {
 
     String get(String key);
 
+    void saveAll(Map<String, String> values);
+
+    Map<String, String> getAll(Collection<String> keys);
+
+    void removeAll(Collection<String> keys);
+
+    /**
+     * <b>Description:</b> Encrypts the values and writes them together
+     * with the removals in a single backend write. Nothing is written if
+     * any of the changes is invalid or fails to encrypt
+     *
+     * @param durable commit the write synchronously, otherwise it's applied
+     * @return true if all the changes were written
+     */
+    boolean commit(Map<String, byte[]> values, Collection<String> removals, boolean durable);
+
+    void saveBytes(String key, byte[] value);
+
+    byte[] getBytes(String key);
+
+    /**
+     * <b>Description:</b> Decrypts a value into the buffer, starting at
+     * its position. Providers whose cipher can't write into the buffer
+     * decrypt into an array, copy it and wipe it
+     *
+     * @return Length of the value or -1 if it isn't available
+     * @throws java.nio.BufferOverflowException if the value doesn't fit
+     */
+    int getBytes(String key, ByteBuffer out);
+
+    /**
+     * <b>Description:</b> Prepares keys and storage ahead of the first
+     * operation. Providers initialize lazily, so calling it is optional
+     */
+    void warmUp() throws GeneralSecurityException, IOException;
+
+    /**
+     * <b>Description:</b> Checks whether a value is stored for the key.
+     * Answered from an in-memory key index, values aren't decrypted
+     */
+    boolean contains(String key);
+
+    /**
+     * @return Sorted keys which start with the prefix, served from the key index
+     */
+    SortedSet<String> keys(String prefix);
+
+    /**
+     * @return Number of stored values, served from the key index
+     */
+    int size();
+
+    /**
+     * <b>Description:</b> Installs a listener which gets the phase
+     * timings of every operation, null removes it
+     */
+    void setMetricsListener(MetricsListener listener);
+
+    /**
+     * <b>Description:</b> Values of at least the given size are compressed
+     * before they are encrypted, see {@link Compression}
+     *
+     * @param minBytes threshold in bytes, {@link Compression#DISABLED} turns compression off
+     */
+    void setCompressionThreshold(int minBytes);
+
 }
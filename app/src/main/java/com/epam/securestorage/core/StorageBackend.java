@@ -0,0 +1,60 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * <h2>Storage backend</h2>
+ * <b>Description:</b>
+ * Persists encrypted entries of a SecurityProvider. The contract
+ * follows SharedPreferences, so providers work the same way on top of
+ * {@link PreferencesStorageBackend} and {@link LogStorageBackend}.
+ */
+public interface StorageBackend {
+
+    @Nullable
+    String getString(@NonNull String key, @Nullable String defValue);
+
+    boolean contains(@NonNull String key);
+
+    /**
+     * @return Snapshot of all stored keys, changing it doesn't affect the backend
+     */
+    @NonNull
+    Set<String> keys();
+
+    @NonNull
+    Editor edit();
+
+    /**
+     * Changes of an editor are applied all together or not at all.
+     * {@link #clear()} is applied before the other changes regardless
+     * of the call order.
+     */
+    interface Editor {
+
+        @NonNull
+        Editor putString(@NonNull String key, @NonNull String value);
+
+        @NonNull
+        Editor remove(@NonNull String key);
+
+        @NonNull
+        Editor clear();
+
+        /**
+         * Writes the changes synchronously and durably
+         *
+         * @return true if the changes were persisted
+         */
+        boolean commit();
+
+        /**
+         * Makes the changes visible immediately, persisting
+         * may complete later
+         */
+        void apply();
+    }
+}
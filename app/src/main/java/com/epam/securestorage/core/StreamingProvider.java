@@ -0,0 +1,22 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * <h2>Streaming capable provider</h2>
+ * <b>Description:</b>
+ * Implemented by SecurityProviders which can encrypt
+ * large payloads chunk by chunk
+ */
+public interface StreamingProvider {
+
+    /**
+     * @param key storage key the stream is bound to
+     * @return Chunk cipher for a single stream
+     */
+    @NonNull
+    ChunkCipher newChunkCipher(@NonNull String key) throws GeneralSecurityException, IOException;
+}
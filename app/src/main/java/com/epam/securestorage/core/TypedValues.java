@@ -0,0 +1,135 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <h2>Typed value encoding</h2>
+ * <b>Description:</b>
+ * Binary form of the typed values, stored and encrypted as a single
+ * entry like any other bytes. A value starts with a tag byte followed
+ * by a big-endian number of fixed width, or for a string set by the
+ * element count and the length-prefixed UTF-8 elements. Tags are bytes
+ * which never begin UTF-8 text, so a value saved as a String is always
+ * told from a typed one.
+ */
+public final class TypedValues {
+
+    public static final byte TAG_INT = (byte) 0xF8;
+    public static final byte TAG_LONG = (byte) 0xF9;
+    public static final byte TAG_DOUBLE = (byte) 0xFA;
+    public static final byte TAG_BOOLEAN = (byte) 0xFB;
+    public static final byte TAG_STRING_SET = (byte) 0xFC;
+
+    private TypedValues() {
+    }
+
+    @NonNull
+    public static byte[] encodeInt(int value) {
+        return ByteBuffer.allocate(5).put(TAG_INT).putInt(value).array();
+    }
+
+    @NonNull
+    public static byte[] encodeLong(long value) {
+        return ByteBuffer.allocate(9).put(TAG_LONG).putLong(value).array();
+    }
+
+    @NonNull
+    public static byte[] encodeDouble(double value) {
+        return ByteBuffer.allocate(9).put(TAG_DOUBLE).putDouble(value).array();
+    }
+
+    @NonNull
+    public static byte[] encodeBoolean(boolean value) {
+        return new byte[]{TAG_BOOLEAN, (byte) (value ? 1 : 0)};
+    }
+
+    /**
+     * @throws IllegalArgumentException if the set contains null
+     */
+    @NonNull
+    public static byte[] encodeStringSet(@NonNull Set<String> value) {
+        byte[][] elements = new byte[value.size()][];
+        int length = 5;
+        int i = 0;
+        for (String element : value) {
+            if (element == null) {
+                throw new IllegalArgumentException("Set can't contain NULL");
+            }
+            elements[i] = element.getBytes(StandardCharsets.UTF_8);
+            length += 4 + elements[i].length;
+            i++;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).put(TAG_STRING_SET).putInt(elements.length);
+        for (byte[] element : elements) {
+            buffer.putInt(element.length).put(element);
+        }
+        return buffer.array();
+    }
+
+    public static int decodeInt(@NonNull byte[] data) throws SecureStorageException {
+        return open(data, TAG_INT, 4).getInt();
+    }
+
+    public static long decodeLong(@NonNull byte[] data) throws SecureStorageException {
+        return open(data, TAG_LONG, 8).getLong();
+    }
+
+    public static double decodeDouble(@NonNull byte[] data) throws SecureStorageException {
+        return open(data, TAG_DOUBLE, 8).getDouble();
+    }
+
+    public static boolean decodeBoolean(@NonNull byte[] data) throws SecureStorageException {
+        return open(data, TAG_BOOLEAN, 1).get() != 0;
+    }
+
+    /**
+     * @return Unmodifiable set
+     */
+    @NonNull
+    public static Set<String> decodeStringSet(@NonNull byte[] data) throws SecureStorageException {
+        ByteBuffer buffer = open(data, TAG_STRING_SET, -1);
+        if (buffer.remaining() < 4) {
+            throw new SecureStorageException("Corrupted string set");
+        }
+        int count = buffer.getInt();
+        // Every element takes at least its length prefix, a larger count can't be genuine
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new SecureStorageException("Corrupted string set");
+        }
+        Set<String> value = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.remaining() < 4 ? -1 : buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new SecureStorageException("Corrupted string set");
+            }
+            value.add(new String(data, buffer.position(), length, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.hasRemaining()) {
+            throw new SecureStorageException("Corrupted string set");
+        }
+        return Collections.unmodifiableSet(value);
+    }
+
+    /**
+     * @param length exact payload length, -1 if it varies
+     * @return Buffer positioned after the tag
+     */
+    private static ByteBuffer open(byte[] data, byte tag, int length) throws SecureStorageException {
+        if (data.length == 0 || data[0] != tag) {
+            throw new SecureStorageException("Stored value is of another type");
+        }
+        if (length >= 0 && data.length != length + 1) {
+            throw new SecureStorageException("Corrupted typed value");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(1);
+        return buffer;
+    }
+}
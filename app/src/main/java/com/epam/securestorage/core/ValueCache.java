@@ -0,0 +1,213 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Decrypted values cache</h2>
+ * <b>Description:</b>
+ * Keeps recently decrypted values in memory up to a byte budget.
+ * Least recently used entries are evicted first, every entry
+ * expires after its TTL. Values are held as byte arrays which are
+ * zeroed as soon as an entry leaves the cache.
+ */
+public class ValueCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> ttlOverrides = new HashMap<>();
+    private final long defaultTtlNanos;
+    private final int maxBytes;
+    private int sizeBytes;
+    // Incremented on every invalidation, see put()
+    private long stamp;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxBytes         upper bound for the total size of cached values
+     * @param defaultTtlMillis time an entry stays valid unless overridden per key
+     */
+    public ValueCache(int maxBytes, long defaultTtlMillis) {
+        if (maxBytes <= 0 || defaultTtlMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.defaultTtlNanos = TimeUnit.MILLISECONDS.toNanos(defaultTtlMillis);
+    }
+
+    /**
+     * <b>Description:</b> Returns a cached value
+     *
+     * @return Cached value or null when it is absent or expired
+     */
+    @Nullable
+    public synchronized String get(@NonNull String key) {
+        Entry entry = lookup(key);
+        return entry == null ? null : new String(entry.value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <b>Description:</b> Returns a copy of a cached value
+     *
+     * @return Cached value or null when it is absent or expired
+     */
+    @Nullable
+    public synchronized byte[] getBytes(@NonNull String key) {
+        Entry entry = lookup(key);
+        return entry == null ? null : entry.value.clone();
+    }
+
+    /**
+     * <b>Description:</b> Copies a cached value into the buffer without allocating
+     *
+     * @return Length of the value or -1 when it is absent or expired
+     * @throws BufferOverflowException if the value doesn't fit
+     */
+    public synchronized int get(@NonNull String key, @NonNull ByteBuffer out) {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            return -1;
+        }
+        if (out.remaining() < entry.value.length) {
+            throw new BufferOverflowException();
+        }
+        out.put(entry.value);
+        return entry.value.length;
+    }
+
+    /**
+     * <b>Description:</b> Stamp to be taken before a value is loaded
+     * from storage and passed to {@link #put(String, byte[], long)}
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * <b>Description:</b> Caches a value. The cache takes ownership of the
+     * array and wipes it on eviction. The value is dropped if anything was
+     * invalidated after the stamp was taken, so a load racing with a write
+     * can't bring a stale value back.
+     *
+     * @param key   storage key
+     * @param value decrypted value
+     * @param stamp result of {@link #stamp()} taken before the value was loaded
+     */
+    public synchronized void put(@NonNull String key, @NonNull byte[] value, long stamp) {
+        if (stamp != this.stamp || value.length > maxBytes) {
+            Arrays.fill(value, (byte) 0);
+            return;
+        }
+        Long ttl = ttlOverrides.get(key);
+        long expiresAt = System.nanoTime() + (ttl != null ? ttl : defaultTtlNanos);
+        Entry previous = entries.put(key, new Entry(value, expiresAt));
+        sizeBytes += value.length;
+        if (previous != null) {
+            discard(previous);
+        }
+        trim(maxBytes);
+    }
+
+    /**
+     * <b>Description:</b> Overrides the TTL for a single key
+     */
+    public synchronized void setTtl(@NonNull String key, long ttlMillis) {
+        ttlOverrides.put(key, TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+    }
+
+    public synchronized void invalidate(@NonNull String key) {
+        stamp++;
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            discard(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        stamp++;
+        for (Entry entry : entries.values()) {
+            discard(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * <b>Description:</b> Evicts least recently used entries until
+     * the cache fits into the given size
+     */
+    public synchronized void trimToSize(int bytes) {
+        trim(bytes);
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+            entries.remove(key);
+            discard(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    private void trim(int bytes) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (sizeBytes > bytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            discard(entry);
+            evictionCount++;
+        }
+    }
+
+    private void discard(Entry entry) {
+        sizeBytes -= entry.value.length;
+        Arrays.fill(entry.value, (byte) 0);
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.epam.securestorage.core;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <h2>RSA wrapped AES data key</h2>
+ * <b>Description:</b>
+ * AES data key which is stored wrapped with the RSA key pair
+ * of a keystore alias. The key is unwrapped once and kept in
+ * memory for the process lifetime, so values are encrypted with
+ * a cheap symmetric cipher instead of a private key operation.
+ * The wrapped key is stored in the backend of the entries it
+ * protects, so a namespace keeps it in its own file. Instances
+ * are shared per backend and alias while the providers use them.
+ */
+public class WrappedDataKey {
+
+    private static final String KEY_PREFIX = "SecureStorageDataKey_";
+    private static final String WRAP_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String WRAP_PROVIDER = "AndroidOpenSSL";
+    private static final int KEY_SIZE = 256;
+
+    private static final Map<List<Object>, WeakReference<WrappedDataKey>> INSTANCES = new HashMap<>();
+
+    private final Context context;
+    private final StorageBackend storage;
+    private final String alias;
+    private volatile SecretKey dataKey;
+
+    private WrappedDataKey(Context context, StorageBackend storage, String alias) {
+        this.context = context;
+        this.storage = storage;
+        this.alias = alias;
+    }
+
+    /**
+     * <b>Description:</b> Returns the data key wrapped by the RSA pair of the alias
+     *
+     * @param storage backend the entries protected by the key are stored in
+     */
+    public static WrappedDataKey forAlias(@NonNull Context context, @NonNull StorageBackend storage, @NonNull String alias) {
+        // Providers over one backend share the key, as they share the entries
+        StorageBackend backend = storage instanceof IndexedStorageBackend ? ((IndexedStorageBackend) storage).getBackend() : storage;
+        List<Object> id = Arrays.<Object>asList(backend, alias);
+        synchronized (INSTANCES) {
+            WeakReference<WrappedDataKey> reference = INSTANCES.get(id);
+            WrappedDataKey instance = reference != null ? reference.get() : null;
+            if (instance == null) {
+                purge();
+                instance = new WrappedDataKey(context.getApplicationContext() != null ? context.getApplicationContext() : context, storage, alias);
+                INSTANCES.put(id, new WeakReference<>(instance));
+            }
+            return instance;
+        }
+    }
+
+    //Must be called under the INSTANCES lock
+    private static void purge() {
+        Iterator<WeakReference<WrappedDataKey>> iterator = INSTANCES.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <b>Description:</b> Returns the data key, generates and wraps a new one if there is none
+     */
+    @NonNull
+    public SecretKey get() throws GeneralSecurityException, IOException {
+        SecretKey key = find();
+        if (key == null) {
+            synchronized (this) {
+                key = find();
+                if (key == null) {
+                    key = generate();
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * <b>Description:</b> Returns the data key without generating it
+     *
+     * @return Unwrapped key or null if no key has been stored yet
+     */
+    @Nullable
+    public SecretKey find() throws GeneralSecurityException, IOException {
+        SecretKey key = dataKey;
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            if (dataKey != null) {
+                return dataKey;
+            }
+            String stored = storage.getString(KEY_PREFIX + alias, null);
+            KeyStore.PrivateKeyEntry privateKeyEntry = KeyStoreHelper.findPrivateKeyEntry(alias);
+            if (stored == null || privateKeyEntry == null) {
+                return null;
+            }
+            byte[] data = Base64.decode(stored, Base64.NO_WRAP);
+            Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_RSA_ECB);
+            if (envelope == null) {
+                throw new GeneralSecurityException("Unknown data key format");
+            }
+            CipherPool pool = CipherPool.of(WRAP_TRANSFORMATION, WRAP_PROVIDER);
+            Cipher cipher = pool.acquire();
+            byte[] raw = null;
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, privateKeyEntry.getPrivateKey());
+                raw = cipher.doFinal(data, envelope.getPayloadOffset(), envelope.getPayloadLength());
+                dataKey = new SecretKeySpec(raw, "AES");
+            } finally {
+                pool.release(cipher);
+                if (raw != null) {
+                    Arrays.fill(raw, (byte) 0);
+                }
+            }
+            return dataKey;
+        }
+    }
+
+    /**
+     * <b>Description:</b> Forgets the data key, values encrypted with it become undecryptable
+     */
+    public synchronized void destroy() {
+        dataKey = null;
+        storage.edit().remove(KEY_PREFIX + alias).commit();
+    }
+
+    private SecretKey generate() throws GeneralSecurityException, IOException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(KEY_SIZE);
+        SecretKey key = generator.generateKey();
+
+        KeyStore.PrivateKeyEntry privateKeyEntry = KeyStoreHelper.getPrivateKeyEntry(context, alias);
+        CipherPool pool = CipherPool.of(WRAP_TRANSFORMATION, WRAP_PROVIDER);
+        Cipher cipher = pool.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, privateKeyEntry.getCertificate().getPublicKey());
+            byte[] wrapped = cipher.doFinal(key.getEncoded());
+            String stored = Base64.encodeToString(Envelope.encode(Envelope.ALGORITHM_RSA_ECB, null, wrapped), Base64.NO_WRAP);
+            // The key must be durable before any value is encrypted with it
+            if (!storage.edit().putString(KEY_PREFIX + alias, stored).commit()) {
+                throw new IOException("Can't persist the data key");
+            }
+        } finally {
+            pool.release(cipher);
+        }
+        dataKey = key;
+        return key;
+    }
+}
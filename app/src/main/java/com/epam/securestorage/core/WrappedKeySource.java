@@ -0,0 +1,70 @@
+package com.epam.securestorage.core;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <h2>Wrapped key source</h2>
+ * <b>Description:</b>
+ * Software AES keys, each stored wrapped by the keystore RSA pair of
+ * its alias, see {@link WrappedDataKey}. The keystore is used only to
+ * unwrap a key once per process, the keys work with any block mode.
+ * An alias must not hold a keystore secret key, its pair would replace it.
+ */
+public class WrappedKeySource implements KeySource {
+
+    private final Context context;
+    private final StorageBackend storage;
+    // Keeps the unwrapped keys of the provider alive, they are shared only while in use
+    private final Map<String, WrappedDataKey> keys = new ConcurrentHashMap<>();
+
+    /**
+     * @param storage backend the wrapped keys are stored in, next to the entries
+     */
+    public WrappedKeySource(@NonNull Context context, @NonNull StorageBackend storage) {
+        this.context = context;
+        this.storage = storage;
+    }
+
+    @NonNull
+    @Override
+    public SecretKey getKey(@NonNull String alias, @NonNull String blockMode) throws GeneralSecurityException, IOException {
+        return dataKey(alias).get();
+    }
+
+    @Nullable
+    @Override
+    public SecretKey findKey(@NonNull String alias) throws GeneralSecurityException, IOException {
+        return dataKey(alias).find();
+    }
+
+    @Override
+    public void deleteKey(@NonNull String alias) throws GeneralSecurityException, IOException {
+        dataKey(alias).destroy();
+        keys.remove(alias);
+        KeyStoreHelper.deleteKey(alias);
+    }
+
+    // The unwrapped key is independent of the keystore handle and stays valid
+    @Override
+    public void invalidateKey(@NonNull String alias) {
+        KeyStoreHelper.invalidateKey(alias);
+    }
+
+    private WrappedDataKey dataKey(String alias) {
+        WrappedDataKey key = keys.get(alias);
+        if (key == null) {
+            key = WrappedDataKey.forAlias(context, storage, alias);
+            keys.put(alias, key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,278 @@
+package com.epam.securestorage.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Write-behind queue</h2>
+ * <b>Description:</b>
+ * Holds saved values in memory and writes them in a single batch once
+ * the window opened by the first of them has passed, so a key saved
+ * many times within the window costs one encryption and the whole
+ * batch one backend write. The pending values are served to reads
+ * until they are written. A queue holds at most the given number of
+ * keys, reaching it starts a flush right away, which bounds the work
+ * of an explicit {@link #flush(boolean)}. Values which weren't flushed
+ * are lost with the process. Pending values are wiped once written.
+ */
+public class WriteBehindQueue {
+
+    /**
+     * Writes the values in one atomic write
+     */
+    public interface Writer {
+
+        /**
+         * @param values  written values, they stay owned by the queue
+         * @param durable commit synchronously rather than apply
+         * @return true if all the values were written
+         */
+        boolean write(@NonNull Map<String, byte[]> values, boolean durable);
+    }
+
+    private final Writer writer;
+    private final long windowMillis;
+    private final int maxPendingKeys;
+    // Flushes and takes are serialized, a taken key is never written by a flush in progress
+    private final Object flushLock = new Object();
+    private Map<String, byte[]> pending = new LinkedHashMap<>();
+    private Map<String, byte[]> inFlight = Collections.emptyMap();
+    private boolean scheduled;
+
+    private long saveCount;
+    private long coalescedCount;
+    private long flushCount;
+    private long failedFlushCount;
+
+    private final Runnable scheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WriteBehindQueue.this) {
+                scheduled = false;
+            }
+            flush(false);
+        }
+    };
+
+    /**
+     * @param windowMillis   time the values are collected for before they are written
+     * @param maxPendingKeys number of pending keys which starts a flush without waiting
+     */
+    public WriteBehindQueue(@NonNull Writer writer, long windowMillis, int maxPendingKeys) {
+        if (windowMillis < 0 || maxPendingKeys <= 0) {
+            throw new IllegalArgumentException("Invalid window or queue size");
+        }
+        this.writer = writer;
+        this.windowMillis = windowMillis;
+        this.maxPendingKeys = maxPendingKeys;
+    }
+
+    /**
+     * @param value saved value, the queue takes it over and wipes it
+     */
+    public synchronized void put(@NonNull String key, @NonNull byte[] value) {
+        saveCount++;
+        byte[] previous = pending.put(key, value);
+        if (previous != null) {
+            coalescedCount++;
+            wipe(previous);
+        }
+        if (pending.size() >= maxPendingKeys) {
+            BackgroundPass.SCHEDULER.execute(scheduledFlush);
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * @return Copy of the value waiting to be written, null if there is none
+     */
+    @Nullable
+    public synchronized byte[] get(@NonNull String key) {
+        byte[] value = pending.get(key);
+        if (value == null) {
+            value = inFlight.get(key);
+        }
+        return value != null ? value.clone() : null;
+    }
+
+    public synchronized boolean contains(@NonNull String key) {
+        return pending.containsKey(key) || inFlight.containsKey(key);
+    }
+
+    /**
+     * @return Sorted keys of the values waiting to be written which start with the prefix
+     */
+    @NonNull
+    public synchronized SortedSet<String> keys(@NonNull String prefix) {
+        SortedSet<String> keys = new TreeSet<>();
+        for (String key : pending.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (String key : inFlight.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * <b>Description:</b> Takes the pending values of the keys out before
+     * the keys are written directly, so a flush can't overwrite the direct
+     * write. Waits for a flush in progress to finish
+     *
+     * @return Taken values, they have to be handed to {@link #settle(Map, Collection)}
+     */
+    @NonNull
+    public Map<String, byte[]> take(@NonNull Collection<String> keys) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                Map<String, byte[]> taken = new LinkedHashMap<>();
+                for (String key : keys) {
+                    byte[] value = pending.remove(key);
+                    if (value != null) {
+                        taken.put(key, value);
+                    }
+                }
+                return taken;
+            }
+        }
+    }
+
+    @NonNull
+    public Map<String, byte[]> takeAll() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                Map<String, byte[]> taken = pending;
+                pending = new LinkedHashMap<>();
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * <b>Description:</b> Settles the values taken before a direct write.
+     * Values of the written keys are wiped, the others are pending again
+     * unless a newer value was put meanwhile
+     *
+     * @param written keys the direct write succeeded for
+     */
+    public synchronized void settle(@NonNull Map<String, byte[]> taken, @NonNull Collection<String> written) {
+        boolean restored = false;
+        for (Map.Entry<String, byte[]> entry : taken.entrySet()) {
+            if (written.contains(entry.getKey()) || pending.containsKey(entry.getKey())) {
+                wipe(entry.getValue());
+            } else {
+                pending.put(entry.getKey(), entry.getValue());
+                restored = true;
+            }
+        }
+        if (restored) {
+            schedule();
+        }
+    }
+
+    /**
+     * <b>Description:</b> Writes the pending values on the calling thread,
+     * e.g. in onStop. Values which fail to be written stay pending
+     *
+     * @param durable commit synchronously rather than apply
+     * @return true if nothing is left pending
+     */
+    public boolean flush(boolean durable) {
+        synchronized (flushLock) {
+            Map<String, byte[]> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                inFlight = batch;
+            }
+            boolean written = false;
+            try {
+                written = writer.write(batch, durable);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                inFlight = Collections.emptyMap();
+                if (written) {
+                    flushCount++;
+                    wipe(batch.values());
+                    return pending.isEmpty();
+                }
+                failedFlushCount++;
+                // Values saved meanwhile are newer, they replace the failed ones
+                for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+                    wipe(batch.put(entry.getKey(), entry.getValue()));
+                }
+                pending = batch;
+                schedule();
+                return false;
+            }
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return Number of the values put into the queue
+     */
+    public synchronized long getSaveCount() {
+        return saveCount;
+    }
+
+    /**
+     * @return Number of the values replaced before they were written, each one saved an encryption
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return Number of the batch writes, the saves minus this is the number of writes saved
+     */
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    //Must be called under the queue lock
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            BackgroundPass.SCHEDULER.schedule(scheduledFlush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void wipe(@Nullable byte[] value) {
+        if (value != null) {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+
+    private static void wipe(Collection<byte[]> values) {
+        for (byte[] value : values) {
+            wipe(value);
+        }
+    }
+}
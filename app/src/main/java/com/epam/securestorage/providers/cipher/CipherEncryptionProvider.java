@@ -1,44 +1,65 @@
 package com.epam.securestorage.providers.cipher;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Build;
-import android.preference.PreferenceManager;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.Base64;
 
+import com.epam.securestorage.core.AesGcmChunkCipher;
+import com.epam.securestorage.core.AndroidKeyStoreKeySource;
+import com.epam.securestorage.core.BatchResult;
+import com.epam.securestorage.core.ChunkCipher;
+import com.epam.securestorage.core.CipherPool;
+import com.epam.securestorage.core.Compression;
+import com.epam.securestorage.core.Envelope;
+import com.epam.securestorage.core.IndexedStorageBackend;
+import com.epam.securestorage.core.KeySource;
 import com.epam.securestorage.core.KeyStoreHelper;
+import com.epam.securestorage.core.KeyVersions;
+import com.epam.securestorage.core.MetricsListener;
+import com.epam.securestorage.core.MigratingProvider;
+import com.epam.securestorage.core.OperationTrace;
+import com.epam.securestorage.core.PreferencesStorageBackend;
+import com.epam.securestorage.core.RewriteQueue;
+import com.epam.securestorage.core.RotatingProvider;
 import com.epam.securestorage.core.SecureStorageCallback;
 import com.epam.securestorage.core.SecureStorageException;
 import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.core.StreamingProvider;
+import com.epam.securestorage.core.WrappedKeySource;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.UnrecoverableEntryException;
-import java.security.cert.CertificateException;
-import java.util.ArrayList;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 
 import static com.epam.securestorage.core.KeyStoreHelper.KEY_ALIAS;
+import static com.epam.securestorage.core.OperationTrace.Phase.CIPHER;
+import static com.epam.securestorage.core.OperationTrace.Phase.CIPHER_INIT;
+import static com.epam.securestorage.core.OperationTrace.Phase.COMPRESSION;
+import static com.epam.securestorage.core.OperationTrace.Phase.ENCODING;
+import static com.epam.securestorage.core.OperationTrace.Phase.KEY;
+import static com.epam.securestorage.core.OperationTrace.Phase.STORAGE;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.ERASE;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.GET;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.REMOVE;
@@ -49,21 +70,77 @@ import static com.epam.securestorage.core.SecureStorageCallback.ActionType.SAVE;
  * <b>Description:</b>
  * Encryption provider which logic is based on a Cipher
  * Java Cipher implementation. Encapsulates two realizations
- * for M and PreM Android OS versions
+ * for M and PreM Android OS versions. Every value is stored as a
+ * single {@link Envelope} entry, entries in the older layouts are
+ * still readable and get upgraded when they are rewritten.
+ * Streams are sealed with AES-GCM, on M under a separate keystore key
+ * since the value key is restricted to CBC. Where the keys come from
+ * is chosen by {@link KeySource.Mode}. Value keys are versioned, every
+ * entry records the version it's encrypted with, so a rotation moves
+ * the entries to a new key in batches while both keys stay readable.
+ * Entries read in a legacy layout are rewritten in background.
+ * The provider may be called from several threads, every operation
+ * borrows its own Cipher from a {@link CipherPool}. Operations on one
+ * key are not ordered against each other, {@link com.epam.securestorage.SecureStorage}
+ * serializes them.
  */
-public class CipherEncryptionProvider implements SecurityProvider {
+public class CipherEncryptionProvider implements SecurityProvider, StreamingProvider, RotatingProvider, MigratingProvider {
 
+    //Rotation work doesn't show up in the operation metrics
+    private static final OperationTrace NO_TRACE = OperationTrace.start(null, Type.CIPHER, SAVE);
+
+    private final String keyAlias;
+    private final String streamKeyAlias;
+    //Shared by both realizations, presence checks don't depend on the OS version
+    private final IndexedStorageBackend storage;
     private SecurityProvider securityProvider;
     private SecureStorageCallback callback;
+    private volatile MetricsListener metrics;
+    private volatile int compressionThreshold = Compression.DISABLED;
+    private final RewriteQueue rewrites = new RewriteQueue(new RewriteQueue.Rewriter() {
+        @Override
+        public int rewrite(@NonNull List<String> keys) throws GeneralSecurityException, IOException {
+            return rewriteEntries((VersionedKeys) securityProvider, keys, null);
+        }
+    });
+    //Guarded by the key versions, like every rewrite
+    private String migrationCursor;
 
     public CipherEncryptionProvider(Context context, SecureStorageCallback callback) {
+        this(context, new PreferencesStorageBackend(context), callback);
+    }
+
+    public CipherEncryptionProvider(Context context, StorageBackend storage, SecureStorageCallback callback) {
+        this(context, storage, KEY_ALIAS, callback);
+    }
+
+    /**
+     * @param keyAlias keystore alias of the provider keys, providers
+     *                 with different aliases don't share keys
+     */
+    public CipherEncryptionProvider(Context context, StorageBackend storage, String keyAlias, SecureStorageCallback callback) {
+        this(context, storage, keyAlias, KeySource.Mode.KEYSTORE, callback);
+    }
+
+    /**
+     * @param keyMode where the keys live, data written in one mode
+     *                isn't readable in the other
+     */
+    public CipherEncryptionProvider(Context context, StorageBackend storage, String keyAlias,
+                                    KeySource.Mode keyMode, SecureStorageCallback callback) {
+        this.keyAlias = keyAlias;
+        this.streamKeyAlias = keyAlias + "_stream";
+        this.storage = new IndexedStorageBackend(storage, Type.CIPHER.toString());
         if (callback != null) {
             this.callback = callback;
         }
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-            securityProvider = new CipherM(context);
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.M) {
+            securityProvider = new CipherPreM(this.storage, new WrappedKeySource(context, this.storage), keyAlias);
+        } else if (keyMode == KeySource.Mode.WRAPPED) {
+            // The keystore alias holds a secret key in the other mode, the key pair must not replace it
+            securityProvider = new CipherPreM(this.storage, new WrappedKeySource(context, this.storage), keyAlias + "_wrapped");
         } else {
-            securityProvider = new CipherPreM(context);
+            securityProvider = new CipherM(this.storage, new AndroidKeyStoreKeySource());
         }
     }
 
@@ -80,6 +157,8 @@ public class CipherEncryptionProvider implements SecurityProvider {
     @Override
     public void erase() {
         securityProvider.erase();
+        // Namespace files are deleted past the index
+        storage.resetIndex();
     }
 
     @Override
@@ -87,6 +166,263 @@ public class CipherEncryptionProvider implements SecurityProvider {
         return securityProvider.get(key);
     }
 
+    @Override
+    public void saveAll(Map<String, String> values) {
+        securityProvider.saveAll(values);
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        return securityProvider.getAll(keys);
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys) {
+        securityProvider.removeAll(keys);
+    }
+
+    @Override
+    public void saveBytes(String key, byte[] value) {
+        securityProvider.saveBytes(key, value);
+    }
+
+    @Override
+    public boolean commit(Map<String, byte[]> values, Collection<String> removals, boolean durable) {
+        return securityProvider.commit(values, removals, durable);
+    }
+
+    @Override
+    public void warmUp() throws GeneralSecurityException, IOException {
+        securityProvider.warmUp();
+    }
+
+    @Override
+    public byte[] getBytes(String key) {
+        return securityProvider.getBytes(key);
+    }
+
+    @Override
+    public int getBytes(String key, ByteBuffer out) {
+        return securityProvider.getBytes(key, out);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return isValid(key) && storage.contains(generateKeyWithPrefix(key));
+    }
+
+    @Override
+    public SortedSet<String> keys(String prefix) {
+        return storage.entryKeys(prefix != null ? prefix : "");
+    }
+
+    @Override
+    public int size() {
+        return storage.entryCount();
+    }
+
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        metrics = listener;
+    }
+
+    @Override
+    public void setCompressionThreshold(int minBytes) {
+        compressionThreshold = minBytes;
+    }
+
+    @NonNull
+    @Override
+    public ChunkCipher newChunkCipher(@NonNull String key) throws GeneralSecurityException, IOException {
+        return ((StreamingProvider) securityProvider).newChunkCipher(key);
+    }
+
+    @Override
+    public void beginKeyRotation() throws GeneralSecurityException, IOException {
+        VersionedKeys keys = (VersionedKeys) securityProvider;
+        KeyVersions versions = keys.versions();
+        synchronized (versions) {
+            // The key must exist before any value is written under it
+            keys.createKey(versions.getCurrent() + 1);
+            versions.begin();
+        }
+    }
+
+    @Override
+    public boolean isKeyRotationPending() {
+        return ((VersionedKeys) securityProvider).versions().isRotationPending();
+    }
+
+    @Override
+    public int rotateKeys(int maxEntries) throws GeneralSecurityException, IOException {
+        VersionedKeys keys = (VersionedKeys) securityProvider;
+        KeyVersions versions = keys.versions();
+        // Batches and the start of a rotation are serialized, foreground writes only pin the current version
+        synchronized (versions) {
+            if (!versions.isRotationPending()) {
+                return 0;
+            }
+            List<String> batch = storage.indexedKeysAfter(versions.getCheckpoint(), maxEntries);
+            if (batch.isEmpty()) {
+                // Version 0 is the bare alias, entries of other stores using the alias may still need it
+                keys.deleteKeys(Math.max(versions.getOldest(), 1), versions.getCurrent());
+                versions.finish();
+                return 0;
+            }
+            rewriteEntries(keys, batch, batch.get(batch.size() - 1));
+            return batch.size();
+        }
+    }
+
+    @Override
+    public int migrateLegacyEntries(int maxEntries) throws GeneralSecurityException, IOException {
+        VersionedKeys keys = (VersionedKeys) securityProvider;
+        synchronized (keys.versions()) {
+            List<String> batch = storage.indexedKeysAfter(migrationCursor, maxEntries);
+            if (batch.isEmpty()) {
+                migrationCursor = null;
+                return 0;
+            }
+            // Entries in the current layout and under the current key are skipped by their header
+            rewriteEntries(keys, batch, null);
+            migrationCursor = batch.get(batch.size() - 1);
+            return batch.size();
+        }
+    }
+
+    @Override
+    public RewriteQueue getRewriteQueue() {
+        return rewrites;
+    }
+
+    /**
+     * Moves the entries to the current layout and key version, values
+     * written meanwhile by foreground operations are left as they are
+     *
+     * @param checkpoint rotation checkpoint written together with the entries, may be null
+     * @return Number of rewritten entries
+     */
+    private int rewriteEntries(VersionedKeys keys, List<String> prefKeys, @Nullable String checkpoint)
+            throws GeneralSecurityException, IOException {
+        KeyVersions versions = keys.versions();
+        synchronized (versions) {
+            int current = versions.getCurrent();
+            Map<String, String> expected = new HashMap<>();
+            Map<String, String> replacements = new HashMap<>();
+            StorageBackend.Editor editor = storage.edit();
+            for (String prefKey : prefKeys) {
+                String value = storage.getString(prefKey, null);
+                if (value == null) {
+                    continue;
+                }
+                try {
+                    String rewritten = keys.rotate(prefKey, value, current, editor);
+                    if (rewritten != null) {
+                        expected.put(prefKey, value);
+                        replacements.put(prefKey, rewritten);
+                    }
+                } catch (GeneralSecurityException e) {
+                    // A corrupted entry must not stall the batch, it's left as it is
+                    e.printStackTrace();
+                }
+            }
+            if (checkpoint != null) {
+                versions.checkpoint(editor, checkpoint);
+            }
+            return storage.replaceUnchanged(expected, replacements, editor);
+        }
+    }
+
+    private static boolean isValid(String key, String value) {
+        return key != null && value != null && !key.isEmpty() && !value.isEmpty();
+    }
+
+    private static boolean isValid(String key, byte[] value) {
+        return key != null && value != null && !key.isEmpty() && value.length > 0;
+    }
+
+    //The temporary plaintext is wiped once it's copied to the caller's buffer
+    private static int copyAndWipe(byte[] value, ByteBuffer out) {
+        try {
+            if (out.remaining() < value.length) {
+                throw new BufferOverflowException();
+            }
+            out.put(value);
+            return value.length;
+        } finally {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+
+    /**
+     * @return Compressed value to encrypt instead or null if it's not worth it
+     */
+    @Nullable
+    private byte[] compress(byte[] value, OperationTrace trace) {
+        int threshold = compressionThreshold;
+        if (threshold < 0 || value.length < threshold) {
+            return null;
+        }
+        byte[] compressed = Compression.deflate(value, threshold);
+        // A value which didn't shrink has cost the time as well
+        trace.mark(COMPRESSION);
+        return compressed;
+    }
+
+    private static byte[] decompress(byte[] decrypted, OperationTrace trace) throws IOException {
+        try {
+            byte[] value = Compression.inflate(decrypted, 0, decrypted.length);
+            trace.mark(COMPRESSION);
+            return value;
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+
+    /**
+     * @throws IOException if the backend reports the commit as failed
+     */
+    private static void writeEditor(StorageBackend.Editor editor, boolean durable) throws IOException {
+        if (durable) {
+            if (!editor.commit()) {
+                throw new IOException("Changes were not persisted");
+            }
+        } else {
+            editor.apply();
+        }
+    }
+
+    @Nullable
+    private static String toString(@Nullable byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        String result = new String(value, StandardCharsets.UTF_8);
+        Arrays.fill(value, (byte) 0);
+        return result;
+    }
+
+    private static boolean isValid(String key) {
+        return key != null && !key.isEmpty();
+    }
+
+    //The backend may be shared with the app, only entries of the provider are removed
+    private static void removeEntries(StorageBackend storage, String... prefixes) {
+        StorageBackend.Editor editor = null;
+        for (String key : storage.keys()) {
+            for (String prefix : prefixes) {
+                if (key.startsWith(prefix)) {
+                    editor = editor != null ? editor : storage.edit();
+                    editor.remove(key);
+                    break;
+                }
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
     //Uniq key need to be provided to avoid Key collision in case if two providers
     //are used at the same app
     private String generateKeyWithPrefix(String key) {
@@ -94,63 +430,273 @@ public class CipherEncryptionProvider implements SecurityProvider {
         return Type.CIPHER.toString() + key;
     }
 
-    class CipherPreM implements SecurityProvider {
-        private KeyStore keyStore;
+    /**
+     * Versioned value keys of a realization, see {@link #rotateKeys(int)}
+     */
+    private interface VersionedKeys {
+
+        KeyVersions versions();
+
+        void createKey(int version) throws GeneralSecurityException, IOException;
+
+        /**
+         * @return Entry value in the current layout encrypted under the version, null if it's
+         * up to date already or the key it needs doesn't exist any more
+         */
+        @Nullable
+        String rotate(String prefKey, String value, int version, StorageBackend.Editor editor)
+                throws GeneralSecurityException, IOException;
+
+        /**
+         * Deletes the keys of the versions in the range, the upper bound is exclusive
+         */
+        void deleteKeys(int from, int to) throws GeneralSecurityException, IOException;
+    }
+
+    /**
+     * Pre-M keystore has no symmetric keys, so values are encrypted with an AES
+     * data key which is stored wrapped by the keystore RSA pair and unwrapped once.
+     * On M it serves the wrapped key mode.
+     */
+    class CipherPreM implements SecurityProvider, StreamingProvider, VersionedKeys {
         private static final String CIPHER_TYPE = "RSA/ECB/PKCS1Padding";
         private static final String CIPHER_PROVIDER = "AndroidOpenSSL";
+        private static final String DATA_CIPHER_TYPE = "AES/GCM/NoPadding";
+        private static final int GCM_IV_LENGTH = 12;
+        private static final int GCM_TAG_LENGTH = 128;
+
+        private final CipherPool cipherPool = CipherPool.of(CIPHER_TYPE, CIPHER_PROVIDER);
+        private final CipherPool dataCipherPool = CipherPool.of(DATA_CIPHER_TYPE, null);
+        private final SecureRandom random = new SecureRandom();
+        private final KeySource keySource;
+        private final String dataKeyAlias;
+        private final KeyVersions versions;
+        private IndexedStorageBackend storage;
+
+        CipherPreM(IndexedStorageBackend storage, KeySource keySource, String dataKeyAlias) {
+            this.storage = storage;
+            this.keySource = keySource;
+            this.dataKeyAlias = dataKeyAlias;
+            this.versions = KeyVersions.forAlias(storage, dataKeyAlias);
+        }
+
+        @Override
+        public KeyVersions versions() {
+            return versions;
+        }
 
-        private SharedPreferences preferences;
+        @Override
+        public void createKey(int version) throws GeneralSecurityException, IOException {
+            dataKey(version);
+        }
 
-        CipherPreM(Context context) {
-            preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        @Nullable
+        @Override
+        public String rotate(String prefKey, String value, int version, StorageBackend.Editor editor)
+                throws GeneralSecurityException, IOException {
+            Envelope envelope = Envelope.parse(Base64.decode(value, Base64.DEFAULT), Envelope.ALGORITHM_AES_GCM);
+            if (envelope != null && envelope.getKeyVersion() == version) {
+                return null;
+            }
+            // Legacy RSA entries are moved to the data key on the way
+            byte[] bytes = decrypt(null, value, NO_TRACE);
+            if (bytes == null) {
+                return null;
+            }
             try {
-                keyStore = KeyStoreHelper.getKeyStorePreM(context);
-            } catch (InvalidAlgorithmParameterException | KeyStoreException | IOException | NoSuchAlgorithmException | CertificateException | NoSuchProviderException e) {
-                e.printStackTrace();
+                return encrypt(dataKey(version), version, bytes, NO_TRACE);
+            } finally {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        }
+
+        //Version 0 also seals the streams, so it's kept until the storage is erased
+        @Override
+        public void deleteKeys(int from, int to) throws GeneralSecurityException, IOException {
+            for (int version = Math.max(from, 1); version < to; version++) {
+                keySource.deleteKey(versions.aliasOf(version));
             }
         }
 
+        @Override
+        public boolean contains(String key) {
+            return CipherEncryptionProvider.this.contains(key);
+        }
+
+        @Override
+        public SortedSet<String> keys(String prefix) {
+            return CipherEncryptionProvider.this.keys(prefix);
+        }
+
+        @Override
+        public int size() {
+            return CipherEncryptionProvider.this.size();
+        }
+
+        @Override
+        public void setMetricsListener(MetricsListener listener) {
+            CipherEncryptionProvider.this.setMetricsListener(listener);
+        }
+
+        @Override
+        public void setCompressionThreshold(int minBytes) {
+            CipherEncryptionProvider.this.setCompressionThreshold(minBytes);
+        }
+
+        //Generating the RSA pair and the data key is the slow part, save() does it on demand otherwise
+        @Override
+        public void warmUp() throws GeneralSecurityException, IOException {
+            dataKey(versions.getCurrent());
+            dataCipherPool.release(dataCipherPool.acquire());
+            storage.loadIndex();
+        }
+
         @Override
         public void save(@NonNull String key, @NonNull String value) {
-            if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
+            saveBytes(key, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        @Override
+        public void saveBytes(@NonNull String key, @NonNull byte[] value) {
+            if (!isValid(key, value)) {
                 if (callback != null) {
                     callback.onError(SAVE, new SecureStorageException("Key or Value can't be NULL or empty"));
                 }
                 return;
             }
 
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
             try {
                 key = generateKeyWithPrefix(key);
+                int version = versions.lockCurrent();
+                try {
+                    SecretKey secretKey = dataKey(version);
+                    trace.mark(KEY);
+                    putPref(key, encrypt(secretKey, version, value, trace));
+                    trace.mark(STORAGE);
+                } finally {
+                    versions.unlockCurrent();
+                }
+                trace.addPayload(value.length);
+                trace.finish(true);
 
-                KeyStore.PrivateKeyEntry privateKeyEntry = (KeyStore.PrivateKeyEntry) keyStore.getEntry(KEY_ALIAS, null);
-                // Encrypt the text
-                Cipher inputCipher = Cipher.getInstance(CIPHER_TYPE, CIPHER_PROVIDER);
-                inputCipher.init(Cipher.ENCRYPT_MODE, privateKeyEntry.getCertificate().getPublicKey());
+                if (callback != null) {
+                    callback.onComplete(SAVE);
+                }
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
+                e.printStackTrace();
 
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, inputCipher);
-                cipherOutputStream.write(value.getBytes(StandardCharsets.UTF_8));
-                cipherOutputStream.close();
+                if (callback != null) {
+                    callback.onError(SAVE, e);
+                }
+            }
+        }
 
-                byte[] cryptoText = outputStream.toByteArray();
-                String encryptedString = (Base64.encodeToString(cryptoText, Base64.DEFAULT));
-                putPref(key, encryptedString);
-                outputStream.close();
+        @Override
+        public void saveAll(@NonNull Map<String, String> values) {
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
+            int version = versions.lockCurrent();
+            try {
+                SecretKey secretKey = dataKey(version);
+                trace.mark(KEY);
+                StorageBackend.Editor editor = storage.edit();
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (!isValid(entry.getKey(), entry.getValue())) {
+                        result.addFailure(entry.getKey(), new SecureStorageException("Key or Value can't be NULL or empty"));
+                        continue;
+                    }
+                    try {
+                        byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                        editor.putString(generateKeyWithPrefix(entry.getKey()), encrypt(secretKey, version, value, trace));
+                        trace.addPayload(value.length);
+                        result.addSuccess(entry.getKey());
+                    } catch (GeneralSecurityException e) {
+                        result.addFailure(entry.getKey(), e);
+                    }
+                }
+                editor.apply();
+                trace.mark(STORAGE);
+            } catch (GeneralSecurityException | IOException e) {
+                e.printStackTrace();
+                for (String key : values.keySet()) {
+                    result.addFailure(key, e);
+                }
+            } finally {
+                versions.unlockCurrent();
+            }
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, SAVE);
+        }
 
+        @Override
+        public boolean commit(@NonNull Map<String, byte[]> values, @NonNull Collection<String> removals, boolean durable) {
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
+            try {
+                StorageBackend.Editor editor = storage.edit();
+                for (String key : removals) {
+                    if (!isValid(key)) {
+                        throw new SecureStorageException("Key can't be NULL or empty");
+                    }
+                    editor.remove(generateKeyWithPrefix(key));
+                }
+                int version = versions.lockCurrent();
+                try {
+                    SecretKey secretKey = values.isEmpty() ? null : dataKey(version);
+                    trace.mark(KEY);
+                    for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                        if (!isValid(entry.getKey(), entry.getValue())) {
+                            throw new SecureStorageException("Key or Value can't be NULL or empty");
+                        }
+                        editor.putString(generateKeyWithPrefix(entry.getKey()), encrypt(secretKey, version, entry.getValue(), trace));
+                        trace.addPayload(entry.getValue().length);
+                    }
+                    writeEditor(editor, durable);
+                    trace.mark(STORAGE);
+                } finally {
+                    versions.unlockCurrent();
+                }
+                trace.finish(true);
                 if (callback != null) {
                     callback.onComplete(SAVE);
                 }
-            } catch (NoSuchAlgorithmException | KeyStoreException | InvalidKeyException | IOException | NoSuchPaddingException | UnrecoverableEntryException | NoSuchProviderException e) {
+                return true;
+            } catch (GeneralSecurityException | IOException | SecureStorageException e) {
+                trace.finish(false);
                 e.printStackTrace();
-
                 if (callback != null) {
                     callback.onError(SAVE, e);
                 }
+                return false;
             }
         }
 
+        private String encrypt(SecretKey secretKey, int version, byte[] value, OperationTrace trace) throws GeneralSecurityException {
+            byte[] compressed = compress(value, trace);
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            random.nextBytes(iv);
+            byte[] cryptoText;
+            Cipher cipher = dataCipherPool.acquire();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                trace.mark(CIPHER_INIT);
+                cryptoText = cipher.doFinal(compressed != null ? compressed : value);
+                trace.mark(CIPHER);
+            } finally {
+                dataCipherPool.release(cipher);
+                if (compressed != null) {
+                    Arrays.fill(compressed, (byte) 0);
+                }
+            }
+            int flags = compressed != null ? Envelope.FLAG_COMPRESSED : 0;
+            String encoded = Base64.encodeToString(Envelope.encode(Envelope.ALGORITHM_AES_GCM, flags, version, iv, cryptoText), Base64.NO_WRAP);
+            trace.mark(ENCODING);
+            return encoded;
+        }
+
         private void putPref(String key, String value) {
-            preferences.edit().putString(key, value).apply();
+            storage.edit().putString(key, value).apply();
         }
 
         @Override
@@ -163,20 +709,52 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
 
             key = generateKeyWithPrefix(key);
-            preferences.edit().remove(key).apply();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, REMOVE);
+            storage.edit().remove(key).apply();
+            trace.mark(STORAGE);
+            trace.finish(true);
             if (callback != null) {
                 callback.onComplete(REMOVE);
             }
         }
 
+        @Override
+        public void removeAll(@NonNull Collection<String> keys) {
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, REMOVE);
+            StorageBackend.Editor editor = storage.edit();
+            for (String key : keys) {
+                if (!isValid(key)) {
+                    result.addFailure(key, new SecureStorageException("Key can't be NULL or empty"));
+                    continue;
+                }
+                editor.remove(generateKeyWithPrefix(key));
+                result.addSuccess(key);
+            }
+            editor.apply();
+            trace.mark(STORAGE);
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, REMOVE);
+        }
+
         @Override
         public void erase() {
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, ERASE);
+            removeEntries(storage, Type.CIPHER.toString());
+            trace.mark(STORAGE);
             try {
-                keyStore.deleteEntry(KEY_ALIAS);
+                synchronized (versions) {
+                    keySource.deleteKey(dataKeyAlias);
+                    deleteKeys(versions.getOldest(), versions.getCurrent() + 1);
+                    versions.reset();
+                }
+                trace.mark(KEY);
+                trace.finish(true);
                 if (callback != null) {
                     callback.onComplete(ERASE);
                 }
-            } catch (KeyStoreException e) {
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
                 if (callback != null) {
                     callback.onError(ERASE, e);
@@ -184,13 +762,33 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
         }
 
+        @NonNull
+        @Override
+        public ChunkCipher newChunkCipher(@NonNull String key) throws GeneralSecurityException, IOException {
+            return new AesGcmChunkCipher(dataKey());
+        }
+
+        private SecretKey dataKey() throws GeneralSecurityException, IOException {
+            return dataKey(0);
+        }
+
+        private SecretKey dataKey(int version) throws GeneralSecurityException, IOException {
+            return keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_GCM);
+        }
+
         private String getPref(String key) {
-            return preferences.getString(key, "");
+            return storage.getString(key, "");
         }
 
         @Nullable
         @Override
         public String get(@NonNull String key) {
+            return CipherEncryptionProvider.toString(getBytes(key));
+        }
+
+        @Nullable
+        @Override
+        public byte[] getBytes(@NonNull String key) {
             if (key == null || key.isEmpty()) {
                 if (callback != null) {
                     callback.onError(GET, new SecureStorageException("Key or Value can't be NULL ot empty"));
@@ -199,79 +797,351 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
 
             key = generateKeyWithPrefix(key);
-            KeyStore.PrivateKeyEntry privateKeyEntry;
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, GET);
             try {
-                privateKeyEntry = (KeyStore.PrivateKeyEntry) keyStore.getEntry(KEY_ALIAS, null);
-
-                if (privateKeyEntry == null) return null;
-                Cipher cipher = Cipher.getInstance(CIPHER_TYPE, CIPHER_PROVIDER);
-                cipher.init(Cipher.DECRYPT_MODE, privateKeyEntry.getPrivateKey());
-
                 String value = getPref(key);
-                if (value.isEmpty()) return null;
-                byte[] bytes = getBytes(cipher, value);
-                String result = new String(bytes, StandardCharsets.UTF_8);
+                trace.mark(STORAGE);
+                byte[] bytes = value.isEmpty() ? null : decrypt(key, value, trace);
+                if (bytes == null) {
+                    trace.finish(false);
+                    return null;
+                }
+                trace.addPayload(bytes.length);
+                trace.finish(true);
 
                 if (callback != null) {
                     callback.onComplete(GET);
                 }
 
-                return result;
-            } catch (NoSuchAlgorithmException | KeyStoreException | InvalidKeyException | IOException | NoSuchPaddingException | UnrecoverableEntryException | NoSuchProviderException e) {
+                return bytes;
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
+                e.printStackTrace();
+                if (callback != null) {
+                    callback.onError(GET, e);
+                }
+                return null;
+            }
+        }
+
+        @Override
+        public int getBytes(@NonNull String key, @NonNull ByteBuffer out) {
+            if (key == null || key.isEmpty()) {
+                if (callback != null) {
+                    callback.onError(GET, new SecureStorageException("Key can't be NULL or empty"));
+                }
+                return -1;
+            }
+
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, GET);
+            try {
+                String prefKey = generateKeyWithPrefix(key);
+                String value = getPref(prefKey);
+                trace.mark(STORAGE);
+                int length = value.isEmpty() ? -1 : decrypt(prefKey, value, out, trace);
+                trace.addPayload(Math.max(length, 0));
+                trace.finish(length >= 0);
+                if (length >= 0 && callback != null) {
+                    callback.onComplete(GET);
+                }
+                return length;
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
                 if (callback != null) {
                     callback.onError(GET, e);
                 }
+                return -1;
+            }
+        }
+
+        @NonNull
+        @Override
+        public Map<String, String> getAll(@NonNull Collection<String> keys) {
+            Map<String, String> values = new HashMap<>();
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, GET);
+            for (String key : keys) {
+                if (!isValid(key)) {
+                    result.addFailure(key, new SecureStorageException("Key can't be NULL or empty"));
+                    continue;
+                }
+                String prefKey = generateKeyWithPrefix(key);
+                String value = getPref(prefKey);
+                trace.mark(STORAGE);
+                try {
+                    byte[] bytes = value.isEmpty() ? null : decrypt(prefKey, value, trace);
+                    if (bytes != null) {
+                        trace.addPayload(bytes.length);
+                        values.put(key, new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    result.addSuccess(key);
+                } catch (GeneralSecurityException | IOException e) {
+                    result.addFailure(key, e);
+                }
+            }
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, GET);
+            return values;
+        }
+
+        /**
+         * @param prefKey key of the entry, a legacy entry is queued for a rewrite unless it's null
+         * @return Decrypted value or null if the key needed for it doesn't exist any more
+         */
+        @Nullable
+        private byte[] decrypt(@Nullable String prefKey, String value, OperationTrace trace) throws GeneralSecurityException, IOException {
+            byte[] data = Base64.decode(value, Base64.DEFAULT);
+            Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_GCM);
+            trace.mark(ENCODING);
+            if (envelope != null) {
+                SecretKey secretKey = keySource.findKey(versions.aliasOf(envelope.getKeyVersion()));
+                trace.mark(KEY);
+                try {
+                    if (secretKey != null) {
+                        return open(secretKey, data, envelope, trace);
+                    }
+                } catch (GeneralSecurityException e) {
+                    byte[] legacy = retryLegacy(prefKey, data);
+                    if (legacy != null) {
+                        return legacy;
+                    }
+                    throw e;
+                }
+                return retryLegacy(prefKey, data);
+            }
+            byte[] decrypted = decryptLegacy(prefKey, data);
+            trace.mark(CIPHER);
+            return decrypted;
+        }
+
+        /**
+         * Decrypts into the buffer without an intermediate plaintext array
+         *
+         * @return Length of the value or -1 if the key needed for it doesn't exist any more
+         */
+        private int decrypt(String prefKey, String value, ByteBuffer out, OperationTrace trace) throws GeneralSecurityException, IOException {
+            byte[] data = Base64.decode(value, Base64.DEFAULT);
+            Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_GCM);
+            trace.mark(ENCODING);
+            if (envelope == null) {
+                // Legacy entries are rewritten in background, until then they may take the slower path
+                byte[] bytes = decryptLegacy(prefKey, data);
+                trace.mark(CIPHER);
+                return bytes == null ? -1 : copyAndWipe(bytes, out);
+            }
+            SecretKey secretKey = keySource.findKey(versions.aliasOf(envelope.getKeyVersion()));
+            trace.mark(KEY);
+            try {
+                if (secretKey != null) {
+                    return open(secretKey, data, envelope, out, trace);
+                }
+            } catch (GeneralSecurityException | BufferOverflowException e) {
+                byte[] legacy = retryLegacy(prefKey, data);
+                if (legacy != null) {
+                    return copyAndWipe(legacy, out);
+                }
+                throw e;
+            }
+            byte[] legacy = retryLegacy(prefKey, data);
+            return legacy == null ? -1 : copyAndWipe(legacy, out);
+        }
+
+        private int open(SecretKey secretKey, byte[] data, Envelope envelope, ByteBuffer out, OperationTrace trace)
+                throws GeneralSecurityException, IOException {
+            if (envelope.isCompressed()) {
+                // The inflated length isn't known before inflating, so it goes through an array
+                return copyAndWipe(open(secretKey, data, envelope, trace), out);
+            }
+            if (out.remaining() < envelope.getPayloadLength() - GCM_TAG_LENGTH / 8) {
+                throw new BufferOverflowException();
+            }
+            Cipher cipher = dataCipherPool.acquire();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, data, envelope.getIvOffset(), envelope.getIvLength()));
+                trace.mark(CIPHER_INIT);
+                int length = cipher.doFinal(ByteBuffer.wrap(data, envelope.getPayloadOffset(), envelope.getPayloadLength()), out);
+                trace.mark(CIPHER);
+                return length;
+            } finally {
+                dataCipherPool.release(cipher);
+            }
+        }
+
+        private byte[] open(SecretKey secretKey, byte[] data, Envelope envelope, OperationTrace trace) throws GeneralSecurityException, IOException {
+            byte[] decrypted;
+            Cipher cipher = dataCipherPool.acquire();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, data, envelope.getIvOffset(), envelope.getIvLength()));
+                trace.mark(CIPHER_INIT);
+                decrypted = cipher.doFinal(data, envelope.getPayloadOffset(), envelope.getPayloadLength());
+                trace.mark(CIPHER);
+            } finally {
+                dataCipherPool.release(cipher);
+            }
+            return envelope.isCompressed() ? decompress(decrypted, trace) : decrypted;
+        }
+
+        /**
+         * A bare legacy ciphertext may parse as an envelope by chance, it
+         * gets a second try once the envelope fails to open
+         *
+         * @return Decrypted value or null if the data isn't a legacy entry either
+         */
+        @Nullable
+        private byte[] retryLegacy(@Nullable String prefKey, byte[] data) {
+            try {
+                return decryptLegacy(prefKey, data);
+            } catch (GeneralSecurityException | IOException e) {
                 return null;
             }
         }
 
-        private byte[] getBytes(Cipher cipher, String value) throws IOException {
-            CipherInputStream cipherInputStream = new CipherInputStream(
-                    new ByteArrayInputStream((Base64.decode(value, Base64.DEFAULT))), cipher);
-            ArrayList<Byte> values = new ArrayList<>();
-            int nextByte;
-            while ((nextByte = cipherInputStream.read()) != -1) {
-                values.add((byte) nextByte);
+        // Values written before the data key existed are RSA encrypted directly
+        @Nullable
+        private byte[] decryptLegacy(@Nullable String prefKey, byte[] data) throws GeneralSecurityException, IOException {
+            KeyStore.PrivateKeyEntry privateKeyEntry = KeyStoreHelper.findPrivateKeyEntry(keyAlias);
+            if (privateKeyEntry == null) return null;
+            byte[] decrypted;
+            Cipher cipher = cipherPool.acquire();
+            try {
+                decrypted = decryptRsa(cipher, privateKeyEntry.getPrivateKey(), data);
+            } finally {
+                cipherPool.release(cipher);
             }
+            if (prefKey != null) {
+                rewrites.enqueue(prefKey);
+            }
+            return decrypted;
+        }
 
-            byte[] bytes = new byte[values.size()];
-            for (int i = 0; i < bytes.length; i++) {
-                bytes[i] = values.get(i);
+        private byte[] decryptRsa(Cipher cipher, PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+            Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_RSA_ECB);
+            if (envelope != null) {
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, privateKey);
+                    return cipher.doFinal(data, envelope.getPayloadOffset(), envelope.getPayloadLength());
+                } catch (GeneralSecurityException e) {
+                    // A bare legacy ciphertext may look like an envelope by chance, it gets a second try below
+                }
             }
-            return bytes;
+            // Entries written before the envelope format hold the bare RSA ciphertext
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return cipher.doFinal(data);
         }
     }
 
-    class CipherM implements SecurityProvider {
+    class CipherM implements SecurityProvider, StreamingProvider, VersionedKeys {
 
         private static final java.lang.String AESGCMNOPADDING = "AES/CBC/PKCS7Padding";
+        //Legacy layout kept the IV as a text array in a separate preference
         private static final String I_VECTOR = "valueV";
-        private SecretKey secretKey;
-        private Cipher cipher;
-        private SharedPreferences preferences;
-        private KeyStore keyStore;
+        private final CipherPool cipherPool = CipherPool.of(AESGCMNOPADDING, null);
+        private final KeySource keySource;
+        private final KeyVersions versions;
+        private IndexedStorageBackend storage;
+
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        CipherM(IndexedStorageBackend storage, KeySource keySource) {
+            this.storage = storage;
+            this.keySource = keySource;
+            this.versions = KeyVersions.forAlias(storage, keyAlias);
+        }
 
+        @Override
+        public KeyVersions versions() {
+            return versions;
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public void createKey(int version) throws GeneralSecurityException, IOException {
+            keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_CBC);
+        }
+
+        @Nullable
         @RequiresApi(api = Build.VERSION_CODES.M)
-        CipherM(Context context) {
+        @Override
+        public String rotate(String prefKey, String value, int version, StorageBackend.Editor editor)
+                throws GeneralSecurityException, IOException {
+            String legacyIv = getPref(I_VECTOR + prefKey);
+            if (legacyIv == null) {
+                Envelope envelope = Envelope.parse(Base64.decode(value, Base64.DEFAULT), Envelope.ALGORITHM_AES_CBC);
+                if (envelope != null && envelope.getKeyVersion() == version) {
+                    return null;
+                }
+            }
+            byte[] bytes = decrypt(value, legacyIv, NO_TRACE);
+            if (bytes == null) {
+                return null;
+            }
             try {
-                cipher = Cipher.getInstance(AESGCMNOPADDING);
-                keyStore = KeyStoreHelper.getKeyStoreM();
-                secretKey = KeyStoreHelper.initSecretKey(KEY_ALIAS);
-                preferences = PreferenceManager.getDefaultSharedPreferences(context);
-            } catch (Exception e) {
-                e.printStackTrace();
+                String encrypted = encrypt(keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_CBC), version, bytes, NO_TRACE);
+                editor.remove(I_VECTOR + prefKey);
+                return encrypted;
+            } finally {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        }
+
+        @Override
+        public void deleteKeys(int from, int to) throws GeneralSecurityException, IOException {
+            for (int version = from; version < to; version++) {
+                keySource.deleteKey(versions.aliasOf(version));
             }
         }
 
+        @Override
+        public boolean contains(String key) {
+            return CipherEncryptionProvider.this.contains(key);
+        }
+
+        @Override
+        public SortedSet<String> keys(String prefix) {
+            return CipherEncryptionProvider.this.keys(prefix);
+        }
+
+        @Override
+        public int size() {
+            return CipherEncryptionProvider.this.size();
+        }
+
+        @Override
+        public void setMetricsListener(MetricsListener listener) {
+            CipherEncryptionProvider.this.setMetricsListener(listener);
+        }
+
+        @Override
+        public void setCompressionThreshold(int minBytes) {
+            CipherEncryptionProvider.this.setCompressionThreshold(minBytes);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public void warmUp() throws GeneralSecurityException, IOException {
+            createKey(versions.getCurrent());
+            cipherPool.release(cipherPool.acquire());
+            storage.loadIndex();
+        }
+
         @Override
         public void erase() {
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, ERASE);
+            removeEntries(storage, Type.CIPHER.toString(), I_VECTOR + Type.CIPHER.toString());
+            trace.mark(STORAGE);
             try {
-                keyStore.deleteEntry(KEY_ALIAS);
+                synchronized (versions) {
+                    deleteKeys(versions.getOldest(), versions.getCurrent() + 1);
+                    versions.reset();
+                }
+                keySource.deleteKey(streamKeyAlias);
+                trace.mark(KEY);
+                trace.finish(true);
                 if (callback != null) {
                     callback.onComplete(ERASE);
                 }
-            } catch (KeyStoreException e) {
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
                 if (callback != null) {
                     callback.onError(ERASE, e);
@@ -281,7 +1151,12 @@ public class CipherEncryptionProvider implements SecurityProvider {
 
         @Override
         public void save(@NonNull String key, @NonNull String value) {
-            if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
+            saveBytes(key, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        @Override
+        public void saveBytes(@NonNull String key, @NonNull byte[] value) {
+            if (!isValid(key, value)) {
                 if (callback != null) {
                     callback.onError(SAVE, new SecureStorageException("Key or Value can't be NULL"));
                 }
@@ -290,24 +1165,148 @@ public class CipherEncryptionProvider implements SecurityProvider {
 
             key = generateKeyWithPrefix(key);
 
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
             try {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-                putPref(I_VECTOR + key, Arrays.toString(cipher.getIV()));
-                byte[] encryption = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
-                String encryptedBase64Encoded = Base64.encodeToString(encryption, Base64.DEFAULT);
-                putPref(key, encryptedBase64Encoded);
+                int version = versions.lockCurrent();
+                try {
+                    SecretKey secretKey = keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_CBC);
+                    trace.mark(KEY);
+                    StorageBackend.Editor editor = storage.edit();
+                    putEncrypted(editor, secretKey, version, key, value, trace);
+                    editor.apply();
+                    trace.mark(STORAGE);
+                } finally {
+                    versions.unlockCurrent();
+                }
+                trace.addPayload(value.length);
+                trace.finish(true);
 
                 if (callback != null) {
                     callback.onComplete(SAVE);
                 }
-            } catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
+                onKeyFailure(e);
                 if (callback != null) {
                     callback.onError(SAVE, e);
                 }
             }
         }
 
+        @Override
+        public void saveAll(@NonNull Map<String, String> values) {
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
+            StorageBackend.Editor editor = storage.edit();
+            int version = versions.lockCurrent();
+            try {
+                SecretKey secretKey = keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_CBC);
+                trace.mark(KEY);
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (!isValid(entry.getKey(), entry.getValue())) {
+                        result.addFailure(entry.getKey(), new SecureStorageException("Key or Value can't be NULL"));
+                        continue;
+                    }
+                    try {
+                        byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                        putEncrypted(editor, secretKey, version, generateKeyWithPrefix(entry.getKey()), value, trace);
+                        trace.addPayload(value.length);
+                        result.addSuccess(entry.getKey());
+                    } catch (GeneralSecurityException e) {
+                        onKeyFailure(e);
+                        result.addFailure(entry.getKey(), e);
+                    }
+                }
+                editor.apply();
+                trace.mark(STORAGE);
+            } catch (GeneralSecurityException | IOException e) {
+                e.printStackTrace();
+                for (String key : values.keySet()) {
+                    result.addFailure(key, e);
+                }
+            } finally {
+                versions.unlockCurrent();
+            }
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, SAVE);
+        }
+
+        @Override
+        public boolean commit(@NonNull Map<String, byte[]> values, @NonNull Collection<String> removals, boolean durable) {
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, SAVE);
+            try {
+                StorageBackend.Editor editor = storage.edit();
+                for (String key : removals) {
+                    if (!isValid(key)) {
+                        throw new SecureStorageException("Key can't be NULL or empty");
+                    }
+                    String prefKey = generateKeyWithPrefix(key);
+                    editor.remove(prefKey).remove(I_VECTOR + prefKey);
+                }
+                int version = versions.lockCurrent();
+                try {
+                    SecretKey secretKey = values.isEmpty() ? null
+                            : keySource.getKey(versions.aliasOf(version), KeyProperties.BLOCK_MODE_CBC);
+                    trace.mark(KEY);
+                    for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                        if (!isValid(entry.getKey(), entry.getValue())) {
+                            throw new SecureStorageException("Key or Value can't be NULL");
+                        }
+                        putEncrypted(editor, secretKey, version, generateKeyWithPrefix(entry.getKey()), entry.getValue(), trace);
+                        trace.addPayload(entry.getValue().length);
+                    }
+                    writeEditor(editor, durable);
+                    trace.mark(STORAGE);
+                } finally {
+                    versions.unlockCurrent();
+                }
+                trace.finish(true);
+                if (callback != null) {
+                    callback.onComplete(SAVE);
+                }
+                return true;
+            } catch (GeneralSecurityException | IOException | SecureStorageException e) {
+                trace.finish(false);
+                e.printStackTrace();
+                onKeyFailure(e);
+                if (callback != null) {
+                    callback.onError(SAVE, e);
+                }
+                return false;
+            }
+        }
+
+        private void putEncrypted(StorageBackend.Editor editor, SecretKey secretKey, int version, String key, byte[] value, OperationTrace trace) throws GeneralSecurityException {
+            String encoded = encrypt(secretKey, version, value, trace);
+            // Rewriting a legacy entry upgrades it to the single entry layout
+            editor.remove(I_VECTOR + key);
+            editor.putString(key, encoded);
+        }
+
+        private String encrypt(SecretKey secretKey, int version, byte[] value, OperationTrace trace) throws GeneralSecurityException {
+            byte[] compressed = compress(value, trace);
+            byte[] envelope;
+            // A pooled cipher belongs to this thread only until it is released
+            Cipher cipher = cipherPool.acquire();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+                trace.mark(CIPHER_INIT);
+                byte[] encryption = cipher.doFinal(compressed != null ? compressed : value);
+                trace.mark(CIPHER);
+                int flags = compressed != null ? Envelope.FLAG_COMPRESSED : 0;
+                envelope = Envelope.encode(Envelope.ALGORITHM_AES_CBC, flags, version, cipher.getIV(), encryption);
+            } finally {
+                cipherPool.release(cipher);
+                if (compressed != null) {
+                    Arrays.fill(compressed, (byte) 0);
+                }
+            }
+            String encoded = Base64.encodeToString(envelope, Base64.NO_WRAP);
+            trace.mark(ENCODING);
+            return encoded;
+        }
+
         @Override
         public void remove(@NonNull String key) {
             if (key == null || key.isEmpty()) {
@@ -318,16 +1317,46 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
 
             key = generateKeyWithPrefix(key);
-            preferences.edit().remove(key).apply();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, REMOVE);
+            storage.edit().remove(key).remove(I_VECTOR + key).apply();
+            trace.mark(STORAGE);
+            trace.finish(true);
             if (callback != null) {
                 callback.onComplete(REMOVE);
             }
         }
 
+        @Override
+        public void removeAll(@NonNull Collection<String> keys) {
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, REMOVE);
+            StorageBackend.Editor editor = storage.edit();
+            for (String key : keys) {
+                if (!isValid(key)) {
+                    result.addFailure(key, new SecureStorageException("Key can't be NULL or empty"));
+                    continue;
+                }
+                String prefKey = generateKeyWithPrefix(key);
+                editor.remove(prefKey).remove(I_VECTOR + prefKey);
+                result.addSuccess(key);
+            }
+            editor.apply();
+            trace.mark(STORAGE);
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, REMOVE);
+        }
+
         @Nullable
         @RequiresApi(api = Build.VERSION_CODES.M)
         @Override
         public String get(@NonNull String key) {
+            return CipherEncryptionProvider.toString(getBytes(key));
+        }
+
+        @Nullable
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public byte[] getBytes(@NonNull String key) {
             if (key == null || key.isEmpty()) {
                 if (callback != null) {
                     callback.onError(GET, new SecureStorageException("Key can't be NULL or empty"));
@@ -336,27 +1365,29 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
 
             key = generateKeyWithPrefix(key);
-            if (!isValueSet(I_VECTOR + key) || !isValueSet(key)) {
+            if (!isValueSet(key)) {
                 return null;
             }
 
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, GET);
             try {
-                String value = getPref(key);
-                byte[] iv = getByteArray(getPref(I_VECTOR + key));
-                IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-                KeyStore.SecretKeyEntry secretKeyEntry = (KeyStore.SecretKeyEntry) keyStore.getEntry(KEY_ALIAS, null);
-                if (secretKeyEntry == null) return null;
-                cipher.init(Cipher.DECRYPT_MODE, secretKeyEntry.getSecretKey(), ivParameterSpec);
-                if (value.isEmpty()) return null;
-                String result = new String(cipher.doFinal(Base64.decode(value, Base64.DEFAULT)), StandardCharsets.UTF_8);
+                byte[] result = decrypt(key, trace);
+                if (result == null) {
+                    trace.finish(false);
+                    return null;
+                }
+                trace.addPayload(result.length);
+                trace.finish(true);
 
                 if (callback != null) {
                     callback.onComplete(GET);
                 }
 
                 return result;
-            } catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | UnrecoverableEntryException | KeyStoreException e) {
+            } catch (GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
+                onKeyFailure(e);
 
                 if (callback != null) {
                     callback.onError(GET, e);
@@ -365,6 +1396,117 @@ public class CipherEncryptionProvider implements SecurityProvider {
             }
         }
 
+        /**
+         * The keystore CBC cipher reports the padded size as its output
+         * size, so the value is decrypted into a temporary array which
+         * is wiped after the copy
+         */
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public int getBytes(@NonNull String key, @NonNull ByteBuffer out) {
+            byte[] value = getBytes(key);
+            return value == null ? -1 : copyAndWipe(value, out);
+        }
+
+        @NonNull
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public Map<String, String> getAll(@NonNull Collection<String> keys) {
+            Map<String, String> values = new HashMap<>();
+            BatchResult result = new BatchResult();
+            OperationTrace trace = OperationTrace.start(metrics, Type.CIPHER, GET);
+            // Entries may be under different key versions, the key source caches the resolved handles
+            for (String key : keys) {
+                if (!isValid(key)) {
+                    result.addFailure(key, new SecureStorageException("Key can't be NULL or empty"));
+                    continue;
+                }
+                String prefKey = generateKeyWithPrefix(key);
+                try {
+                    if (isValueSet(prefKey)) {
+                        byte[] bytes = decrypt(prefKey, trace);
+                        if (bytes != null) {
+                            trace.addPayload(bytes.length);
+                            values.put(key, CipherEncryptionProvider.toString(bytes));
+                        }
+                    }
+                    result.addSuccess(key);
+                } catch (GeneralSecurityException | IOException e) {
+                    onKeyFailure(e);
+                    result.addFailure(key, e);
+                }
+            }
+            trace.finish(result.isSuccessful());
+            result.dispatch(callback, GET);
+            return values;
+        }
+
+        @Nullable
+        private byte[] decrypt(String prefKey, OperationTrace trace) throws GeneralSecurityException, IOException {
+            String value = getPref(prefKey);
+            if (value == null || value.isEmpty()) return null;
+            String legacyIv = getPref(I_VECTOR + prefKey);
+            trace.mark(STORAGE);
+            byte[] decrypted = decrypt(value, legacyIv, trace);
+            if (legacyIv != null && decrypted != null) {
+                rewrites.enqueue(prefKey);
+            }
+            return decrypted;
+        }
+
+        /**
+         * @return Decrypted value or null if the key version it needs doesn't exist any more
+         */
+        @Nullable
+        private byte[] decrypt(String value, @Nullable String legacyIv, OperationTrace trace) throws GeneralSecurityException, IOException {
+            byte[] data = Base64.decode(value, Base64.DEFAULT);
+            Envelope envelope = null;
+            if (legacyIv == null) {
+                envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_CBC);
+                if (envelope == null) {
+                    throw new GeneralSecurityException("Unknown entry format");
+                }
+            }
+            trace.mark(ENCODING);
+            // Legacy entries predate the key versions, they are under the alias itself
+            SecretKey key = keySource.findKey(versions.aliasOf(envelope != null ? envelope.getKeyVersion() : 0));
+            trace.mark(KEY);
+            if (key == null) return null;
+
+            byte[] decrypted;
+            Cipher cipher = cipherPool.acquire();
+            try {
+                if (envelope == null) {
+                    cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(getByteArray(legacyIv)));
+                    trace.mark(CIPHER_INIT);
+                    decrypted = cipher.doFinal(data);
+                } else {
+                    cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(envelope.getData(), envelope.getIvOffset(), envelope.getIvLength()));
+                    trace.mark(CIPHER_INIT);
+                    decrypted = cipher.doFinal(envelope.getData(), envelope.getPayloadOffset(), envelope.getPayloadLength());
+                }
+                trace.mark(CIPHER);
+            } finally {
+                cipherPool.release(cipher);
+            }
+            return envelope != null && envelope.isCompressed() ? decompress(decrypted, trace) : decrypted;
+        }
+
+        @NonNull
+        @Override
+        public ChunkCipher newChunkCipher(@NonNull String key) throws GeneralSecurityException, IOException {
+            return new AesGcmChunkCipher(keySource.getKey(streamKeyAlias, KeyProperties.BLOCK_MODE_GCM));
+        }
+
+        //A permanently invalidated key handle must not stay in the cache
+        private void onKeyFailure(Exception e) {
+            if (e instanceof KeyPermanentlyInvalidatedException) {
+                for (int version = versions.getOldest(); version <= versions.getCurrent(); version++) {
+                    keySource.invalidateKey(versions.aliasOf(version));
+                }
+            }
+        }
+
         @Nullable
         private byte[] getByteArray(String stringArray) {
             if (stringArray != null) {
@@ -379,15 +1521,11 @@ public class CipherEncryptionProvider implements SecurityProvider {
         }
 
         private boolean isValueSet(String key) {
-            return preferences.contains(key);
+            return storage.contains(key);
         }
 
         private String getPref(String key) {
-            return preferences.getString(key, null);
-        }
-
-        private void putPref(String key, String value) {
-            preferences.edit().putString(key, value).apply();
+            return storage.getString(key, null);
         }
     }
 }
@@ -1,24 +1,55 @@
 package com.epam.securestorage.providers.themis;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Base64;
+import android.util.LruCache;
 
 import com.cossacklabs.themis.InvalidArgumentException;
 import com.cossacklabs.themis.NullArgumentException;
 import com.cossacklabs.themis.SecureCell;
 import com.cossacklabs.themis.SecureCellData;
 import com.cossacklabs.themis.SecureCellException;
+import com.epam.securestorage.core.BatchResult;
+import com.epam.securestorage.core.ChunkCipher;
+import com.epam.securestorage.core.Compression;
+import com.epam.securestorage.core.Envelope;
+import com.epam.securestorage.core.Hkdf;
+import com.epam.securestorage.core.IndexedStorageBackend;
+import com.epam.securestorage.core.KeyStoreHelper;
+import com.epam.securestorage.core.MetricsListener;
+import com.epam.securestorage.core.MigratingProvider;
+import com.epam.securestorage.core.OperationTrace;
+import com.epam.securestorage.core.PreferencesStorageBackend;
+import com.epam.securestorage.core.RewriteQueue;
 import com.epam.securestorage.core.SecureStorageCallback;
 import com.epam.securestorage.core.SecureStorageException;
 import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.core.StreamingProvider;
+import com.epam.securestorage.core.WrappedDataKey;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import javax.crypto.SecretKey;
 
 import static com.cossacklabs.themis.SecureCell.MODE_SEAL;
+import static com.epam.securestorage.core.OperationTrace.Phase.CIPHER;
+import static com.epam.securestorage.core.OperationTrace.Phase.COMPRESSION;
+import static com.epam.securestorage.core.OperationTrace.Phase.ENCODING;
+import static com.epam.securestorage.core.OperationTrace.Phase.KEY;
+import static com.epam.securestorage.core.OperationTrace.Phase.STORAGE;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.ERASE;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.GET;
 import static com.epam.securestorage.core.SecureStorageCallback.ActionType.REMOVE;
@@ -30,28 +61,76 @@ import static com.epam.securestorage.core.SecureStorageCallback.ActionType.SAVE;
  * Encryption provider which logic is based on the Themis library
  * designed by CossackLabs
  * See <a href="https://github.com/cossacklabs/themis/wiki/Java-and-Android-Howto">GitHub CossackLabs</a>
- * Java Cipher implementation. Encapsulates two realizations
- * for M and PreM Android OS versions
+ * Every entry is sealed with its own subkey, derived by HKDF from a
+ * random master key which is kept wrapped by the AndroidKeyStore. The
+ * entry name goes into the cell only as its context. Entries sealed
+ * with the entry name as the password are still readable and get
+ * upgraded in background once they are read.
+ * The provider may be called from several threads, the cells keep no
+ * state between calls, so operations may overlap even on one key.
+ * Operations on one key are not ordered against each other,
+ * {@link com.epam.securestorage.SecureStorage} serializes them.
  *
  * @author Denys Mokhrin
  */
-public class ThemisEncryptionProvider implements SecurityProvider {
+public class ThemisEncryptionProvider implements SecurityProvider, StreamingProvider, MigratingProvider {
+
+    private static final String ENTRY_INFO = "SecureStorage entry ";
+    private static final String STREAM_INFO = "SecureStorage stream ";
+    private static final int SUBKEY_LENGTH = 32;
+    private static final int CELL_CACHE_SIZE = 64;
+    //Migration work doesn't show up in the operation metrics
+    private static final OperationTrace NO_TRACE = OperationTrace.start(null, Type.THEMIS, SAVE);
 
-    private SharedPreferences preferences;
+    private IndexedStorageBackend storage;
     private SecureStorageCallback callback;
+    private volatile MetricsListener metrics;
+    private volatile int compressionThreshold = Compression.DISABLED;
+    private final String masterKeyAlias;
+    private final WrappedDataKey masterKey;
+    // Secure Cell keeps no state between calls, so one instance per entry serves all threads
+    private final LruCache<String, DerivedCell> cells = new LruCache<>(CELL_CACHE_SIZE);
+    private final RewriteQueue rewrites = new RewriteQueue(new RewriteQueue.Rewriter() {
+        @Override
+        public int rewrite(@NonNull List<String> keys) throws GeneralSecurityException, IOException {
+            // Queued entries were found legacy by a full decryption, the header alone may be ambiguous
+            return rewriteEntries(keys, false);
+        }
+    });
+    private String migrationCursor;
 
     public ThemisEncryptionProvider(@NonNull Context context) {
-        this.preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        this(context, null);
     }
 
     public ThemisEncryptionProvider(@NonNull Context context, SecureStorageCallback callback) {
+        this(context, new PreferencesStorageBackend(context), callback);
+    }
+
+    public ThemisEncryptionProvider(@NonNull Context context, @NonNull StorageBackend storage, SecureStorageCallback callback) {
+        this(context, storage, KeyStoreHelper.KEY_ALIAS, callback);
+    }
+
+    /**
+     * @param keyAlias base keystore alias, providers with different
+     *                 aliases derive their entries from different master keys
+     */
+    public ThemisEncryptionProvider(@NonNull Context context, @NonNull StorageBackend storage,
+                                    @NonNull String keyAlias, SecureStorageCallback callback) {
         this.callback = callback;
-        this.preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        this.storage = new IndexedStorageBackend(storage, Type.THEMIS.toString());
+        this.masterKeyAlias = keyAlias + "_themis";
+        this.masterKey = WrappedDataKey.forAlias(context, this.storage, masterKeyAlias);
     }
 
     @Override
     public void save(@NonNull String key, @NonNull String value) {
-        if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
+        saveBytes(key, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    @Override
+    public void saveBytes(@NonNull String key, @NonNull byte[] value) {
+        if (key == null || value == null || key.isEmpty() || value.length == 0) {
             if (callback != null) {
                 callback.onError(SAVE, new SecureStorageException("Key or Value can't be NULL"));
             }
@@ -60,17 +139,18 @@ public class ThemisEncryptionProvider implements SecurityProvider {
         if (key != null && value != null) {
             key = generateKeyWithPrefix(key);
 
+            OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, SAVE);
             try {
-                SecureCell sc = new SecureCell(key.getBytes(StandardCharsets.UTF_8), MODE_SEAL);
-                SecureCellData protectedData = sc.protect(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
-                String encodedString = Base64.encodeToString(protectedData.getProtectedData(), Base64.NO_WRAP);
-
-                this.preferences.edit().putString(key, encodedString).apply();
+                storage.edit().putString(key, encrypt(key, value, trace)).apply();
+                trace.mark(STORAGE);
+                trace.addPayload(value.length);
+                trace.finish(true);
 
                 if (callback != null) {
                     callback.onComplete(SAVE);
                 }
-            } catch (InvalidArgumentException | NullArgumentException | SecureCellException e) {
+            } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException | IOException e) {
+                trace.finish(false);
                 e.printStackTrace();
 
                 if (callback != null) {
@@ -83,25 +163,39 @@ public class ThemisEncryptionProvider implements SecurityProvider {
     @Nullable
     @Override
     public String get(@NonNull String key) {
+        byte[] value = getBytes(key);
+        if (value == null) {
+            return null;
+        }
+        String result = new String(value, StandardCharsets.UTF_8);
+        Arrays.fill(value, (byte) 0);
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public byte[] getBytes(@NonNull String key) {
         if (key == null || key.isEmpty()) {
             if (callback != null) {
                 callback.onError(GET, new SecureStorageException("Key or Value can't be NULL"));
             }
             return null;
         }
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, GET);
         try {
             key = generateKeyWithPrefix(key);
 
-            String encodedString = preferences.getString(key, null);
-            String decryptedData;
+            String encodedString = storage.getString(key, null);
+            trace.mark(STORAGE);
+            byte[] decryptedData;
             if (encodedString != null) {
-                byte[] decodedString = Base64.decode(encodedString, Base64.NO_WRAP);
-                SecureCell sc = new SecureCell(key.getBytes(StandardCharsets.UTF_8), MODE_SEAL);
-
-                SecureCellData encryptedData = new SecureCellData(decodedString, null);
-
-                byte[] unprotectedData = sc.unprotect(key.getBytes(StandardCharsets.UTF_8), encryptedData);
-                decryptedData = new String(unprotectedData, StandardCharsets.UTF_8);
+                decryptedData = decrypt(key, encodedString, trace, true);
+                if (decryptedData == null) {
+                    trace.finish(false);
+                    return null;
+                }
+                trace.addPayload(decryptedData.length);
+                trace.finish(true);
 
                 if (callback != null) {
                     callback.onComplete(GET);
@@ -110,13 +204,15 @@ public class ThemisEncryptionProvider implements SecurityProvider {
                 return decryptedData;
 
             } else {
+                trace.finish(false);
                 if (callback != null) {
                     callback.onError(GET, new SecureStorageException("No Such Value"));
                 }
                 return null;
             }
 
-        } catch (InvalidArgumentException | NullArgumentException | SecureCellException e) {
+        } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException | IOException e) {
+            trace.finish(false);
             e.printStackTrace();
             if (callback != null) {
                 callback.onError(GET, e);
@@ -125,6 +221,27 @@ public class ThemisEncryptionProvider implements SecurityProvider {
         return null;
     }
 
+    /**
+     * Secure Cell always returns a new plaintext array, it's copied
+     * into the buffer and wiped
+     */
+    @Override
+    public int getBytes(@NonNull String key, @NonNull ByteBuffer out) {
+        byte[] value = getBytes(key);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            if (out.remaining() < value.length) {
+                throw new BufferOverflowException();
+            }
+            out.put(value);
+            return value.length;
+        } finally {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+
     @Override
     public void remove(@NonNull String key) {
         if (key == null || key.isEmpty()) {
@@ -135,18 +252,429 @@ public class ThemisEncryptionProvider implements SecurityProvider {
         }
 
         key = generateKeyWithPrefix(key);
-        preferences.edit().remove(key).apply();
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, REMOVE);
+        storage.edit().remove(key).apply();
+        trace.mark(STORAGE);
+        trace.finish(true);
         if (callback != null) {
             callback.onComplete(REMOVE);
         }
     }
 
+    @Override
+    public void saveAll(@NonNull Map<String, String> values) {
+        BatchResult result = new BatchResult();
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, SAVE);
+        StorageBackend.Editor editor = storage.edit();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
+                result.addFailure(key, new SecureStorageException("Key or Value can't be NULL"));
+                continue;
+            }
+            try {
+                String prefKey = generateKeyWithPrefix(key);
+                byte[] plaintext = value.getBytes(StandardCharsets.UTF_8);
+                editor.putString(prefKey, encrypt(prefKey, plaintext, trace));
+                trace.addPayload(plaintext.length);
+                result.addSuccess(key);
+            } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException | IOException e) {
+                result.addFailure(key, e);
+            }
+        }
+        editor.apply();
+        trace.mark(STORAGE);
+        trace.finish(result.isSuccessful());
+        result.dispatch(callback, SAVE);
+    }
+
+    @Override
+    public boolean commit(@NonNull Map<String, byte[]> values, @NonNull Collection<String> removals, boolean durable) {
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, SAVE);
+        try {
+            StorageBackend.Editor editor = storage.edit();
+            for (String key : removals) {
+                if (key == null || key.isEmpty()) {
+                    throw new SecureStorageException("Key can't be NULL or empty");
+                }
+                editor.remove(generateKeyWithPrefix(key));
+            }
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                String key = entry.getKey();
+                byte[] value = entry.getValue();
+                if (key == null || value == null || key.isEmpty() || value.length == 0) {
+                    throw new SecureStorageException("Key or Value can't be NULL");
+                }
+                String prefKey = generateKeyWithPrefix(key);
+                editor.putString(prefKey, encrypt(prefKey, value, trace));
+                trace.addPayload(value.length);
+            }
+            if (durable) {
+                if (!editor.commit()) {
+                    throw new IOException("Changes were not persisted");
+                }
+            } else {
+                editor.apply();
+            }
+            trace.mark(STORAGE);
+            trace.finish(true);
+            if (callback != null) {
+                callback.onComplete(SAVE);
+            }
+            return true;
+        } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException | IOException | SecureStorageException e) {
+            trace.finish(false);
+            e.printStackTrace();
+            if (callback != null) {
+                callback.onError(SAVE, e);
+            }
+            return false;
+        }
+    }
+
+    @NonNull
+    @Override
+    public Map<String, String> getAll(@NonNull Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        BatchResult result = new BatchResult();
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, GET);
+        for (String key : keys) {
+            if (key == null || key.isEmpty()) {
+                result.addFailure(key, new SecureStorageException("Key or Value can't be NULL"));
+                continue;
+            }
+            String prefKey = generateKeyWithPrefix(key);
+            String encodedString = storage.getString(prefKey, null);
+            trace.mark(STORAGE);
+            if (encodedString == null) {
+                result.addFailure(key, new SecureStorageException("No Such Value"));
+                continue;
+            }
+            try {
+                byte[] value = decrypt(prefKey, encodedString, trace, true);
+                if (value != null) {
+                    trace.addPayload(value.length);
+                    values.put(key, new String(value, StandardCharsets.UTF_8));
+                }
+                result.addSuccess(key);
+            } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException | IOException e) {
+                result.addFailure(key, e);
+            }
+        }
+        trace.finish(result.isSuccessful());
+        result.dispatch(callback, GET);
+        return values;
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<String> keys) {
+        BatchResult result = new BatchResult();
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, REMOVE);
+        StorageBackend.Editor editor = storage.edit();
+        for (String key : keys) {
+            if (key == null || key.isEmpty()) {
+                result.addFailure(key, new SecureStorageException("Key can't be NULL or empty"));
+                continue;
+            }
+            editor.remove(generateKeyWithPrefix(key));
+            result.addSuccess(key);
+        }
+        editor.apply();
+        trace.mark(STORAGE);
+        trace.finish(result.isSuccessful());
+        result.dispatch(callback, REMOVE);
+    }
+
     @Override
     public void erase() {
-        preferences.edit().clear().apply();
+        OperationTrace trace = OperationTrace.start(metrics, Type.THEMIS, ERASE);
+        // The backend may hold entries of the app or of the Cipher provider as well
+        String prefix = generateKeyWithPrefix("");
+        StorageBackend.Editor editor = null;
+        for (String key : storage.keys()) {
+            if (key.startsWith(prefix)) {
+                editor = editor != null ? editor : storage.edit();
+                editor.remove(key);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+        trace.mark(STORAGE);
+        // The file of a namespace is deleted without an editor, so the index can't tell
+        storage.resetIndex();
+        cells.evictAll();
+        try {
+            masterKey.destroy();
+            KeyStoreHelper.deleteKey(masterKeyAlias);
+            trace.mark(KEY);
+            trace.finish(true);
+            if (callback != null) {
+                callback.onComplete(ERASE);
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            trace.finish(false);
+            e.printStackTrace();
+            if (callback != null) {
+                callback.onError(ERASE, e);
+            }
+        }
+    }
 
-        if (callback != null) {
-            callback.onComplete(ERASE);
+    //Unwrapping the master key is the slow part, entries are loaded along the way
+    @Override
+    public void warmUp() throws GeneralSecurityException, IOException {
+        masterKey.get();
+        storage.loadIndex();
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return key != null && !key.isEmpty() && storage.contains(generateKeyWithPrefix(key));
+    }
+
+    @NonNull
+    @Override
+    public SortedSet<String> keys(@NonNull String prefix) {
+        return storage.entryKeys(prefix != null ? prefix : "");
+    }
+
+    @Override
+    public int size() {
+        return storage.entryCount();
+    }
+
+    @Override
+    public void setMetricsListener(@Nullable MetricsListener listener) {
+        metrics = listener;
+    }
+
+    @Override
+    public void setCompressionThreshold(int minBytes) {
+        compressionThreshold = minBytes;
+    }
+
+    @NonNull
+    @Override
+    public ChunkCipher newChunkCipher(@NonNull String key) throws GeneralSecurityException, IOException {
+        try {
+            return new ThemisChunkCipher(new SecureCell(deriveSubkey(masterKey.get(), STREAM_INFO + generateKeyWithPrefix(key)), MODE_SEAL));
+        } catch (InvalidArgumentException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    @Override
+    public synchronized int migrateLegacyEntries(int maxEntries) throws GeneralSecurityException, IOException {
+        List<String> batch = storage.indexedKeysAfter(migrationCursor, maxEntries);
+        if (batch.isEmpty()) {
+            migrationCursor = null;
+            return 0;
+        }
+        rewriteEntries(batch, true);
+        migrationCursor = batch.get(batch.size() - 1);
+        return batch.size();
+    }
+
+    @Override
+    public RewriteQueue getRewriteQueue() {
+        return rewrites;
+    }
+
+    /**
+     * Seals the entries with their derived subkeys, values written
+     * meanwhile by foreground operations are left as they are
+     *
+     * @param onlyLegacy skip the entries whose header marks them as derived
+     * @return Number of rewritten entries
+     */
+    private int rewriteEntries(List<String> keys, boolean onlyLegacy) throws GeneralSecurityException, IOException {
+        Map<String, String> expected = new HashMap<>();
+        Map<String, String> replacements = new HashMap<>();
+        for (String key : keys) {
+            String value = storage.getString(key, null);
+            if (value == null || onlyLegacy
+                    && Envelope.parse(Base64.decode(value, Base64.NO_WRAP), Envelope.ALGORITHM_THEMIS_SEAL_DERIVED) != null) {
+                continue;
+            }
+            try {
+                byte[] bytes = decrypt(key, value, NO_TRACE, false);
+                if (bytes == null) {
+                    continue;
+                }
+                try {
+                    replacements.put(key, encrypt(key, bytes, NO_TRACE));
+                    expected.put(key, value);
+                } finally {
+                    Arrays.fill(bytes, (byte) 0);
+                }
+            } catch (InvalidArgumentException | NullArgumentException | SecureCellException | GeneralSecurityException e) {
+                // A corrupted entry must not stall the rest, it's left as it is
+                e.printStackTrace();
+            }
+        }
+        return storage.replaceUnchanged(expected, replacements, storage.edit());
+    }
+
+    private String encrypt(String key, byte[] value, OperationTrace trace) throws InvalidArgumentException, NullArgumentException, SecureCellException, GeneralSecurityException, IOException {
+        int threshold = compressionThreshold;
+        byte[] compressed = null;
+        if (threshold >= 0 && value.length >= threshold) {
+            compressed = Compression.deflate(value, threshold);
+            trace.mark(COMPRESSION);
+        }
+        SecureCell sc = cellFor(key, masterKey.get());
+        trace.mark(KEY);
+        SecureCellData protectedData;
+        try {
+            protectedData = sc.protect(key.getBytes(StandardCharsets.UTF_8), compressed != null ? compressed : value);
+        } finally {
+            if (compressed != null) {
+                Arrays.fill(compressed, (byte) 0);
+            }
+        }
+        trace.mark(CIPHER);
+        int flags = compressed != null ? Envelope.FLAG_COMPRESSED : 0;
+        byte[] envelope = Envelope.encode(Envelope.ALGORITHM_THEMIS_SEAL_DERIVED, flags, 0, null, protectedData.getProtectedData());
+        String encoded = Base64.encodeToString(envelope, Base64.NO_WRAP);
+        trace.mark(ENCODING);
+        return encoded;
+    }
+
+    /**
+     * @param queueRewrite queue the entry for a rewrite if it's in a legacy layout
+     * @return Decrypted value or null if the master key it was sealed with doesn't exist any more
+     */
+    @Nullable
+    private byte[] decrypt(String key, String encodedString, OperationTrace trace, boolean queueRewrite) throws InvalidArgumentException, NullArgumentException, SecureCellException, GeneralSecurityException, IOException {
+        byte[] decodedString = Base64.decode(encodedString, Base64.NO_WRAP);
+
+        Envelope derived = Envelope.parse(decodedString, Envelope.ALGORITHM_THEMIS_SEAL_DERIVED);
+        trace.mark(ENCODING);
+        if (derived != null) {
+            SecretKey secretKey = masterKey.find();
+            if (secretKey == null) {
+                return null;
+            }
+            byte[] cell = Arrays.copyOfRange(decodedString, derived.getPayloadOffset(), decodedString.length);
+            SecureCell sc = cellFor(key, secretKey);
+            trace.mark(KEY);
+            byte[] value = null;
+            try {
+                value = sc.unprotect(key.getBytes(StandardCharsets.UTF_8), new SecureCellData(cell, null));
+                trace.mark(CIPHER);
+            } catch (SecureCellException e) {
+                // A bare legacy cell may look like an envelope by chance, it gets a second try below
+            }
+            if (value != null) {
+                return derived.isCompressed() ? inflate(value, trace) : value;
+            }
+        }
+
+        // Entries written before the master key existed use the entry name as the password
+        SecureCell sc = new SecureCell(key.getBytes(StandardCharsets.UTF_8), MODE_SEAL);
+        Envelope envelope = Envelope.parse(decodedString, Envelope.ALGORITHM_THEMIS_SEAL);
+        if (envelope != null) {
+            byte[] cell = Arrays.copyOfRange(decodedString, envelope.getPayloadOffset(), decodedString.length);
+            try {
+                byte[] value = sc.unprotect(key.getBytes(StandardCharsets.UTF_8), new SecureCellData(cell, null));
+                trace.mark(CIPHER);
+                if (queueRewrite) {
+                    rewrites.enqueue(key);
+                }
+                return value;
+            } catch (SecureCellException e) {
+                // A bare legacy cell may look like an envelope by chance, it gets a second try below
+            }
+        }
+
+        // Entries written before the envelope format hold the bare Secure Cell
+        SecureCellData encryptedData = new SecureCellData(decodedString, null);
+
+        byte[] value = sc.unprotect(key.getBytes(StandardCharsets.UTF_8), encryptedData);
+        trace.mark(CIPHER);
+        if (queueRewrite) {
+            rewrites.enqueue(key);
+        }
+        return value;
+    }
+
+    private static byte[] inflate(byte[] decrypted, OperationTrace trace) throws IOException {
+        try {
+            byte[] value = Compression.inflate(decrypted, 0, decrypted.length);
+            trace.mark(COMPRESSION);
+            return value;
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+
+    private SecureCell cellFor(String key, SecretKey secretKey) throws GeneralSecurityException, InvalidArgumentException {
+        DerivedCell cell = cells.get(key);
+        // A cell derived from a master key which was erased meanwhile, e.g. by another instance, is stale
+        if (cell == null || cell.masterKey != secretKey) {
+            // Racing threads derive the same subkey, the extra cell is dropped
+            cell = new DerivedCell(secretKey, new SecureCell(deriveSubkey(secretKey, ENTRY_INFO + key), MODE_SEAL));
+            cells.put(key, cell);
+        }
+        return cell.cell;
+    }
+
+    private static byte[] deriveSubkey(SecretKey secretKey, String info) throws GeneralSecurityException {
+        byte[] master = secretKey.getEncoded();
+        try {
+            return Hkdf.derive(master, null, info.getBytes(StandardCharsets.UTF_8), SUBKEY_LENGTH);
+        } finally {
+            Arrays.fill(master, (byte) 0);
+        }
+    }
+
+    private static final class DerivedCell {
+        final SecretKey masterKey;
+        final SecureCell cell;
+
+        DerivedCell(SecretKey masterKey, SecureCell cell) {
+            this.masterKey = masterKey;
+            this.cell = cell;
+        }
+    }
+
+    //Every chunk is a separate Seal cell, the associated data goes in as the cell context
+    private static class ThemisChunkCipher implements ChunkCipher {
+
+        private final SecureCell cell;
+
+        ThemisChunkCipher(SecureCell cell) {
+            this.cell = cell;
+        }
+
+        @NonNull
+        @Override
+        public byte[] seal(@NonNull byte[] chunk, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException {
+            // Themis refuses empty messages, a leading byte keeps an empty final chunk sealable
+            byte[] data = new byte[length + 1];
+            System.arraycopy(chunk, offset, data, 1, length);
+            try {
+                return cell.protect(associatedData, data).getProtectedData();
+            } catch (NullArgumentException | SecureCellException e) {
+                throw new GeneralSecurityException(e);
+            }
+        }
+
+        @NonNull
+        @Override
+        public byte[] open(@NonNull byte[] sealed, int offset, int length, @NonNull byte[] associatedData) throws GeneralSecurityException {
+            try {
+                byte[] data = Arrays.copyOfRange(sealed, offset, offset + length);
+                byte[] chunk = cell.unprotect(associatedData, new SecureCellData(data, null));
+                if (chunk.length == 0) {
+                    throw new GeneralSecurityException("Corrupted chunk");
+                }
+                return Arrays.copyOfRange(chunk, 1, chunk.length);
+            } catch (NullArgumentException | SecureCellException e) {
+                throw new GeneralSecurityException(e);
+            }
         }
     }
 
@@ -0,0 +1,121 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the coalescing change notifier
+ */
+public class ChangeNotifierTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void shouldCoalesceChangesWithinWindow() throws InterruptedException {
+        ChangeNotifier notifier = new ChangeNotifier();
+        Recorder prefix = new Recorder();
+        Recorder keys = new Recorder();
+        notifier.register(null, "user.", 200, true, DIRECT, prefix);
+        notifier.register(Collections.singleton("token"), null, 200, false, DIRECT, keys);
+        assertTrue(notifier.hasListeners());
+
+        notifier.saved("user.name", bytes("first"));
+        notifier.saved("token", bytes("secret"));
+        notifier.saved("user.mail", bytes("mail"));
+        notifier.saved("user.name", bytes("second"));
+        notifier.removed(Arrays.asList("user.mail", "other"));
+
+        List<String> delivered = prefix.next();
+        assertEquals(Arrays.asList("user.name=second", "user.mail=removed"), delivered);
+        assertEquals(Collections.singletonList("token=null"), keys.next());
+        assertNull(prefix.deliveries.poll(300, TimeUnit.MILLISECONDS));
+
+        // The next change opens a new window
+        notifier.saved("user.name", bytes("third"));
+        assertEquals(Collections.singletonList("user.name=third"), prefix.next());
+    }
+
+    @Test
+    public void shouldDropChangesOfRemovedListener() throws InterruptedException {
+        ChangeNotifier notifier = new ChangeNotifier();
+        Recorder recorder = new Recorder();
+        notifier.register(null, "", 100, false, DIRECT, recorder);
+        notifier.saved("key", bytes("value"));
+        notifier.unregister(recorder);
+        assertFalse(notifier.hasListeners());
+        assertNull(recorder.deliveries.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldWipeValuesAfterDelivery() throws InterruptedException {
+        ChangeNotifier notifier = new ChangeNotifier();
+        final List<ChangeEvent> events = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+                delivered.countDown();
+            }
+        };
+        notifier.register(null, "", 0, true, executor, new ChangeListener() {
+            @Override
+            public void onChanged(List<ChangeEvent> changes) {
+                values.add(changes.get(0).getValue());
+                events.add(changes.get(0));
+            }
+        });
+        byte[] value = bytes("secret");
+        notifier.saved("key", value);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("secret"), values);
+        assertEquals("secret", new String(value, StandardCharsets.UTF_8));
+        assertEquals(0, events.get(0).getBytes()[0]);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Recorder implements ChangeListener {
+
+        final BlockingQueue<List<String>> deliveries = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChanged(List<ChangeEvent> changes) {
+            List<String> delivery = new ArrayList<>();
+            for (ChangeEvent change : changes) {
+                delivery.add(change.getKey() + "=" + (change.isRemoved() ? "removed" : change.getValue()));
+            }
+            deliveries.add(delivery);
+        }
+
+        List<String> next() throws InterruptedException {
+            List<String> delivery = deliveries.poll(5, TimeUnit.SECONDS);
+            assertNotNull(delivery);
+            return delivery;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.epam.securestorage.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for the chunk encrypted streams
+ */
+public class ChunkedStreamTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private ChunkCipher chunkCipher;
+
+    @Before
+    public void before() throws Exception {
+        chunkCipher = new AesGcmChunkCipher(new SecretKeySpec(new byte[16], "AES"));
+    }
+
+    @Test
+    public void shouldRoundTripSeveralChunks() throws IOException {
+        byte[] payload = randomBytes(CHUNK_SIZE * 3 + 17);
+        assertArrayEquals(payload, decrypt(encrypt(payload)));
+    }
+
+    @Test
+    public void shouldRoundTripExactChunkMultiple() throws IOException {
+        byte[] payload = randomBytes(CHUNK_SIZE * 2);
+        assertArrayEquals(payload, decrypt(encrypt(payload)));
+    }
+
+    @Test
+    public void shouldRoundTripEmptyStream() throws IOException {
+        assertArrayEquals(new byte[0], decrypt(encrypt(new byte[0])));
+    }
+
+    @Test
+    public void shouldDetectTruncation() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(CHUNK_SIZE * 3));
+        // Three full chunks of equal size, drops the final one and keeps the others intact
+        int chunkLength = (encrypted.length - ChunkedEncryptingOutputStream.HEADER_SIZE) / 3;
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - chunkLength);
+        assertFails(truncated);
+    }
+
+    @Test
+    public void shouldDetectTampering() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(CHUNK_SIZE * 2));
+        encrypted[encrypted.length - 5] ^= 1;
+        assertFails(encrypted);
+    }
+
+    @Test
+    public void shouldDetectForeignFinalChunk() throws IOException {
+        // Replacing the tail by the final chunk of another stream must fail, the stream ids differ
+        byte[] first = encrypt(randomBytes(CHUNK_SIZE));
+        byte[] second = encrypt(randomBytes(CHUNK_SIZE));
+        System.arraycopy(second, ChunkedEncryptingOutputStream.HEADER_SIZE, first,
+                ChunkedEncryptingOutputStream.HEADER_SIZE, first.length - ChunkedEncryptingOutputStream.HEADER_SIZE);
+        assertFails(first);
+    }
+
+    private byte[] encrypt(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new ChunkedEncryptingOutputStream(bytes, chunkCipher, CHUNK_SIZE);
+        // Uneven writes cross the chunk borders
+        for (int offset = 0; offset < payload.length; offset += 33) {
+            out.write(payload, offset, Math.min(33, payload.length - offset));
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        InputStream in = new ChunkedDecryptingInputStream(new ByteArrayInputStream(encrypted), chunkCipher);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    private void assertFails(byte[] encrypted) {
+        try {
+            decrypt(encrypted);
+            fail("Corrupted stream was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
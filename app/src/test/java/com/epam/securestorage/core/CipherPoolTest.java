@@ -0,0 +1,99 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Multi-threaded stress test for the Cipher pool
+ */
+public class CipherPoolTest {
+
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void shouldReusePooledCipher() throws Exception {
+        CipherPool pool = CipherPool.of("AES/CTR/NoPadding", null);
+        Cipher cipher = pool.acquire();
+        pool.release(cipher);
+        assertSame(cipher, pool.acquire());
+        assertSame(pool, CipherPool.of("AES/CTR/NoPadding", null));
+    }
+
+    @Test
+    public void shouldNeverShareCipherBetweenThreads() throws Exception {
+        final CipherPool pool = CipherPool.of(TRANSFORMATION, null);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        final SecretKey key = generator.generateKey();
+        final Set<Cipher> borrowed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Cipher, Boolean>()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    SecureRandom random = new SecureRandom();
+                    int verified = 0;
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        byte[] plain = ("thread" + thread + "value" + i).getBytes(StandardCharsets.UTF_8);
+                        byte[] iv = new byte[16];
+                        random.nextBytes(iv);
+
+                        Cipher cipher = pool.acquire();
+                        assertTrue("Cipher handed out twice", borrowed.add(cipher));
+                        byte[] encrypted;
+                        try {
+                            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+                            encrypted = cipher.doFinal(plain);
+                        } finally {
+                            borrowed.remove(cipher);
+                            pool.release(cipher);
+                        }
+
+                        cipher = pool.acquire();
+                        assertTrue("Cipher handed out twice", borrowed.add(cipher));
+                        try {
+                            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+                            assertEquals(new String(plain, StandardCharsets.UTF_8),
+                                    new String(cipher.doFinal(encrypted), StandardCharsets.UTF_8));
+                        } finally {
+                            borrowed.remove(cipher);
+                            pool.release(cipher);
+                        }
+                        verified++;
+                    }
+                    return verified;
+                }
+            }));
+        }
+        for (Future<Integer> result : results) {
+            assertEquals(ITERATIONS, (int) result.get());
+        }
+        executor.shutdown();
+        assertTrue(pool.getIdleCount() <= THREADS);
+    }
+}
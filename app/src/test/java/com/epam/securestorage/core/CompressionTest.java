@@ -0,0 +1,56 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the value compression
+ */
+public class CompressionTest {
+
+    @Test
+    public void shouldRoundTripCompressibleValue() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            json.append("{\"flag\":\"feature_").append(i).append("\",\"enabled\":").append(i % 3 == 0).append("},");
+        }
+        byte[] value = json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = Compression.deflate(value, 256);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < value.length / 2);
+        byte[] framed = new byte[compressed.length + 3];
+        System.arraycopy(compressed, 0, framed, 2, compressed.length);
+        assertArrayEquals(value, Compression.inflate(framed, 2, compressed.length));
+    }
+
+    @Test
+    public void shouldSkipSmallOrIncompressibleValues() {
+        byte[] text = new byte[1024];
+        Arrays.fill(text, (byte) 'a');
+        assertNull(Compression.deflate(text, Compression.DISABLED));
+        assertNull(Compression.deflate(text, 2048));
+
+        byte[] random = new byte[1024];
+        new Random(7).nextBytes(random);
+        assertNull(Compression.deflate(random, 0));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectCorruptedValue() throws IOException {
+        byte[] text = new byte[1024];
+        Arrays.fill(text, (byte) 'a');
+        byte[] compressed = Compression.deflate(text, 0);
+        compressed[compressed.length - 1] ^= 1;
+        Compression.inflate(compressed, 0, compressed.length);
+    }
+}
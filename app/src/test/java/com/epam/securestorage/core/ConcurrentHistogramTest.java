@@ -0,0 +1,93 @@
+package com.epam.securestorage.core;
+
+import com.epam.securestorage.core.OperationTrace.Phase;
+import com.epam.securestorage.core.SecureStorageCallback.ActionType;
+import com.epam.securestorage.core.SecurityProvider.Type;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the histogram and the metrics recorder
+ */
+public class ConcurrentHistogramTest {
+
+    @Test
+    public void shouldMapValuesToBucketBounds() {
+        for (long value = 0; value < 1 << 20; value += 7) {
+            long upper = ConcurrentHistogram.upperBoundOf(ConcurrentHistogram.bucketOf(value));
+            assertTrue(upper >= value);
+            // Relative error is bounded by the 16 sub-buckets of every power of two
+            assertTrue(upper - value <= value / 16);
+        }
+        assertTrue(ConcurrentHistogram.upperBoundOf(ConcurrentHistogram.bucketOf(Long.MAX_VALUE)) >= 0);
+    }
+
+    @Test
+    public void shouldReportPercentiles() {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertWithin(500000, histogram.getPercentile(0.5));
+        assertWithin(990000, histogram.getPercentile(0.99));
+        assertEquals(1000000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void shouldRecordConcurrently() throws InterruptedException {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+    }
+
+    @Test
+    public void shouldRecordTracesPerTypeAndAction() {
+        HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+        OperationTrace trace = OperationTrace.start(recorder, Type.CIPHER, ActionType.GET);
+        trace.mark(Phase.STORAGE);
+        trace.mark(Phase.CIPHER);
+        trace.addPayload(32);
+        trace.finish(true);
+
+        assertEquals(1, recorder.getLatency(Type.CIPHER, ActionType.GET).getCount());
+        assertEquals(1, recorder.getLatency(Type.CIPHER, ActionType.GET, Phase.STORAGE).getCount());
+        assertEquals(0, recorder.getLatency(Type.CIPHER, ActionType.GET, Phase.KEY).getCount());
+        assertEquals(32, recorder.getPayloadSize(Type.CIPHER, ActionType.GET).getMax());
+        assertEquals(0, recorder.getLatency(Type.THEMIS, ActionType.GET).getCount());
+        assertTrue(recorder.toString().startsWith("CIPHER GET n=1 failed=0"));
+    }
+
+    @Test
+    public void shouldShareNoOpTraceWithoutListener() {
+        OperationTrace trace = OperationTrace.start(null, Type.THEMIS, ActionType.SAVE);
+        assertSame(trace, OperationTrace.start(null, Type.CIPHER, ActionType.GET));
+        trace.mark(Phase.KEY);
+        trace.finish(true);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " != " + expected, Math.abs(actual - expected) <= expected / 16);
+    }
+}
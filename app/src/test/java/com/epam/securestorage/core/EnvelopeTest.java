@@ -0,0 +1,79 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the encrypted entry envelope
+ */
+public class EnvelopeTest {
+
+    @Test
+    public void shouldRoundTripIvAndCiphertext() {
+        byte[] iv = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        byte[] ciphertext = {-1, -2, -3};
+        byte[] data = Envelope.encode(Envelope.ALGORITHM_AES_CBC, iv, ciphertext);
+        assertEquals(3 + iv.length + ciphertext.length, data.length);
+
+        Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_CBC);
+        assertNotNull(envelope);
+        assertArrayEquals(iv, Arrays.copyOfRange(data, envelope.getIvOffset(), envelope.getIvOffset() + envelope.getIvLength()));
+        assertArrayEquals(ciphertext, Arrays.copyOfRange(data, envelope.getPayloadOffset(), envelope.getPayloadOffset() + envelope.getPayloadLength()));
+    }
+
+    @Test
+    public void shouldEncodeWithoutIv() {
+        byte[] data = Envelope.encode(Envelope.ALGORITHM_RSA_ECB, null, new byte[]{7});
+        Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_RSA_ECB);
+        assertNotNull(envelope);
+        assertEquals(0, envelope.getIvLength());
+        assertEquals(1, envelope.getPayloadLength());
+    }
+
+    @Test
+    public void shouldKeepKeyVersion() {
+        byte[] iv = {1, 2, 3};
+        byte[] ciphertext = {-1, -2};
+        assertArrayEquals(Envelope.encode(Envelope.ALGORITHM_AES_GCM, iv, ciphertext),
+                Envelope.encode(Envelope.ALGORITHM_AES_GCM, 0, iv, ciphertext));
+
+        byte[] data = Envelope.encode(Envelope.ALGORITHM_AES_GCM, 258, iv, ciphertext);
+        Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_GCM);
+        assertNotNull(envelope);
+        assertEquals(258, envelope.getKeyVersion());
+        assertArrayEquals(iv, Arrays.copyOfRange(data, envelope.getIvOffset(), envelope.getIvOffset() + envelope.getIvLength()));
+        assertArrayEquals(ciphertext, Arrays.copyOfRange(data, envelope.getPayloadOffset(), envelope.getPayloadOffset() + envelope.getPayloadLength()));
+        assertEquals(0, Envelope.parse(Envelope.encode(Envelope.ALGORITHM_AES_GCM, iv, ciphertext), Envelope.ALGORITHM_AES_GCM).getKeyVersion());
+    }
+
+    @Test
+    public void shouldKeepCompressionFlag() {
+        byte[] data = Envelope.encode(Envelope.ALGORITHM_AES_GCM, Envelope.FLAG_COMPRESSED, 3, new byte[]{1, 2}, new byte[]{-1});
+        Envelope envelope = Envelope.parse(data, Envelope.ALGORITHM_AES_GCM);
+        assertNotNull(envelope);
+        assertTrue(envelope.isCompressed());
+        assertEquals(3, envelope.getKeyVersion());
+        assertEquals(1, envelope.getPayloadLength());
+        assertFalse(Envelope.parse(Envelope.encode(Envelope.ALGORITHM_AES_GCM, 3, new byte[]{1, 2}, new byte[]{-1}),
+                Envelope.ALGORITHM_AES_GCM).isCompressed());
+        assertNull(Envelope.parse(data, Envelope.ALGORITHM_AES_CBC));
+    }
+
+    @Test
+    public void shouldRejectForeignData() {
+        byte[] data = Envelope.encode(Envelope.ALGORITHM_THEMIS_SEAL, null, new byte[]{7});
+        assertNull(Envelope.parse(data, Envelope.ALGORITHM_AES_CBC));
+        assertNull(Envelope.parse(new byte[]{0, 1, 0, 5}, Envelope.ALGORITHM_AES_CBC));
+        assertNull(Envelope.parse(new byte[]{(byte) 0xA1, 1, 16, 5}, Envelope.ALGORITHM_AES_CBC));
+        assertNull(Envelope.parse(new byte[]{(byte) 0xA2, 1, 0, 1}, Envelope.ALGORITHM_AES_CBC));
+        assertNull(Envelope.parse(null, Envelope.ALGORITHM_AES_CBC));
+    }
+}
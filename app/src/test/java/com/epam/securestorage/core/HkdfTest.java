@@ -0,0 +1,50 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Local unit test for the HKDF key derivation
+ */
+public class HkdfTest {
+
+    @Test
+    public void shouldMatchRfc5869TestCase1() throws GeneralSecurityException {
+        byte[] inputKey = new byte[22];
+        Arrays.fill(inputKey, (byte) 0x0b);
+        byte[] salt = hex("000102030405060708090a0b0c");
+        byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+        byte[] expected = hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865");
+        assertArrayEquals(expected, Hkdf.derive(inputKey, salt, info, 42));
+    }
+
+    @Test
+    public void shouldMatchRfc5869TestCase3() throws GeneralSecurityException {
+        byte[] inputKey = new byte[22];
+        Arrays.fill(inputKey, (byte) 0x0b);
+        byte[] expected = hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8");
+        assertArrayEquals(expected, Hkdf.derive(inputKey, null, new byte[0], 42));
+    }
+
+    @Test
+    public void shouldDeriveDistinctSubkeys() throws GeneralSecurityException {
+        byte[] master = new byte[32];
+        byte[] first = Hkdf.derive(master, null, "first".getBytes(StandardCharsets.UTF_8), 32);
+        byte[] second = Hkdf.derive(master, null, "second".getBytes(StandardCharsets.UTF_8), 32);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    private static byte[] hex(String value) {
+        byte[] result = new byte[value.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+}
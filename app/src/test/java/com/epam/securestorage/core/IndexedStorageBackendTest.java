@@ -0,0 +1,134 @@
+package com.epam.securestorage.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the in-memory key index
+ */
+public class IndexedStorageBackendTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStorageBackend log;
+    private IndexedStorageBackend indexed;
+
+    @Before
+    public void before() {
+        log = new LogStorageBackend(new File(folder.getRoot(), "store.log"), DIRECT);
+        indexed = new IndexedStorageBackend(log, "P");
+    }
+
+    @After
+    public void after() throws IOException {
+        log.close();
+    }
+
+    @Test
+    public void shouldBuildIndexFromStoredKeys() {
+        log.edit().putString("Pa", "1").putString("Pb", "2").putString("other", "3").commit();
+        assertEquals(2, indexed.entryCount());
+        assertTrue(indexed.contains("Pa"));
+        assertTrue(indexed.contains("other"));
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(indexed.entryKeys("").toArray()));
+    }
+
+    @Test
+    public void shouldFollowEditorChanges() {
+        assertEquals(0, indexed.entryCount());
+        indexed.edit().putString("Puser.1", "1").putString("Puser.2", "2").putString("Pother", "3").apply();
+        indexed.edit().putString("Puser.1", "4").commit();
+        assertEquals(3, indexed.entryCount());
+        assertEquals(Arrays.asList("user.1", "user.2"), Arrays.asList(indexed.entryKeys("user.").toArray()));
+
+        indexed.edit().remove("Puser.1").remove("Pmissing").commit();
+        assertFalse(indexed.contains("Puser.1"));
+        assertEquals(2, indexed.entryCount());
+
+        indexed.edit().clear().putString("Pnew", "5").commit();
+        assertEquals(1, indexed.entryCount());
+        assertEquals(Arrays.asList("new"), Arrays.asList(indexed.entryKeys("").toArray()));
+    }
+
+    @Test
+    public void shouldRebuildAfterReset() {
+        indexed.edit().putString("Pa", "1").commit();
+        assertEquals(1, indexed.entryCount());
+
+        // Bypasses the index
+        log.edit().putString("Pb", "2").commit();
+        assertFalse(indexed.contains("Pb"));
+        indexed.resetIndex();
+        assertTrue(indexed.contains("Pb"));
+        assertEquals(2, indexed.entryCount());
+    }
+
+    @Test
+    public void shouldPageThroughIndexedKeys() {
+        indexed.edit().putString("Pc", "3").putString("Pa", "1").putString("Pb", "2").putString("other", "4").apply();
+        assertEquals(Arrays.asList("Pa", "Pb"), indexed.indexedKeysAfter(null, 2));
+        assertEquals(Arrays.asList("Pc"), indexed.indexedKeysAfter("Pb", 2));
+        assertEquals(Collections.<String>emptyList(), indexed.indexedKeysAfter("Pc", 2));
+    }
+
+    @Test
+    public void shouldReplaceOnlyUnchangedEntries() {
+        indexed.edit().putString("Pa", "1").putString("Pb", "2").commit();
+        Map<String, String> expected = new HashMap<>();
+        expected.put("Pa", "1");
+        expected.put("Pb", "2");
+        expected.put("Pc", "3");
+        Map<String, String> replacements = new HashMap<>();
+        replacements.put("Pa", "1'");
+        replacements.put("Pb", "2'");
+        replacements.put("Pc", "3'");
+
+        // Written meanwhile, must win over the replacement
+        indexed.edit().putString("Pb", "new").commit();
+        assertEquals(1, indexed.replaceUnchanged(expected, replacements, indexed.edit().putString("state", "x")));
+        assertEquals("1'", log.getString("Pa", null));
+        assertEquals("new", log.getString("Pb", null));
+        assertNull(log.getString("Pc", null));
+        assertEquals("x", log.getString("state", null));
+        assertEquals(2, indexed.entryCount());
+    }
+
+    @Test
+    public void shouldShareIndexBetweenInstancesOfOneBackend() {
+        IndexedStorageBackend other = new IndexedStorageBackend(log, "P");
+        assertEquals(0, indexed.entryCount());
+        assertEquals(0, other.entryCount());
+
+        indexed.edit().putString("Pa", "1").commit();
+        assertTrue(other.contains("Pa"));
+        assertEquals(1, other.entryCount());
+        other.edit().putString("Pb", "2").remove("Pa").commit();
+        assertFalse(indexed.contains("Pa"));
+        assertEquals(Collections.singletonList("b"), Arrays.asList(indexed.entryKeys("").toArray()));
+        assertEquals(1, indexed.entryCount());
+    }
+}
@@ -0,0 +1,121 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the striped key locks
+ */
+public class KeyLocksTest {
+
+    @Test
+    public void shouldRoundStripesUpToPowerOfTwo() {
+        assertEquals(1, new KeyLocks(1).getStripeCount());
+        assertEquals(8, new KeyLocks(5).getStripeCount());
+        assertEquals(64, new KeyLocks(64).getStripeCount());
+    }
+
+    @Test
+    public void shouldSerializeOperationsOnOneKey() throws InterruptedException {
+        final KeyLocks locks = new KeyLocks(KeyLocks.DEFAULT_STRIPES);
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        locks.lock("token");
+                        try {
+                            if (inside.incrementAndGet() > 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            inside.decrementAndGet();
+                        } finally {
+                            locks.unlock("token");
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    public void shouldNotBlockKeysOfOtherStripes() throws InterruptedException {
+        final KeyLocks locks = new KeyLocks(KeyLocks.DEFAULT_STRIPES);
+        final String other = keyOfOtherStripe(locks, "token");
+        final CountDownLatch done = new CountDownLatch(1);
+        locks.lock("token");
+        try {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock(other);
+                    locks.unlock(other);
+                    done.countDown();
+                }
+            }).start();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            locks.unlock("token");
+        }
+    }
+
+    @Test
+    public void shouldLockSeveralKeysWithoutDeadlock() throws InterruptedException {
+        final KeyLocks locks = new KeyLocks(KeyLocks.DEFAULT_STRIPES);
+        final List<String> forward = Arrays.asList("a", "b", "c", "d");
+        final List<String> backward = Arrays.asList("d", "c", "b", "a");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final List<String> keys = t % 2 == 0 ? forward : backward;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        locks.unlock(locks.lock(keys));
+                        locks.lock("c");
+                        locks.unlock("c");
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+        // Every stripe is released, erase can lock all of them
+        locks.unlock(locks.lockAll());
+        assertEquals(0, locks.lock(Collections.<String>emptyList()).length);
+    }
+
+    private static String keyOfOtherStripe(KeyLocks locks, String key) {
+        int[] stripe = locks.lock(Collections.singleton(key));
+        locks.unlock(stripe);
+        for (int i = 0; ; i++) {
+            String candidate = key + i;
+            int[] other = locks.lock(Collections.singleton(candidate));
+            locks.unlock(other);
+            if (other[0] != stripe[0]) {
+                return candidate;
+            }
+        }
+    }
+}
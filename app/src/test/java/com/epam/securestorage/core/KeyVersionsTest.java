@@ -0,0 +1,145 @@
+package com.epam.securestorage.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the key version bookkeeping
+ */
+public class KeyVersionsTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStorageBackend log;
+
+    @Before
+    public void before() {
+        log = new LogStorageBackend(new File(folder.getRoot(), "store.log"), DIRECT);
+    }
+
+    @After
+    public void after() throws IOException {
+        log.close();
+    }
+
+    @Test
+    public void shouldRotateThroughVersions() throws IOException {
+        KeyVersions versions = KeyVersions.forAlias(log, "rotate");
+        assertEquals(0, versions.getCurrent());
+        assertEquals("rotate", versions.aliasOf(0));
+        assertFalse(versions.isRotationPending());
+
+        String next = versions.aliasOf(1);
+        assertTrue(next.matches("rotate_[0-9a-f]{8}_v1"));
+        assertEquals(1, versions.begin());
+        assertEquals(next, versions.aliasOf(versions.getCurrent()));
+        assertEquals(0, versions.getOldest());
+        assertTrue(versions.isRotationPending());
+
+        StorageBackend.Editor editor = log.edit();
+        versions.checkpoint(editor, "CIPHERkey");
+        editor.commit();
+        assertEquals("CIPHERkey", versions.getCheckpoint());
+
+        versions.finish();
+        assertFalse(versions.isRotationPending());
+        assertNull(versions.getCheckpoint());
+        assertEquals(1, versions.getOldest());
+
+        versions.reset();
+        assertEquals(0, versions.getCurrent());
+    }
+
+    @Test
+    public void shouldResumeFromPersistedCheckpoint() {
+        // As left by a rotation the process died in
+        log.edit().putString("SecureStorageKeyVersions_resume", "2:1:CIPHERb").commit();
+        KeyVersions versions = KeyVersions.forAlias(log, "resume");
+        assertEquals(2, versions.getCurrent());
+        assertEquals(1, versions.getOldest());
+        assertEquals("CIPHERb", versions.getCheckpoint());
+        assertTrue(versions.isRotationPending());
+        // Rotated before the stores were tagged, the existing keys keep their names
+        assertEquals("resume_v2", versions.aliasOf(2));
+    }
+
+    @Test
+    public void shouldKeepVersionsOfStoresApart() throws IOException {
+        LogStorageBackend other = new LogStorageBackend(new File(folder.getRoot(), "other.log"), DIRECT);
+        try {
+            KeyVersions first = KeyVersions.forAlias(log, "shared");
+            KeyVersions second = KeyVersions.forAlias(other, "shared");
+            assertNotSame(first, second);
+            assertSame(first, KeyVersions.forAlias(new IndexedStorageBackend(log, "CIPHER"), "shared"));
+
+            first.begin();
+            assertEquals(0, second.getCurrent());
+            assertEquals("shared", second.aliasOf(0));
+            assertNotEquals(first.aliasOf(1), second.aliasOf(1));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void shouldHoldRotationUntilWritesComplete() throws Exception {
+        final KeyVersions versions = KeyVersions.forAlias(log, "pinned");
+        assertEquals(0, versions.lockCurrent());
+        Thread rotation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    versions.begin();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        rotation.start();
+        rotation.join(200);
+        assertTrue(rotation.isAlive());
+        versions.unlockCurrent();
+        rotation.join(5000);
+        assertEquals(1, versions.getCurrent());
+    }
+
+    @Test
+    public void shouldReleaseBackendOfUnusedVersions() throws Exception {
+        LogStorageBackend other = new LogStorageBackend(new File(folder.getRoot(), "released.log"), DIRECT);
+        KeyVersions.forAlias(other, "released").begin();
+        WeakReference<LogStorageBackend> backend = new WeakReference<>(other);
+        other.close();
+        other = null;
+        for (int i = 0; i < 50 && backend.get() != null; i++) {
+            System.gc();
+            // Creating an instance drops the unused ones
+            KeyVersions.forAlias(log, "trigger" + i);
+            Thread.sleep(10);
+        }
+        assertNull(backend.get());
+    }
+}
@@ -0,0 +1,190 @@
+package com.epam.securestorage.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the append-only log backend
+ */
+public class LogStorageBackendTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void before() {
+        file = new File(folder.getRoot(), "store.log");
+    }
+
+    @Test
+    public void shouldRecoverCommittedEntries() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("a", "1").putString("b", "2").commit();
+        backend.edit().putString("a", "3").remove("b").apply();
+        backend.close();
+
+        LogStorageBackend reopened = new LogStorageBackend(file, DIRECT);
+        assertEquals("3", reopened.getString("a", null));
+        assertFalse(reopened.contains("b"));
+        assertEquals("default", reopened.getString("b", "default"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldDropTornBatch() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("a", "1").commit();
+        long committedSize = file.length();
+        backend.edit().putString("a", "2").putString("b", "2").commit();
+        backend.close();
+
+        // Cuts off the COMMIT record of the second batch, none of its changes may survive
+        truncate(file, file.length() - 5);
+        LogStorageBackend reopened = new LogStorageBackend(file, DIRECT);
+        assertEquals("1", reopened.getString("a", null));
+        assertNull(reopened.getString("b", null));
+        assertEquals(committedSize, file.length());
+
+        reopened.edit().putString("c", "3").commit();
+        reopened.close();
+        reopened = new LogStorageBackend(file, DIRECT);
+        assertEquals("3", reopened.getString("c", null));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldApplyBatchAllOrNothingAtEveryCrashPoint() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("token", "old").putString("refresh", "old").putString("expiry", "1").commit();
+        long committed = file.length();
+        backend.edit().putString("token", "new").putString("refresh", "new").remove("expiry").commit();
+        backend.close();
+        byte[] log = Files.readAllBytes(file.toPath());
+
+        File crashed = new File(folder.getRoot(), "crashed.log");
+        for (int length = (int) committed; length <= log.length; length++) {
+            Files.write(crashed.toPath(), Arrays.copyOf(log, length));
+            LogStorageBackend reopened = new LogStorageBackend(crashed, DIRECT);
+            boolean applied = length == log.length;
+            assertEquals(applied ? "new" : "old", reopened.getString("token", null));
+            assertEquals(applied ? "new" : "old", reopened.getString("refresh", null));
+            assertEquals(applied ? null : "1", reopened.getString("expiry", null));
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void shouldDropCorruptedRecord() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("a", "1").commit();
+        backend.edit().putString("a", "value").commit();
+        backend.close();
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        // Flips a byte of the last value, its checksum no longer matches
+        raw.seek(file.length() - 14);
+        int b = raw.read();
+        raw.seek(file.length() - 14);
+        raw.write(b ^ 1);
+        raw.close();
+
+        LogStorageBackend reopened = new LogStorageBackend(file, DIRECT);
+        assertEquals("1", reopened.getString("a", null));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldClearBeforeOtherChanges() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("a", "1").commit();
+        backend.edit().putString("b", "2").clear().commit();
+        assertFalse(backend.contains("a"));
+        assertEquals("2", backend.getString("b", null));
+        backend.close();
+    }
+
+    @Test
+    public void shouldCompactOverwrittenRecords() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append('x');
+        }
+        for (int i = 0; i < 500; i++) {
+            backend.edit().putString("key" + (i % 10), value.toString() + i).apply();
+        }
+        // Compaction kicks in once most of the log is garbage, it runs inline here
+        assertTrue(backend.getFileSize() < 64 * 1024 + 20 * 1024);
+        for (int i = 490; i < 500; i++) {
+            assertEquals(value.toString() + i, backend.getString("key" + (i % 10), null));
+        }
+        backend.compact();
+        assertTrue(backend.getFileSize() < 11 * 1024);
+        backend.close();
+
+        LogStorageBackend reopened = new LogStorageBackend(file, DIRECT);
+        assertEquals(value.toString() + 499, reopened.getString("key9", null));
+        assertEquals(backend.getFileSize(), file.length());
+        reopened.close();
+    }
+
+    @Test
+    public void shouldNotCreateFileBeforeFirstWrite() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(new File(folder.getRoot(), "lazy/store.log"), DIRECT);
+        assertNull(backend.getString("a", null));
+        assertTrue(backend.keys().isEmpty());
+        assertFalse(new File(folder.getRoot(), "lazy").exists());
+
+        backend.edit().putString("a", "1").commit();
+        assertEquals("1", backend.getString("a", null));
+        backend.close();
+    }
+
+    @Test
+    public void shouldDestroyLog() throws IOException {
+        LogStorageBackend backend = new LogStorageBackend(file, DIRECT);
+        backend.edit().putString("a", "1").putString("b", "2").commit();
+        assertEquals(2, backend.keys().size());
+
+        backend.destroy();
+        assertFalse(file.exists());
+        assertFalse(backend.contains("a"));
+        assertTrue(backend.keys().isEmpty());
+
+        backend.edit().putString("c", "3").commit();
+        backend.close();
+        LogStorageBackend reopened = new LogStorageBackend(file, DIRECT);
+        assertNull(reopened.getString("a", null));
+        assertEquals("3", reopened.getString("c", null));
+        reopened.close();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(length);
+        raw.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the coalescing rewrite queue
+ */
+public class RewriteQueueTest {
+
+    @Test
+    public void shouldCoalesceQueuedKeys() throws InterruptedException {
+        final List<List<String>> batches = new ArrayList<>();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        RewriteQueue queue = new RewriteQueue(new RewriteQueue.Rewriter() {
+            @Override
+            public int rewrite(List<String> keys) {
+                synchronized (batches) {
+                    batches.add(new ArrayList<>(keys));
+                }
+                flushed.countDown();
+                return keys.size();
+            }
+        }, 100);
+        queue.enqueue("a");
+        queue.enqueue("b");
+        queue.enqueue("a");
+        assertEquals(2, queue.getPendingCount());
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        synchronized (batches) {
+            assertEquals(Arrays.asList(Arrays.asList("a", "b")), batches);
+        }
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void shouldFlushInBoundedBatches() {
+        final List<Integer> sizes = new ArrayList<>();
+        RewriteQueue queue = new RewriteQueue(new RewriteQueue.Rewriter() {
+            @Override
+            public int rewrite(List<String> keys) throws IOException {
+                sizes.add(keys.size());
+                if (sizes.size() == 2) {
+                    throw new IOException("Disk full");
+                }
+                return keys.size();
+            }
+        }, TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 150; i++) {
+            queue.enqueue("key" + i);
+        }
+        queue.flush();
+        assertEquals(Arrays.asList(64, 64, 22), sizes);
+        // The failed batch is dropped, reading those entries queues them again
+        assertEquals(86, queue.getRewrittenCount());
+        assertEquals(0, queue.getPendingCount());
+    }
+}
@@ -0,0 +1,76 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for the typed value encoding
+ */
+public class TypedValuesTest {
+
+    @Test
+    public void shouldRoundTripNumbers() throws SecureStorageException {
+        assertEquals(5, TypedValues.encodeInt(0).length);
+        assertEquals(Integer.MIN_VALUE, TypedValues.decodeInt(TypedValues.encodeInt(Integer.MIN_VALUE)));
+        assertEquals(1539763200000L, TypedValues.decodeLong(TypedValues.encodeLong(1539763200000L)));
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits(TypedValues.decodeDouble(TypedValues.encodeDouble(-0.0))));
+        assertTrue(Double.isNaN(TypedValues.decodeDouble(TypedValues.encodeDouble(Double.NaN))));
+        assertTrue(TypedValues.decodeBoolean(TypedValues.encodeBoolean(true)));
+        assertFalse(TypedValues.decodeBoolean(TypedValues.encodeBoolean(false)));
+    }
+
+    @Test
+    public void shouldRoundTripStringSet() throws SecureStorageException {
+        Set<String> value = new HashSet<>(Arrays.asList("", "first", "\u00fcn\u00efc\u00f6d\u00e9", "with,comma"));
+        assertEquals(value, TypedValues.decodeStringSet(TypedValues.encodeStringSet(value)));
+        assertEquals(Collections.<String>emptySet(), TypedValues.decodeStringSet(TypedValues.encodeStringSet(Collections.<String>emptySet())));
+    }
+
+    @Test
+    public void shouldDetectTypeMismatch() {
+        assertRejected(TypedValues.encodeLong(1), TypedValues.TAG_INT);
+        assertRejected(TypedValues.encodeInt(1), TypedValues.TAG_BOOLEAN);
+        assertRejected("12345".getBytes(StandardCharsets.UTF_8), TypedValues.TAG_INT);
+        assertRejected(new byte[0], TypedValues.TAG_STRING_SET);
+    }
+
+    @Test
+    public void shouldRejectCorruptedValues() {
+        assertRejected(Arrays.copyOf(TypedValues.encodeInt(1), 4), TypedValues.TAG_INT);
+        byte[] set = TypedValues.encodeStringSet(Collections.singleton("element"));
+        assertRejected(Arrays.copyOf(set, set.length - 1), TypedValues.TAG_STRING_SET);
+        assertRejected(Arrays.copyOf(set, set.length + 1), TypedValues.TAG_STRING_SET);
+        set[4] = 100;
+        assertRejected(set, TypedValues.TAG_STRING_SET);
+    }
+
+    private static void assertRejected(byte[] data, byte tag) {
+        try {
+            switch (tag) {
+                case TypedValues.TAG_INT:
+                    TypedValues.decodeInt(data);
+                    break;
+                case TypedValues.TAG_BOOLEAN:
+                    TypedValues.decodeBoolean(data);
+                    break;
+                default:
+                    TypedValues.decodeStringSet(data);
+                    break;
+            }
+            fail("Value must be rejected");
+        } catch (SecureStorageException e) {
+            // expected
+        }
+    }
+}
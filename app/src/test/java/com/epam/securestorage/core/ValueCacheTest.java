@@ -0,0 +1,128 @@
+package com.epam.securestorage.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the decrypted values cache
+ */
+public class ValueCacheTest {
+
+    @Test
+    public void shouldReturnCachedValue() {
+        ValueCache cache = new ValueCache(64, 60_000);
+        cache.put("key", bytes("value"), cache.stamp());
+        assertEquals("value", cache.get("key"));
+        assertNull(cache.get("other"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedAndWipe() {
+        ValueCache cache = new ValueCache(8, 60_000);
+        byte[] first = bytes("1111");
+        cache.put("first", first, cache.stamp());
+        cache.put("second", bytes("2222"), cache.stamp());
+        cache.get("first");
+        cache.put("third", bytes("3333"), cache.stamp());
+
+        assertNull(cache.get("second"));
+        assertEquals("1111", cache.get("first"));
+        assertEquals(8, cache.getSizeBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.invalidateAll();
+        assertArrayEquals(new byte[4], first);
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void shouldExpireEntries() throws InterruptedException {
+        ValueCache cache = new ValueCache(64, 60_000);
+        cache.setTtl("short", 1);
+        byte[] value = bytes("value");
+        cache.put("short", value, cache.stamp());
+        Thread.sleep(5);
+        assertNull(cache.get("short"));
+        assertArrayEquals(new byte[5], value);
+    }
+
+    @Test
+    public void shouldDropValueLoadedBeforeInvalidation() {
+        ValueCache cache = new ValueCache(64, 60_000);
+        long stamp = cache.stamp();
+        cache.invalidate("key");
+        byte[] stale = bytes("stale");
+        cache.put("key", stale, stamp);
+        assertNull(cache.get("key"));
+        assertArrayEquals(new byte[5], stale);
+    }
+
+    @Test
+    public void shouldCopyIntoBuffer() {
+        ValueCache cache = new ValueCache(64, 60_000);
+        cache.put("key", bytes("secret"), cache.stamp());
+        ByteBuffer out = ByteBuffer.allocate(16);
+        out.put((byte) 1);
+
+        assertEquals(6, cache.get("key", out));
+        assertEquals(7, out.position());
+        assertEquals(-1, cache.get("other", out));
+        try {
+            cache.get("key", ByteBuffer.allocate(5));
+            throw new AssertionError("Value can't fit the buffer");
+        } catch (BufferOverflowException expected) {
+        }
+    }
+
+    @Test
+    public void shouldNotAllocateOnBufferHit() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        ValueCache cache = new ValueCache(1024, 60_000);
+        cache.put("key", new byte[32], cache.stamp());
+        ByteBuffer out = ByteBuffer.allocate(32);
+        int calls = 100_000;
+        // Warm up, so that JIT and class loading don't count
+        for (int i = 0; i < calls; i++) {
+            out.clear();
+            cache.get("key", out);
+            cache.get("key");
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            out.clear();
+            cache.get("key", out);
+        }
+        long bufferBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            cache.get("key");
+        }
+        long stringBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Buffer hit allocates " + bufferBytes / calls + " bytes per call", bufferBytes / calls < 8);
+        assertTrue(stringBytes > bufferBytes);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,152 @@
+package com.epam.securestorage.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the write-behind queue
+ */
+public class WriteBehindQueueTest {
+
+    @Test
+    public void shouldCoalesceSavesIntoOneWrite() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = new WriteBehindQueue(writer, 60000, 100);
+        byte[] first = bytes("1");
+        queue.put("nonce", first);
+        queue.put("nonce", bytes("2"));
+        queue.put("nonce", bytes("3"));
+        queue.put("other", bytes("x"));
+
+        // Replaced value is wiped, reads see the latest one
+        assertArrayEquals(new byte[1], first);
+        assertArrayEquals(bytes("3"), queue.get("nonce"));
+        assertTrue(queue.contains("other"));
+        assertEquals(Arrays.asList("nonce", "other"), new ArrayList<>(queue.keys("")));
+        assertEquals(2, queue.getPendingCount());
+
+        assertTrue(queue.flush(true));
+        assertEquals(1, writer.writes.size());
+        assertEquals("3", writer.writes.get(0).get("nonce"));
+        assertEquals(4, queue.getSaveCount());
+        assertEquals(2, queue.getCoalescedCount());
+        assertEquals(1, queue.getFlushCount());
+        assertNull(queue.get("nonce"));
+        assertFalse(queue.contains("other"));
+    }
+
+    @Test
+    public void shouldKeepValuesOfFailedFlush() {
+        RecordingWriter writer = new RecordingWriter();
+        writer.failing = true;
+        WriteBehindQueue queue = new WriteBehindQueue(writer, 60000, 100);
+        queue.put("a", bytes("old"));
+        queue.put("b", bytes("b"));
+
+        assertFalse(queue.flush(true));
+        assertEquals(1, queue.getFailedFlushCount());
+        assertArrayEquals(bytes("old"), queue.get("a"));
+
+        queue.put("a", bytes("new"));
+        writer.failing = false;
+        assertTrue(queue.flush(false));
+        Map<String, String> written = writer.writes.get(writer.writes.size() - 1);
+        assertEquals("new", written.get("a"));
+        assertEquals("b", written.get("b"));
+    }
+
+    @Test
+    public void shouldDropTakenKeysOnceWritten() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = new WriteBehindQueue(writer, 60000, 100);
+        byte[] a = bytes("a");
+        queue.put("a", a);
+        queue.put("b", bytes("b"));
+        Map<String, byte[]> taken = queue.take(Collections.singleton("a"));
+        assertNull(queue.get("a"));
+        queue.settle(taken, Collections.singleton("a"));
+        assertNull(queue.get("a"));
+        assertArrayEquals(new byte[1], a);
+
+        assertTrue(queue.flush(true));
+        assertEquals(Collections.singletonMap("b", "b"), writer.writes.get(0));
+
+        queue.put("c", bytes("c"));
+        taken = queue.takeAll();
+        assertEquals(0, queue.getPendingCount());
+        queue.settle(taken, taken.keySet());
+        assertTrue(queue.flush(true));
+        assertEquals(1, writer.writes.size());
+    }
+
+    @Test
+    public void shouldRestoreTakenValuesOfFailedWrite() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = new WriteBehindQueue(writer, 60000, 100);
+        queue.put("a", bytes("a"));
+        queue.put("b", bytes("old"));
+        Map<String, byte[]> taken = queue.take(Arrays.asList("a", "b"));
+        // A value saved meanwhile is newer than the taken one
+        queue.put("b", bytes("new"));
+        queue.settle(taken, Collections.<String>emptySet());
+        assertArrayEquals(bytes("a"), queue.get("a"));
+        assertArrayEquals(bytes("new"), queue.get("b"));
+
+        assertTrue(queue.flush(true));
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "a");
+        expected.put("b", "new");
+        assertEquals(expected, writer.writes.get(0));
+    }
+
+    @Test
+    public void shouldFlushAfterWindow() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = new WriteBehindQueue(writer, 50, 100);
+        queue.put("a", bytes("a"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.getFlushCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, queue.getFlushCount());
+        assertFalse(writer.durable);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class RecordingWriter implements WriteBehindQueue.Writer {
+        final List<Map<String, String>> writes = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+        volatile boolean failing;
+        volatile boolean durable = true;
+
+        @Override
+        public boolean write(Map<String, byte[]> values, boolean durable) {
+            if (failing) {
+                return false;
+            }
+            Map<String, String> written = new HashMap<>();
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                written.put(entry.getKey(), new String(entry.getValue(), StandardCharsets.UTF_8));
+            }
+            this.durable = durable;
+            writes.add(written);
+            return true;
+        }
+    }
+}
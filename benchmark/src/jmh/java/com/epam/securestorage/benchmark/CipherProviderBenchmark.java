@@ -0,0 +1,30 @@
+package com.epam.securestorage.benchmark;
+
+import com.epam.securestorage.core.KeySource;
+import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.providers.cipher.CipherEncryptionProvider;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Keystore AES keys by default, -jvmArgs -Dsecurestorage.sdkInt=21
+ * measures the pre-M path with an RSA wrapped data key. In the WRAPPED
+ * key mode operations don't go to the keystore, so the cold key access
+ * and the lookup latency don't affect it.
+ */
+public class CipherProviderBenchmark extends ProviderBenchmark {
+
+    @Param({"KEYSTORE", "WRAPPED"})
+    public KeySource.Mode keyMode;
+
+    @Override
+    protected SecurityProvider createProvider(BenchmarkEnvironment environment, StorageBackend storage) {
+        return new CipherEncryptionProvider(environment.getContext(), storage, KEY_ALIAS, keyMode, environment);
+    }
+
+    @Override
+    protected String[] keyAliases() {
+        return new String[]{KEY_ALIAS};
+    }
+}
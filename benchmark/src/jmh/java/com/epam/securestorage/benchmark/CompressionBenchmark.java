@@ -0,0 +1,128 @@
+package com.epam.securestorage.benchmark;
+
+import com.epam.securestorage.core.KeySource;
+import com.epam.securestorage.core.PreferencesStorageBackend;
+import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.providers.cipher.CipherEncryptionProvider;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Compression benchmark</h2>
+ * <b>Description:</b>
+ * Save and get of the Cipher provider with compression off
+ * (compressionThreshold -1) and on, for JSON-like and random values.
+ * Besides the latency, save counts the stored bytes, Base64 included,
+ * and the plain bytes it wrote, their ratio is the size on disk
+ * relative to the plaintext. -jvmArgs -Dsecurestorage.sdkInt=21
+ * measures the pre-M path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    private static final String KEY_ALIAS = "benchmark";
+    private static final String KEY = "compressed";
+
+    @Param({"1024", "16384"})
+    public int valueSize;
+
+    @Param({"json", "random"})
+    public String content;
+
+    @Param({"-1", "256"})
+    public int compressionThreshold;
+
+    @Param({"KEYSTORE", "WRAPPED"})
+    public KeySource.Mode keyMode;
+
+    private BenchmarkEnvironment environment;
+    private SecurityProvider provider;
+    private byte[] value;
+    private int storedSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+        provider = new CipherEncryptionProvider(environment.getContext(), new PreferencesStorageBackend(preferences),
+                KEY_ALIAS, keyMode, environment);
+        provider.setCompressionThreshold(compressionThreshold);
+        provider.warmUp();
+
+        value = "json".equals(content) ? json(valueSize) : random(valueSize);
+        provider.saveBytes(KEY, value);
+        environment.check();
+        // Every save of the value stores the same length, only the IV differs
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getKey().endsWith(KEY)) {
+                storedSize = ((String) entry.getValue()).length();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void check() {
+        environment.check();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long storedBytes;
+        public long plainBytes;
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return provider.getBytes(KEY);
+    }
+
+    @Benchmark
+    public void save(Footprint footprint) {
+        provider.saveBytes(KEY, value);
+        footprint.storedBytes += storedSize;
+        footprint.plainBytes += valueSize;
+    }
+
+    // Feature flags and settings alike, the kind of JSON apps keep in preferences
+    private static byte[] json(int size) {
+        Random random = new Random(size);
+        StringBuilder json = new StringBuilder(size + 64).append('[');
+        for (int i = 0; json.length() < size; i++) {
+            json.append("{\"id\":").append(i)
+                    .append(",\"flag\":\"feature_").append(Integer.toHexString(random.nextInt()))
+                    .append("\",\"enabled\":").append(random.nextBoolean())
+                    .append(",\"rollout\":").append(random.nextInt(101))
+                    .append("},");
+        }
+        return json.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] value = new byte[size];
+        new Random(size).nextBytes(value);
+        return value;
+    }
+}
@@ -0,0 +1,69 @@
+package com.epam.securestorage.benchmark;
+
+import android.util.Base64;
+
+import com.epam.securestorage.core.Envelope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Encoding benchmark</h2>
+ * <b>Description:</b>
+ * The envelope and Base64 steps every stored value goes through, without
+ * the cipher. Base64 is the JVM stand-in here, so only the envelope numbers
+ * carry over to a device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodingBenchmark {
+
+    @Param({"16", "256", "4096", "65536"})
+    public int valueSize;
+
+    private byte[] iv;
+    private byte[] ciphertext;
+    private byte[] envelope;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(valueSize);
+        iv = new byte[12];
+        random.nextBytes(iv);
+        ciphertext = new byte[valueSize + 16];
+        random.nextBytes(ciphertext);
+        envelope = Envelope.encode(Envelope.ALGORITHM_AES_GCM, iv, ciphertext);
+        encoded = Base64.encodeToString(envelope, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] encodeEnvelope() {
+        return Envelope.encode(Envelope.ALGORITHM_AES_GCM, iv, ciphertext);
+    }
+
+    @Benchmark
+    public Envelope parseEnvelope() {
+        return Envelope.parse(envelope, Envelope.ALGORITHM_AES_GCM);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encodeToString(Envelope.encode(Envelope.ALGORITHM_AES_GCM, iv, ciphertext), Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public Envelope decode() {
+        return Envelope.parse(Base64.decode(encoded, Base64.DEFAULT), Envelope.ALGORITHM_AES_GCM);
+    }
+}
@@ -0,0 +1,166 @@
+package com.epam.securestorage.benchmark;
+
+import com.epam.securestorage.SecureStorage;
+import com.epam.securestorage.core.IndexedStorageBackend;
+import com.epam.securestorage.core.KeyLocks;
+import com.epam.securestorage.core.KeySource;
+import com.epam.securestorage.core.SecurityProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h2>Lock striping benchmark</h2>
+ * <b>Description:</b>
+ * Throughput of a Cipher {@link SecureStorage}, which holds the lock of
+ * the key from {@link KeyLocks} during every operation (striped). The
+ * global mode additionally holds one lock shared by all the keys around
+ * every call, as a storage without the striping would. Each thread walks
+ * the keys from its own offset, so threads mostly work on different
+ * keys. The *T1, *T2 and *T4 variants run on 1, 2 and 4 threads, on a
+ * machine with as many cores striped get throughput should grow with
+ * the threads while the global one stays flat. Saves don't scale either
+ * way, every write of {@link IndexedStorageBackend} holds the lock of
+ * its backend's index, so the save variants only show what the striping
+ * costs. Wrapped keys keep the keystore out of the way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LockStripingBenchmark {
+
+    private static final int KEY_COUNT = 256;
+
+    @Param({"global", "striped"})
+    public String lockMode;
+
+    @Param({"256"})
+    public int valueSize;
+
+    private BenchmarkEnvironment environment;
+    private SecureStorage storage;
+    private final ReentrantLock globalLock = new ReentrantLock();
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        storage = new SecureStorage(environment.getContext(), SecurityProvider.Type.CIPHER,
+                KeySource.Mode.WRAPPED, environment);
+        storage.warmUp().get();
+        value = new byte[valueSize];
+        new Random(valueSize).nextBytes(value);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            storage.saveBytes(key(i), value);
+        }
+        environment.check();
+    }
+
+    @TearDown(Level.Iteration)
+    public void check() {
+        environment.check();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static int threads;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            synchronized (Cursor.class) {
+                next = (threads++ * 64) % KEY_COUNT;
+            }
+        }
+
+        String next() {
+            String key = key(next);
+            next = (next + 1) % KEY_COUNT;
+            return key;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] getT1(Cursor cursor) {
+        return get(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(2)
+    public byte[] getT2(Cursor cursor) {
+        return get(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getT4(Cursor cursor) {
+        return get(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void saveT1(Cursor cursor) {
+        save(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void saveT2(Cursor cursor) {
+        save(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void saveT4(Cursor cursor) {
+        save(cursor.next());
+    }
+
+    private byte[] get(String key) {
+        if (!"global".equals(lockMode)) {
+            return storage.getBytes(key);
+        }
+        globalLock.lock();
+        try {
+            return storage.getBytes(key);
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    private void save(String key) {
+        if (!"global".equals(lockMode)) {
+            storage.saveBytes(key, value);
+            return;
+        }
+        globalLock.lock();
+        try {
+            storage.saveBytes(key, value);
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    private static String key(int index) {
+        return String.format(Locale.US, "key%05d", index);
+    }
+}
@@ -0,0 +1,185 @@
+package com.epam.securestorage.benchmark;
+
+import android.content.SharedPreferences;
+
+import com.epam.securestorage.core.KeyStoreHelper;
+import com.epam.securestorage.core.PreferencesStorageBackend;
+import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Provider benchmark</h2>
+ * <b>Description:</b>
+ * Reads and writes of one provider over in-memory preferences. The
+ * store is filled with keyCount values of valueSize bytes, every
+ * invocation picks the next key of its thread. With the cold key
+ * access the cached keystore handles are dropped before every
+ * invocation, so each operation pays a keystore lookup, which can
+ * be slowed down with keystoreLatencyMicros. Thread count is set by
+ * the *Concurrent variants or the -t option of JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public abstract class ProviderBenchmark {
+
+    static final String KEY_ALIAS = "benchmark";
+    private static final String FIRST_KEY = key(0);
+
+    @Param({"16", "256", "4096", "65536"})
+    public int valueSize;
+
+    @Param({"1", "100", "10000"})
+    public int keyCount;
+
+    @Param({"warm", "cold"})
+    public String keyAccess;
+
+    @Param({"0"})
+    public long keystoreLatencyMicros;
+
+    private BenchmarkEnvironment environment;
+    private SecurityProvider provider;
+    private byte[] value;
+
+    protected abstract SecurityProvider createProvider(BenchmarkEnvironment environment, StorageBackend storage);
+
+    /**
+     * @return Keystore aliases the provider resolves on every operation
+     */
+    protected abstract String[] keyAliases();
+
+    /**
+     * @return true if the stored form depends on the key name, the
+     * store is filled by encrypting every value then
+     */
+    protected boolean bindsKeyName() {
+        return false;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+        provider = createProvider(environment, new PreferencesStorageBackend(preferences));
+        provider.warmUp();
+
+        value = new byte[valueSize];
+        new Random(valueSize).nextBytes(value);
+        provider.saveBytes(FIRST_KEY, value);
+        environment.check();
+        if (bindsKeyName()) {
+            for (int i = 1; i < keyCount; i++) {
+                provider.saveBytes(key(i), value);
+            }
+            environment.check();
+        } else {
+            // Encrypting every value would take minutes for the large stores and a lot of memory,
+            // the stored form of the first value is valid under any key name, so it is shared
+            Map<String, ?> stored = preferences.getAll();
+            SharedPreferences.Editor editor = preferences.edit();
+            for (int i = 1; i < keyCount; i++) {
+                for (Map.Entry<String, ?> entry : stored.entrySet()) {
+                    if (entry.getKey().endsWith(FIRST_KEY)) {
+                        editor.putString(entry.getKey().replace(FIRST_KEY, key(i)), (String) entry.getValue());
+                    }
+                }
+            }
+            editor.commit();
+        }
+        SoftwareKeyStore.setLookupLatency(keystoreLatencyMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropKeyHandles() {
+        if ("cold".equals(keyAccess)) {
+            for (String alias : keyAliases()) {
+                KeyStoreHelper.invalidateKey(alias);
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void check() {
+        environment.check();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SoftwareKeyStore.setLookupLatency(0, TimeUnit.MICROSECONDS);
+        environment.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        private ByteBuffer buffer;
+
+        String next(int keyCount) {
+            String key = key(next);
+            next = (next + 1) % keyCount;
+            return key;
+        }
+
+        ByteBuffer buffer(int capacity) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(capacity);
+            }
+            buffer.clear();
+            return buffer;
+        }
+    }
+
+    @Benchmark
+    public byte[] get(Cursor cursor) {
+        return provider.getBytes(cursor.next(keyCount));
+    }
+
+    /**
+     * Decrypts into a buffer reused by the thread, run with -prof gc
+     * to compare its allocations with {@link #get(Cursor)}
+     */
+    @Benchmark
+    public int getIntoBuffer(Cursor cursor) {
+        return provider.getBytes(cursor.next(keyCount), cursor.buffer(valueSize));
+    }
+
+    @Benchmark
+    public void save(Cursor cursor) {
+        provider.saveBytes(cursor.next(keyCount), value);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getConcurrent(Cursor cursor) {
+        return provider.getBytes(cursor.next(keyCount));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void saveConcurrent(Cursor cursor) {
+        provider.saveBytes(cursor.next(keyCount), value);
+    }
+
+    private static String key(int index) {
+        return String.format(Locale.US, "key%05d", index);
+    }
+}
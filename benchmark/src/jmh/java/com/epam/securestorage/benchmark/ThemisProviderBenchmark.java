@@ -0,0 +1,30 @@
+package com.epam.securestorage.benchmark;
+
+import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+import com.epam.securestorage.providers.themis.ThemisEncryptionProvider;
+
+/**
+ * Needs JavaThemis and its native library, see the README. The master
+ * key is unwrapped once per provider, so the cold key access costs a
+ * keystore lookup only when the key is unwrapped again after erase().
+ * The key name is the cell context, so every value of the store is
+ * encrypted in the setup, the largest stores need a bigger heap.
+ */
+public class ThemisProviderBenchmark extends ProviderBenchmark {
+
+    @Override
+    protected SecurityProvider createProvider(BenchmarkEnvironment environment, StorageBackend storage) {
+        return new ThemisEncryptionProvider(environment.getContext(), storage, KEY_ALIAS, environment);
+    }
+
+    @Override
+    protected String[] keyAliases() {
+        return new String[0];
+    }
+
+    @Override
+    protected boolean bindsKeyName() {
+        return true;
+    }
+}
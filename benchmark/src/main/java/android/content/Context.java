@@ -0,0 +1,68 @@
+package android.content;
+
+import com.epam.securestorage.benchmark.InMemorySharedPreferences;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android Context. Directories live under the
+ * given data directory, preferences are kept in memory.
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private final File dataDir;
+    private final Map<String, SharedPreferences> preferences = new HashMap<>();
+
+    public Context(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return directory("files");
+    }
+
+    public File getNoBackupFilesDir() {
+        return directory("no_backup");
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences result = preferences.get(name);
+        if (result == null) {
+            result = new InMemorySharedPreferences();
+            preferences.put(name, result);
+        }
+        return result;
+    }
+
+    public synchronized boolean deleteSharedPreferences(String name) {
+        SharedPreferences removed = preferences.remove(name);
+        if (removed != null) {
+            removed.edit().clear().commit();
+        }
+        return true;
+    }
+
+    public String getPackageName() {
+        return "com.epam.securestorage.benchmark";
+    }
+
+    public void registerComponentCallbacks(ComponentCallbacks callback) {
+    }
+
+    public void unregisterComponentCallbacks(ComponentCallbacks callback) {
+    }
+
+    private File directory(String name) {
+        File directory = new File(dataDir, name);
+        directory.mkdirs();
+        return directory;
+    }
+}
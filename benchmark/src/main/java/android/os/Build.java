@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * The API level defaults to M, where the Cipher provider uses keystore
+ * AES keys. Run with -Dsecurestorage.sdkInt=21 for the pre-M path.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = Integer.getInteger("securestorage.sdkInt", VERSION_CODES.M);
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+    }
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public boolean post(Runnable runnable) {
+        looper.thread.execute(runnable);
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The main looper is a single daemon thread
+ */
+public class Looper {
+
+    private static final Looper MAIN = new Looper();
+
+    final ExecutorService thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "main");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+}
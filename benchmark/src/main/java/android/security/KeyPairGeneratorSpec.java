@@ -0,0 +1,70 @@
+package android.security;
+
+import android.content.Context;
+
+import java.math.BigInteger;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+public class KeyPairGeneratorSpec implements AlgorithmParameterSpec {
+
+    private final String keystoreAlias;
+    private final int keySize;
+
+    KeyPairGeneratorSpec(String keystoreAlias, int keySize) {
+        this.keystoreAlias = keystoreAlias;
+        this.keySize = keySize;
+    }
+
+    public String getKeystoreAlias() {
+        return keystoreAlias;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public static class Builder {
+
+        private String alias;
+        private int keySize = 2048;
+
+        public Builder(Context context) {
+        }
+
+        public Builder setAlias(String alias) {
+            this.alias = alias;
+            return this;
+        }
+
+        public Builder setKeySize(int keySize) {
+            this.keySize = keySize;
+            return this;
+        }
+
+        public Builder setSubject(X500Principal subject) {
+            return this;
+        }
+
+        public Builder setSerialNumber(BigInteger serialNumber) {
+            return this;
+        }
+
+        public Builder setStartDate(Date startDate) {
+            return this;
+        }
+
+        public Builder setEndDate(Date endDate) {
+            return this;
+        }
+
+        public KeyPairGeneratorSpec build() {
+            if (alias == null) {
+                throw new IllegalArgumentException("alias == null");
+            }
+            return new KeyPairGeneratorSpec(alias, keySize);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package android.security.keystore;
+
+import java.security.spec.AlgorithmParameterSpec;
+
+public class KeyGenParameterSpec implements AlgorithmParameterSpec {
+
+    private final String keystoreAlias;
+    private final int keySize;
+    private final String[] blockModes;
+
+    KeyGenParameterSpec(String keystoreAlias, int keySize, String[] blockModes) {
+        this.keystoreAlias = keystoreAlias;
+        this.keySize = keySize;
+        this.blockModes = blockModes;
+    }
+
+    public String getKeystoreAlias() {
+        return keystoreAlias;
+    }
+
+    /**
+     * @return Key size in bits or -1 for the default one
+     */
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public String[] getBlockModes() {
+        return blockModes.clone();
+    }
+
+    public static class Builder {
+
+        private final String keystoreAlias;
+        private int keySize = -1;
+        private String[] blockModes = new String[0];
+
+        public Builder(String keystoreAlias, int purposes) {
+            this.keystoreAlias = keystoreAlias;
+        }
+
+        public Builder setBlockModes(String... blockModes) {
+            this.blockModes = blockModes.clone();
+            return this;
+        }
+
+        public Builder setEncryptionPaddings(String... paddings) {
+            return this;
+        }
+
+        public Builder setKeySize(int keySize) {
+            this.keySize = keySize;
+            return this;
+        }
+
+        public Builder setRandomizedEncryptionRequired(boolean required) {
+            return this;
+        }
+
+        public KeyGenParameterSpec build() {
+            return new KeyGenParameterSpec(keystoreAlias, keySize, blockModes);
+        }
+    }
+}
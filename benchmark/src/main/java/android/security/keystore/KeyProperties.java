@@ -0,0 +1,18 @@
+package android.security.keystore;
+
+public abstract class KeyProperties {
+
+    public static final int PURPOSE_ENCRYPT = 1;
+    public static final int PURPOSE_DECRYPT = 2;
+
+    public static final String KEY_ALGORITHM_AES = "AES";
+    public static final String KEY_ALGORITHM_RSA = "RSA";
+
+    public static final String BLOCK_MODE_ECB = "ECB";
+    public static final String BLOCK_MODE_CBC = "CBC";
+    public static final String BLOCK_MODE_GCM = "GCM";
+
+    public static final String ENCRYPTION_PADDING_NONE = "NoPadding";
+    public static final String ENCRYPTION_PADDING_PKCS7 = "PKCS7Padding";
+    public static final String ENCRYPTION_PADDING_RSA_PKCS1 = "PKCS1Padding";
+}
@@ -0,0 +1,60 @@
+package android.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes go to a new file which replaces the base file on finishWrite()
+ */
+public class AtomicFile {
+
+    private final File baseFile;
+    private final File newFile;
+
+    public AtomicFile(File baseFile) {
+        this.baseFile = baseFile;
+        this.newFile = new File(baseFile.getPath() + ".new");
+    }
+
+    public File getBaseFile() {
+        return baseFile;
+    }
+
+    public void delete() {
+        baseFile.delete();
+        newFile.delete();
+    }
+
+    public FileOutputStream startWrite() throws IOException {
+        return new FileOutputStream(newFile);
+    }
+
+    public void finishWrite(FileOutputStream str) {
+        try {
+            str.getFD().sync();
+            str.close();
+            if (!newFile.renameTo(baseFile)) {
+                throw new IOException("Can't rename " + newFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            newFile.delete();
+        }
+    }
+
+    public void failWrite(FileOutputStream str) {
+        try {
+            str.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        newFile.delete();
+    }
+
+    public FileInputStream openRead() throws FileNotFoundException {
+        return new FileInputStream(baseFile);
+    }
+}
@@ -0,0 +1,67 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Produces the same output as the Android implementation, DEFAULT
+ * wraps lines at 76 characters and ends with a line feed
+ */
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & NO_WRAP) != 0) {
+            encoder = (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+        } else {
+            byte[] separator = (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+            encoder = java.util.Base64.getMimeEncoder(76, separator);
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        byte[] encoded = encoder.encode(input);
+        if ((flags & NO_WRAP) != 0 || encoded.length == 0) {
+            return encoded;
+        }
+        int separatorLength = (flags & CRLF) != 0 ? 2 : 1;
+        byte[] terminated = new byte[encoded.length + separatorLength];
+        System.arraycopy(encoded, 0, terminated, 0, encoded.length);
+        if (separatorLength == 2) {
+            terminated[encoded.length] = '\r';
+        }
+        terminated[terminated.length - 1] = '\n';
+        return terminated;
+    }
+
+    public static byte[] decode(String input, int flags) {
+        return decode(input.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        if ((flags & URL_SAFE) != 0) {
+            return java.util.Base64.getUrlDecoder().decode(strip(input));
+        }
+        return java.util.Base64.getMimeDecoder().decode(input);
+    }
+
+    private static byte[] strip(byte[] input) {
+        int length = 0;
+        byte[] stripped = new byte[input.length];
+        for (byte b : input) {
+            if (b != '\n' && b != '\r') {
+                stripped[length++] = b;
+            }
+        }
+        return java.util.Arrays.copyOf(stripped, length);
+    }
+}
@@ -0,0 +1,51 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts entries, sizeOf() isn't supported
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    public final synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = map.put(key, value);
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (map.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public final synchronized void evictAll() {
+        map.clear();
+    }
+
+    public final synchronized int size() {
+        return map.size();
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,72 @@
+package com.epam.securestorage.benchmark;
+
+import android.content.Context;
+
+import com.epam.securestorage.core.SecureStorageCallback;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h2>Benchmark environment</h2>
+ * <b>Description:</b>
+ * A context in a temporary directory with the software keystore
+ * installed, and a callback which keeps the first provider error.
+ * Providers report errors only to the callback, so a benchmark must
+ * call {@link #check()} or it would happily measure failures.
+ */
+public class BenchmarkEnvironment implements SecureStorageCallback {
+
+    private final File directory;
+    private final Context context;
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    public BenchmarkEnvironment() throws IOException {
+        SoftwareKeyStore.install();
+        directory = Files.createTempDirectory("securestorage-benchmark").toFile();
+        context = new Context(directory);
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    @Override
+    public void onComplete(ActionType actionType) {
+    }
+
+    @Override
+    public void onError(ActionType actionType, Exception e) {
+        error.compareAndSet(null, e);
+    }
+
+    /**
+     * @throws IllegalStateException if a provider reported an error since the last check
+     */
+    public void check() {
+        Exception e = error.getAndSet(null);
+        if (e != null) {
+            throw new IllegalStateException("Provider failed", e);
+        }
+    }
+
+    /**
+     * <b>Description:</b> Deletes the keys and the files of the environment
+     */
+    public void close() {
+        SoftwareKeyStore.clear();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,428 @@
+package com.epam.securestorage.benchmark;
+
+import android.security.KeyPairGeneratorSpec;
+import android.security.keystore.KeyGenParameterSpec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyPairGeneratorSpi;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.interfaces.RSAKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.KeyGeneratorSpi;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+
+/**
+ * <h2>Software keystore</h2>
+ * <b>Description:</b>
+ * Pure JCA stand-ins for the "AndroidKeyStore" and "AndroidOpenSSL"
+ * providers, so the library code runs unchanged on a plain JVM. Keys
+ * are generated by the default JCA providers and kept in memory, a
+ * keystore lookup can be slowed down with {@link #setLookupLatency(long, TimeUnit)}
+ * to approximate the binder round trip of a device when cold key
+ * access is measured.
+ */
+public final class SoftwareKeyStore {
+
+    public static final String KEY_STORE_PROVIDER = "AndroidKeyStore";
+    public static final String CIPHER_PROVIDER = "AndroidOpenSSL";
+
+    private static final Map<String, KeyStore.Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static volatile long lookupLatencyNanos;
+
+    private SoftwareKeyStore() {
+    }
+
+    /**
+     * <b>Description:</b> Registers both providers, does nothing if they are registered already
+     */
+    public static synchronized void install() {
+        if (Security.getProvider(KEY_STORE_PROVIDER) == null) {
+            Security.addProvider(new KeyStoreProvider());
+        }
+        if (Security.getProvider(CIPHER_PROVIDER) == null) {
+            Security.addProvider(new CipherProvider());
+        }
+    }
+
+    public static void setLookupLatency(long latency, TimeUnit unit) {
+        lookupLatencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * <b>Description:</b> Deletes all keys
+     */
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    private static void simulateLookup() {
+        long latency = lookupLatencyNanos;
+        if (latency > 0) {
+            long deadline = System.nanoTime() + latency;
+            long remaining = latency;
+            while (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    private static final class KeyStoreProvider extends Provider {
+
+        KeyStoreProvider() {
+            super(KEY_STORE_PROVIDER, 1.0, "Software stand-in of the Android keystore");
+            put("KeyStore." + KEY_STORE_PROVIDER, Store.class.getName());
+            put("KeyGenerator.AES", AesKeyGenerator.class.getName());
+            put("KeyPairGenerator.RSA", RsaKeyPairGenerator.class.getName());
+        }
+    }
+
+    private static final class CipherProvider extends Provider {
+
+        CipherProvider() {
+            super(CIPHER_PROVIDER, 1.0, "Delegates to the default JCA ciphers");
+            put("Cipher.AES/CBC/PKCS7Padding", AesCbcCipher.class.getName());
+            put("Cipher.RSA/ECB/PKCS1Padding", RsaCipher.class.getName());
+        }
+    }
+
+    public static final class Store extends KeyStoreSpi {
+
+        @Override
+        public KeyStore.Entry engineGetEntry(String alias, KeyStore.ProtectionParameter protection) {
+            simulateLookup();
+            return ENTRIES.get(alias);
+        }
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            KeyStore.Entry entry = engineGetEntry(alias, null);
+            if (entry instanceof KeyStore.SecretKeyEntry) {
+                return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            }
+            return entry instanceof KeyStore.PrivateKeyEntry ? ((KeyStore.PrivateKeyEntry) entry).getPrivateKey() : null;
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            KeyStore.Entry entry = ENTRIES.get(alias);
+            return entry instanceof KeyStore.PrivateKeyEntry ? ((KeyStore.PrivateKeyEntry) entry).getCertificateChain() : null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            Certificate[] chain = engineGetCertificateChain(alias);
+            return chain != null ? chain[0] : null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return ENTRIES.containsKey(alias) ? new Date() : null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            throw new UnsupportedOperationException("Keys are generated by the keystore");
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException("Keys are generated by the keystore");
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            throw new UnsupportedOperationException("Keys are generated by the keystore");
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            ENTRIES.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(ENTRIES.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            simulateLookup();
+            return ENTRIES.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return ENTRIES.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return ENTRIES.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException("The keystore can't be exported");
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+        }
+    }
+
+    public static final class AesKeyGenerator extends KeyGeneratorSpi {
+
+        private KeyGenParameterSpec spec;
+
+        @Override
+        protected void engineInit(AlgorithmParameterSpec params, SecureRandom random) throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyGenParameterSpec)) {
+                throw new InvalidAlgorithmParameterException("KeyGenParameterSpec required");
+            }
+            spec = (KeyGenParameterSpec) params;
+        }
+
+        @Override
+        protected void engineInit(SecureRandom random) {
+            throw new UnsupportedOperationException("KeyGenParameterSpec required");
+        }
+
+        @Override
+        protected void engineInit(int keySize, SecureRandom random) {
+            throw new UnsupportedOperationException("KeyGenParameterSpec required");
+        }
+
+        @Override
+        protected SecretKey engineGenerateKey() {
+            if (spec == null) {
+                throw new IllegalStateException("Not initialized");
+            }
+            try {
+                KeyGenerator generator = KeyGenerator.getInstance("AES");
+                generator.init(spec.getKeySize() > 0 ? spec.getKeySize() : 128);
+                SecretKey key = generator.generateKey();
+                ENTRIES.put(spec.getKeystoreAlias(), new KeyStore.SecretKeyEntry(key));
+                return key;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static final class RsaKeyPairGenerator extends KeyPairGeneratorSpi {
+
+        private KeyPairGeneratorSpec spec;
+
+        @Override
+        public void initialize(AlgorithmParameterSpec params, SecureRandom random) throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyPairGeneratorSpec)) {
+                throw new InvalidAlgorithmParameterException("KeyPairGeneratorSpec required");
+            }
+            spec = (KeyPairGeneratorSpec) params;
+        }
+
+        @Override
+        public void initialize(int keySize, SecureRandom random) {
+            throw new UnsupportedOperationException("KeyPairGeneratorSpec required");
+        }
+
+        @Override
+        public KeyPair generateKeyPair() {
+            if (spec == null) {
+                throw new IllegalStateException("Not initialized");
+            }
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(spec.getKeySize());
+                KeyPair pair = generator.generateKeyPair();
+                Certificate[] chain = {new PublicKeyCertificate(pair.getPublic())};
+                ENTRIES.put(spec.getKeystoreAlias(), new KeyStore.PrivateKeyEntry(pair.getPrivate(), chain));
+                return pair;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries only the public key, which is all the library reads of the certificate
+     */
+    private static final class PublicKeyCertificate extends Certificate {
+
+        private final PublicKey publicKey;
+
+        PublicKeyCertificate(PublicKey publicKey) {
+            super("X.509");
+            this.publicKey = publicKey;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return publicKey.getEncoded();
+        }
+
+        @Override
+        public void verify(PublicKey key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void verify(PublicKey key, String sigProvider) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "PublicKeyCertificate[" + publicKey.getAlgorithm() + "]";
+        }
+
+        @Override
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+    }
+
+    /**
+     * Android names PKCS#5 padding of AES PKCS7Padding, the JVM knows only the former
+     */
+    public static final class AesCbcCipher extends DelegatingCipher {
+
+        public AesCbcCipher() throws GeneralSecurityException {
+            super("AES/CBC/PKCS5Padding");
+        }
+    }
+
+    public static final class RsaCipher extends DelegatingCipher {
+
+        public RsaCipher() throws GeneralSecurityException {
+            super("RSA/ECB/PKCS1Padding");
+        }
+    }
+
+    /**
+     * Registered under full transformations only, so the mode and the padding are never set
+     */
+    private abstract static class DelegatingCipher extends CipherSpi {
+
+        private final Cipher delegate;
+
+        DelegatingCipher(String transformation) throws GeneralSecurityException {
+            delegate = Cipher.getInstance(transformation, "SunJCE");
+        }
+
+        @Override
+        protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+            throw new NoSuchAlgorithmException(mode);
+        }
+
+        @Override
+        protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+            throw new NoSuchPaddingException(padding);
+        }
+
+        @Override
+        protected int engineGetBlockSize() {
+            return delegate.getBlockSize();
+        }
+
+        @Override
+        protected int engineGetOutputSize(int inputLen) {
+            return delegate.getOutputSize(inputLen);
+        }
+
+        @Override
+        protected byte[] engineGetIV() {
+            return delegate.getIV();
+        }
+
+        @Override
+        protected AlgorithmParameters engineGetParameters() {
+            return delegate.getParameters();
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+            delegate.init(opmode, key, random);
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+            delegate.init(opmode, key, params, random);
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+            delegate.init(opmode, key, params, random);
+        }
+
+        @Override
+        protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+            return delegate.update(input, inputOffset, inputLen);
+        }
+
+        @Override
+        protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+            return delegate.update(input, inputOffset, inputLen, output, outputOffset);
+        }
+
+        @Override
+        protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) throws IllegalBlockSizeException, BadPaddingException {
+            return delegate.doFinal(input, inputOffset, inputLen);
+        }
+
+        @Override
+        protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+            return delegate.doFinal(input, inputOffset, inputLen, output, outputOffset);
+        }
+
+        @Override
+        protected int engineGetKeySize(Key key) {
+            if (key instanceof RSAKey) {
+                return ((RSAKey) key).getModulus().bitLength();
+            }
+            byte[] encoded = key.getEncoded();
+            return encoded != null ? encoded.length * 8 : 0;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.epam.securestorage.providers.themis;
+
+import android.content.Context;
+
+import com.epam.securestorage.core.MetricsListener;
+import com.epam.securestorage.core.SecureStorageCallback;
+import com.epam.securestorage.core.SecurityProvider;
+import com.epam.securestorage.core.StorageBackend;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Stands in for the Themis provider when JavaThemis isn't on the
+ * classpath, so SecureStorage compiles. Creating one fails.
+ */
+public class ThemisEncryptionProvider implements SecurityProvider {
+
+    public ThemisEncryptionProvider(Context context, StorageBackend storage, String keyAlias,
+                                    SecureStorageCallback callback) {
+        throw unavailable();
+    }
+
+    @Override
+    public void save(String key, String value) {
+        throw unavailable();
+    }
+
+    @Override
+    public void remove(String key) {
+        throw unavailable();
+    }
+
+    @Override
+    public void erase() {
+        throw unavailable();
+    }
+
+    @Override
+    public String get(String key) {
+        throw unavailable();
+    }
+
+    @Override
+    public void saveAll(Map<String, String> values) {
+        throw unavailable();
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        throw unavailable();
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys) {
+        throw unavailable();
+    }
+
+    @Override
+    public boolean commit(Map<String, byte[]> values, Collection<String> removals, boolean durable) {
+        throw unavailable();
+    }
+
+    @Override
+    public void saveBytes(String key, byte[] value) {
+        throw unavailable();
+    }
+
+    @Override
+    public byte[] getBytes(String key) {
+        throw unavailable();
+    }
+
+    @Override
+    public int getBytes(String key, ByteBuffer out) {
+        throw unavailable();
+    }
+
+    @Override
+    public void warmUp() {
+        throw unavailable();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        throw unavailable();
+    }
+
+    @Override
+    public SortedSet<String> keys(String prefix) {
+        throw unavailable();
+    }
+
+    @Override
+    public int size() {
+        throw unavailable();
+    }
+
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        throw unavailable();
+    }
+
+    @Override
+    public void setCompressionThreshold(int minBytes) {
+        throw unavailable();
+    }
+
+    private static UnsupportedOperationException unavailable() {
+        return new UnsupportedOperationException("JavaThemis isn't on the classpath, see benchmark/build.gradle");
+    }
+}
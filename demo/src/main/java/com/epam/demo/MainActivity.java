@@ -12,6 +12,7 @@ import android.widget.Toast;
 
 import com.epam.securestorage.SecureStorage;
 import com.epam.securestorage.core.SecureStorageCallback;
+import com.epam.securestorage.core.SecureStorageResultCallback;
 import com.epam.securestorage.core.SecurityProvider;
 
 /**
@@ -48,6 +49,8 @@ public class MainActivity extends AppCompatActivity {
                 Log.d("CIPHER_PROVIDER", actionType.toString(), e);
             }
         });
+        // Keys are prepared in background while the screen is shown
+        storage.warmUp();
 
         final EditText valueKey = findViewById(R.id.value_key);
         final EditText valueStore = findViewById(R.id.value_store);
@@ -56,14 +59,24 @@ public class MainActivity extends AppCompatActivity {
         findViewById(R.id.btn_save).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                storage.save(valueKey.getText().toString(), valueStore.getText().toString());
+                storage.saveAsync(valueKey.getText().toString(), valueStore.getText().toString(), null);
             }
         });
 
         findViewById(R.id.btn_get_decrypted_value).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                anyValue.setText(storage.get(valueKey.getText().toString()));
+                storage.getAsync(valueKey.getText().toString(), new SecureStorageResultCallback<String>() {
+                    @Override
+                    public void onSuccess(String result) {
+                        anyValue.setText(result);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.d("CIPHER_PROVIDER", "getAsync", e);
+                    }
+                });
             }
         });
 